@@ -2,6 +2,7 @@ plugins {
     java
     application
     id("com.github.johnrengelman.shadow") version "8.1.1"
+    id("me.champeau.jmh") version "0.7.2"
 }
 
 group = "igs-landstuhl"
@@ -41,8 +42,15 @@ tasks.shadowJar {
     }
 }
 
+jmh {
+    // Benchmarks live in src/jmh, run them with ./gradlew jmh
+    fork.set(1)
+    warmupIterations.set(3)
+    iterations.set(5)
+}
+
 java {
     toolchain {
-        languageVersion.set(JavaLanguageVersion.of(17)) // or another version you prefer
+        languageVersion.set(JavaLanguageVersion.of(21)) // or another version you prefer
     }
 }
@@ -0,0 +1,106 @@
+package de.igslandstuhl.database.server.webserver;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures reading and parsing the header of a typical browser request.
+ * The legacy benchmark reproduces the former byte-by-byte scanner with a boxed window, as a baseline.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class HttpHeaderReaderBenchmark {
+    private static final String REQUEST = "GET /js/user/subjects.js?v=2 HTTP/1.1\r\n"
+            + "Host: lernjobs.igs-landstuhl.de\r\n"
+            + "User-Agent: Mozilla/5.0 (Windows NT 10.0; Win64; x64; rv:128.0) Gecko/20100101 Firefox/128.0\r\n"
+            + "Accept: */*\r\n"
+            + "Accept-Language: de,en-US;q=0.7,en;q=0.3\r\n"
+            + "Accept-Encoding: gzip, deflate, br, zstd\r\n"
+            + "Connection: keep-alive\r\n"
+            + "Referer: https://lernjobs.igs-landstuhl.de/dashboard\r\n"
+            + "Cookie: session=5f0c2a9e-8d1b-4c47-a6f3-2e7b9d4c1a08; theme=dark\r\n"
+            + "Sec-Fetch-Dest: script\r\n"
+            + "Sec-Fetch-Mode: no-cors\r\n"
+            + "Sec-Fetch-Site: same-origin\r\n"
+            + "\r\n";
+
+    private byte[] request;
+    private ResettableInputStream input;
+    private HttpHeaderReader reader;
+
+    /**
+     * Serves the same request over and over, like a keep-alive connection.
+     */
+    private static final class ResettableInputStream extends InputStream {
+        private final byte[] data;
+        private int position;
+
+        ResettableInputStream(byte[] data) {
+            this.data = data;
+        }
+        @Override
+        public int read() {
+            if (position == data.length) position = 0;
+            return data[position++] & 0xFF;
+        }
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (position == data.length) position = 0;
+            int n = Math.min(len, data.length - position);
+            System.arraycopy(data, position, b, off, n);
+            position += n;
+            return n;
+        }
+    }
+
+    @Setup
+    public void setup() {
+        request = REQUEST.getBytes(StandardCharsets.ISO_8859_1);
+        input = new ResettableInputStream(request);
+        reader = new HttpHeaderReader(input);
+    }
+
+    @Benchmark
+    public HttpHeader readHeader() throws IOException {
+        return reader.readHeader();
+    }
+
+    @Benchmark
+    public HttpHeader legacyReadHeader() throws IOException {
+        String header = new String(legacyReadUntilDoubleCRLF(new ByteArrayInputStream(request)), StandardCharsets.ISO_8859_1);
+        return new HttpHeader(header);
+    }
+
+    private static byte[] legacyReadUntilDoubleCRLF(InputStream in) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        LinkedList<Integer> window = new LinkedList<>();
+        int current;
+        while ((current = in.read()) != -1) {
+            baos.write(current);
+            window.addLast(current);
+            if (window.size() > 4) window.removeFirst();
+            if (window.size() == 4) {
+                Integer[] w = window.toArray(new Integer[0]);
+                if (w[0] == 13 && w[1] == 10 && w[2] == 13 && w[3] == 10) {
+                    break;
+                }
+            }
+            if (baos.size() > 64 * 1024) break;
+        }
+        return baos.toByteArray();
+    }
+}
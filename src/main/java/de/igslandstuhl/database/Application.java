@@ -10,6 +10,7 @@ import de.igslandstuhl.database.api.Topic;
 import de.igslandstuhl.database.holidays.Holiday;
 import de.igslandstuhl.database.server.Server;
 import de.igslandstuhl.database.server.commands.Command;
+import de.igslandstuhl.database.server.sql.SQLHelper;
 import de.igslandstuhl.database.server.webserver.PostRequestHandler;
 import de.igslandstuhl.database.utils.CommandLineUtils;
 
@@ -60,6 +61,33 @@ public final class Application {
         }
     }
 
+    /**
+     * Returns the value of an optional command line argument without asking on the command line.
+     * Used for tuning options that should simply fall back to their default value.
+     * @param key the key of the argument (without leading dashes)
+     * @param defaultValue the value to return if the argument is not given
+     * @return the value of the argument, or the default value
+     */
+    public String getOption(String key, String defaultValue) {
+        return getArguments().hasKey(key) ? getArguments().get(key) : defaultValue;
+    }
+    /**
+     * Returns the value of an optional numeric command line argument without asking on the command line.
+     * @param key the key of the argument (without leading dashes)
+     * @param defaultValue the value to return if the argument is not given or no valid number
+     * @return the value of the argument, or the default value
+     */
+    public int getIntOption(String key, int defaultValue) {
+        String value = getOption(key, null);
+        if (value == null) return defaultValue;
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid value for --" + key + ": " + value + ", using " + defaultValue);
+            return defaultValue;
+        }
+    }
+
     public Application(String[] args) {
         this.arguments = new Arguments(args);
     }
@@ -93,6 +121,9 @@ public final class Application {
     public static void main(String[] args) throws Exception {
         instance = new Application(args);
         Server.getInstance().getConnection().createTables();
+        for (String problem : SQLHelper.validateStatements(Server.getInstance().getConnection())) {
+            System.err.println("WARNING: invalid SQL statement " + problem);
+        }
 
         Holiday.setupCurrentSchoolYear();
         PostRequestHandler.registerHandlers();
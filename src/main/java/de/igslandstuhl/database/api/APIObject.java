@@ -1,5 +1,33 @@
 package de.igslandstuhl.database.api;
 
-public interface APIObject {
+import java.io.IOException;
+
+import com.google.gson.stream.JsonWriter;
+
+import de.igslandstuhl.database.utils.JSONWritable;
+
+public interface APIObject extends JSONWritable {
     public String toJSON();
+
+    /**
+     * Writes this object as JSON.
+     * The default implementation writes the result of {@link #toJSON()},
+     * objects that are serialized in large lists write their fields directly instead.
+     * @param out the writer to write to
+     * @throws IOException if writing fails
+     */
+    @Override
+    public default void writeJSON(JsonWriter out) throws IOException {
+        out.jsonValue(toJSON());
+    }
+    /**
+     * Writes this object in the normalized form, see {@link NormalizedJSON}.
+     * The default implementation writes the normal form, for objects that do not contain catalog objects.
+     * @param out the writer to write to
+     * @param references collects the referenced catalog objects
+     * @throws IOException if writing fails
+     */
+    public default void writeNormalizedJSON(JsonWriter out, NormalizedJSON references) throws IOException {
+        writeJSON(out);
+    }
 }
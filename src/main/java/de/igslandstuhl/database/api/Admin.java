@@ -3,6 +3,7 @@ package de.igslandstuhl.database.api;
 import java.sql.SQLException;
 
 import de.igslandstuhl.database.server.Server;
+import de.igslandstuhl.database.server.sql.SQLArguments;
 import de.igslandstuhl.database.server.sql.SQLHelper;
 
 public class Admin extends User {
@@ -18,12 +19,13 @@ public class Admin extends User {
 
     public static Admin create(String username, String password) throws SQLException {
         String passwordHash = passHash(password);
-        Server.getInstance().getConnection().executeVoidProcessSecure(SQLHelper.getAddObjectProcess("admin", username, passwordHash));
-        return new Admin(username, passwordHash);
+        Server.getInstance().getConnection().executeVoidProcessSecure(SQLHelper.getAddObjectProcess("admin", SQLArguments.of().add(username).add(passwordHash)));
+        return UserIndex.put(new Admin(username, passwordHash));
     }
 
     public void delete() throws SQLException {
-        Server.getInstance().getConnection().executeVoidProcessSecure(SQLHelper.getDeleteObjectProcess("admin", username));
+        Server.getInstance().getConnection().executeVoidProcessSecure(SQLHelper.getDeleteObjectProcess("admin", SQLArguments.of().add(username)));
+        UserIndex.remove(username);
     }
 
     @Override
@@ -99,7 +101,8 @@ public class Admin extends User {
 
     @Override
     public Admin setPassword(String password) throws SQLException {
-        Server.getInstance().getConnection().executeVoidProcessSecure(SQLHelper.getUpdateObjectProcess("password_hash_for_admin", passHash(password), getUsername()));
-        return get(username);
+        Server.getInstance().getConnection().executeVoidProcessSecure(SQLHelper.getUpdateObjectProcess("password_hash_for_admin", SQLArguments.of().add(passHash(password)).add(getUsername())));
+        UserIndex.remove(username);
+        return UserIndex.put(get(username));
     }
 }
@@ -0,0 +1,65 @@
+package de.igslandstuhl.database.api;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.igslandstuhl.database.utils.JSONUtils;
+import de.igslandstuhl.database.utils.JSONWritable;
+
+/**
+ * Caches the serialized JSON of the catalog objects, i.e. subjects, topics, tasks and rooms.
+ * The catalog rarely changes, but its objects are serialized for every task a student has touched.
+ * Every change of the catalog increments the version, which invalidates all cached fragments at once.
+ */
+public final class CatalogCache {
+    private static final AtomicLong version = new AtomicLong();
+
+    private CatalogCache() {}
+
+    /**
+     * Returns the current version of the catalog.
+     * @return the version, incremented on every change
+     */
+    public static long version() {
+        return version.get();
+    }
+
+    /**
+     * Marks the catalog as changed, so all fragments are serialized again on their next use.
+     */
+    public static void invalidate() {
+        version.incrementAndGet();
+    }
+
+    /**
+     * The cached JSON of one catalog object.
+     */
+    public static final class Fragment {
+        private record Value(long version, String json) {}
+
+        private final JSONWritable source;
+        private volatile Value value;
+
+        /**
+         * Creates an empty fragment.
+         * @param source writes the JSON of the object, called whenever the cached JSON is outdated
+         */
+        public Fragment(JSONWritable source) {
+            this.source = source;
+        }
+
+        /**
+         * Returns the JSON of the object, serializing it if the catalog changed since it was cached.
+         * @return the JSON representation
+         */
+        public String get() {
+            long current = version.get();
+            Value value = this.value;
+            if (value == null || value.version() != current) {
+                // If the catalog changes while serializing, the result is stored with the old version and is replaced on the next call
+                value = new Value(current, JSONUtils.toJSON(source));
+                this.value = value;
+            }
+            return value.json();
+        }
+    }
+}
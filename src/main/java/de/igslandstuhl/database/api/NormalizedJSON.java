@@ -0,0 +1,133 @@
+package de.igslandstuhl.database.api;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.google.gson.stream.JsonWriter;
+
+import de.igslandstuhl.database.utils.JSONWritable;
+
+/**
+ * Writes API objects in the normalized form.
+ * In the normal form, every task contains its topic and every topic its subject, so lists of tasks repeat the same objects many times.
+ * In the normalized form, these objects are referenced by their id and written once, in dictionaries next to the data:
+ * <pre>
+ * {
+ *   "data": ...,
+ *   "topics": {"3": {"id": 3, "subject": 1, ...}},
+ *   "subjects": {"1": {"id": 1, "name": "Mathematik"}},
+ *   "classes": {"2": {"id": 2, "label": "5a", "grade": 5}}
+ * }
+ * </pre>
+ * Clients ask for this form with the query parameter "normalized", see
+ * {@link de.igslandstuhl.database.server.webserver.requests.HttpRequest#wantsNormalizedJSON()}.
+ */
+public final class NormalizedJSON {
+    private final Map<Integer, Topic> topics = new LinkedHashMap<>();
+    private final Map<Integer, Subject> subjects = new LinkedHashMap<>();
+    private final Map<Integer, SchoolClass> classes = new LinkedHashMap<>();
+
+    private NormalizedJSON() {}
+
+    /**
+     * Returns the normalized form of a single object.
+     * @param object the object written as data
+     * @return the writer of the normalized document
+     */
+    public static JSONWritable of(APIObject object) {
+        return (out) -> {
+            NormalizedJSON references = new NormalizedJSON();
+            out.beginObject().name("data");
+            object.writeNormalizedJSON(out, references);
+            references.writeDictionaries(out);
+            out.endObject();
+        };
+    }
+    /**
+     * Returns the normalized form of a list of objects.
+     * @param objects the objects written as the data array, null elements are written as null
+     * @return the writer of the normalized document
+     */
+    public static JSONWritable ofList(Iterable<? extends APIObject> objects) {
+        return (out) -> {
+            NormalizedJSON references = new NormalizedJSON();
+            out.beginObject().name("data").beginArray();
+            for (APIObject object : objects) {
+                if (object == null) {
+                    out.nullValue();
+                } else {
+                    object.writeNormalizedJSON(out, references);
+                }
+            }
+            out.endArray();
+            references.writeDictionaries(out);
+            out.endObject();
+        };
+    }
+
+    /**
+     * Writes a reference to a topic, the topic itself is written to the dictionary.
+     * @param out the writer to write to
+     * @param topic the topic, may be null
+     * @throws IOException if writing fails
+     */
+    void writeReference(JsonWriter out, Topic topic) throws IOException {
+        if (topic == null) {
+            out.nullValue();
+        } else {
+            topics.putIfAbsent(topic.getId(), topic);
+            out.value(topic.getId());
+        }
+    }
+    /**
+     * Writes a reference to a subject, the subject itself is written to the dictionary.
+     * @param out the writer to write to
+     * @param subject the subject, may be null
+     * @throws IOException if writing fails
+     */
+    void writeReference(JsonWriter out, Subject subject) throws IOException {
+        if (subject == null) {
+            out.nullValue();
+        } else {
+            subjects.putIfAbsent(subject.getId(), subject);
+            out.value(subject.getId());
+        }
+    }
+    /**
+     * Writes a reference to a class, the class itself is written to the dictionary.
+     * @param out the writer to write to
+     * @param schoolClass the class, may be null
+     * @throws IOException if writing fails
+     */
+    void writeReference(JsonWriter out, SchoolClass schoolClass) throws IOException {
+        if (schoolClass == null) {
+            out.nullValue();
+        } else {
+            classes.putIfAbsent(schoolClass.getId(), schoolClass);
+            out.value(schoolClass.getId());
+        }
+    }
+
+    private void writeDictionaries(JsonWriter out) throws IOException {
+        // Topics reference their subjects, so they are written first
+        out.name("topics").beginObject();
+        for (Topic topic : topics.values()) {
+            out.name(String.valueOf(topic.getId()));
+            topic.writeNormalizedJSON(out, this);
+        }
+        out.endObject();
+        out.name("subjects").beginObject();
+        for (Subject subject : subjects.values()) {
+            out.name(String.valueOf(subject.getId()));
+            subject.writeJSON(out);
+        }
+        out.endObject();
+        out.name("classes").beginObject();
+        for (SchoolClass schoolClass : classes.values()) {
+            out.name(String.valueOf(schoolClass.getId()));
+            schoolClass.writeJSON(out);
+        }
+        out.endObject();
+    }
+}
@@ -1,12 +1,16 @@
 package de.igslandstuhl.database.api;
 
+import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import com.google.gson.stream.JsonWriter;
+
 import de.igslandstuhl.database.server.Server;
+import de.igslandstuhl.database.server.sql.SQLArguments;
 import de.igslandstuhl.database.server.sql.SQLHelper;
 
 /**
@@ -29,6 +33,10 @@ public class Room implements APIObject {
      * This is used to determine if a student is eligible to enter the room.
      */
     private final int minimumLevel;
+    /**
+     * The cached JSON of this room, see {@link CatalogCache}.
+     */
+    private final CatalogCache.Fragment fragment = new CatalogCache.Fragment(this::writeFields);
 
     /**
      * Constructs a new Room.
@@ -120,12 +128,12 @@ public class Room implements APIObject {
      */
     public static Room addRoom(String label, int minimumLevel) throws SQLException {
         Room room = new Room(label, minimumLevel);
-        Server.getInstance().getConnection().executeVoidProcessSecure(SQLHelper.getAddObjectProcess("room", label, String.valueOf(minimumLevel)));
+        Server.getInstance().getConnection().executeVoidProcessSecure(SQLHelper.getAddObjectProcess("room", SQLArguments.of().add(label).add(minimumLevel)));
         rooms.put(label, room);
         return room;
     }
     public void delete() throws SQLException {
-        Server.getInstance().getConnection().executeVoidProcessSecure(SQLHelper.getDeleteObjectProcess("room", getLabel()));
+        Server.getInstance().getConnection().executeVoidProcessSecure(SQLHelper.getDeleteObjectProcess("room", SQLArguments.of().add(getLabel())));
         rooms.remove(getLabel());
     }
     /**
@@ -147,14 +155,14 @@ public class Room implements APIObject {
 
     public Room setMinimumLevel(int level) throws SQLException {
         if (level < 0 || level > 3) throw new IllegalArgumentException("Level " + level + " out of range");
-        Server.getInstance().getConnection().executeVoidProcessSecure(SQLHelper.getUpdateObjectProcess("level_of_room", getLabel(), String.valueOf(level)));
+        Server.getInstance().getConnection().executeVoidProcessSecure(SQLHelper.getUpdateObjectProcess("level_of_room", SQLArguments.of().add(getLabel()).add(level)));
         rooms.remove(getLabel());
         return getRoom(getLabel());
     }
 
     @Override
     public String toString() {
-        return "{\"label\": \""+label+ "\", \"minimumLevel\": \"" + minimumLevel + "\"}";
+        return toJSON();
     }
     /**
      * Adds multiple rooms to the database and the static map.
@@ -231,7 +239,17 @@ public class Room implements APIObject {
     }
     @Override
     public String toJSON() {
-        return "{\"label\": \""+label+ "\", \"minimumLevel\": \"" + minimumLevel + "\"}";
+        return fragment.get();
+    }
+    @Override
+    public void writeJSON(JsonWriter out) throws IOException {
+        out.jsonValue(fragment.get());
+    }
+    private void writeFields(JsonWriter out) throws IOException {
+        out.beginObject()
+        .name("label").value(label)
+        .name("minimumLevel").value(String.valueOf(minimumLevel))
+        .endObject();
     }
     
 }
@@ -1,13 +1,18 @@
 package de.igslandstuhl.database.api;
 
+import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
 import java.util.stream.Collectors;
 
+import com.google.gson.stream.JsonWriter;
+
 import de.igslandstuhl.database.server.Server;
+import de.igslandstuhl.database.server.sql.SQLArguments;
 import de.igslandstuhl.database.server.sql.SQLHelper;
+import de.igslandstuhl.database.utils.JSONUtils;
 
 /**
  * Represents a school class with its associated subjects and students.
@@ -79,12 +84,12 @@ public class SchoolClass implements APIObject {
     }
 
     public SchoolClass setLabel(String label) throws SQLException {
-        Server.getInstance().getConnection().executeVoidProcessSecure(SQLHelper.getUpdateObjectProcess("label_of_class", String.valueOf(id), label));
+        Server.getInstance().getConnection().executeVoidProcessSecure(SQLHelper.getUpdateObjectProcess("label_of_class", SQLArguments.of().add(id).add(label)));
         return get(id);
     }
     public SchoolClass setGrade(int grade) throws SQLException {
         if (grade < 1 || grade > 13) throw new IllegalArgumentException("Grade out of range");
-        Server.getInstance().getConnection().executeVoidProcessSecure(SQLHelper.getUpdateObjectProcess("grade_of_class", String.valueOf(id), String.valueOf(grade)));
+        Server.getInstance().getConnection().executeVoidProcessSecure(SQLHelper.getUpdateObjectProcess("grade_of_class", SQLArguments.of().add(id).add(grade)));
         return get(id);
     }
 
@@ -161,7 +166,7 @@ public class SchoolClass implements APIObject {
     }
 
     public void delete() throws SQLException {
-        Server.getInstance().getConnection().executeVoidProcessSecure(SQLHelper.getDeleteObjectProcess("class", String.valueOf(id)));
+        Server.getInstance().getConnection().executeVoidProcessSecure(SQLHelper.getDeleteObjectProcess("class", SQLArguments.of().add(id)));
         getStudents().forEach((s) -> {
             try {
                 s.delete();
@@ -183,7 +188,7 @@ public class SchoolClass implements APIObject {
      */
     public SchoolClass edit(String name, int grade) throws SQLException {
         Server.getInstance().getConnection().executeVoidProcessSecure(
-            SQLHelper.getAddObjectProcess("class_with_id", String.valueOf(id), name, String.valueOf(grade))
+            SQLHelper.getAddObjectProcess("class_with_id", SQLArguments.of().add(id).add(name).add(grade))
         );
         return get(id);
     }
@@ -276,7 +281,7 @@ public class SchoolClass implements APIObject {
 
     @Override
     public String toString() {
-        return "{\"id\": " + id + ", \"label\": \"" + label + "\", \"grade\": " + grade + "}";
+        return toJSON();
     }
 /**
      * Adds a new class to the database with the specified label and grade.
@@ -287,7 +292,7 @@ public class SchoolClass implements APIObject {
      * @throws SQLException if there is an error accessing the database
      */
     public static SchoolClass addClass(String label, int grade) throws SQLException {
-        Server.getInstance().getConnection().executeVoidProcessSecure(SQLHelper.getAddObjectProcess("class", label, String.valueOf(grade)));
+        Server.getInstance().getConnection().executeVoidProcessSecure(SQLHelper.getAddObjectProcess("class", SQLArguments.of().add(label).add(grade)));
         return get(label);
     }
 
@@ -324,7 +329,15 @@ public class SchoolClass implements APIObject {
 
     @Override
     public String toJSON() {
-        return "{\"id\": " + id + ", \"label\": \"" + label + "\", \"grade\": " + grade + "}";
+        return JSONUtils.toJSON(this);
+    }
+    @Override
+    public void writeJSON(JsonWriter out) throws IOException {
+        out.beginObject()
+        .name("id").value(id)
+        .name("label").value(label)
+        .name("grade").value(grade)
+        .endObject();
     }
     
 }
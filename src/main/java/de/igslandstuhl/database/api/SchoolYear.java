@@ -3,6 +3,7 @@ package de.igslandstuhl.database.api;
 import java.sql.SQLException;
 import java.util.*;
 import de.igslandstuhl.database.server.Server;
+import de.igslandstuhl.database.server.sql.SQLArguments;
 import de.igslandstuhl.database.server.sql.SQLHelper;
 
 /**
@@ -195,9 +196,10 @@ public class SchoolYear implements APIObject {
         Server.getInstance().getConnection().executeVoidProcessSecure(
             SQLHelper.getAddObjectProcess(
                 "school_year",
-                label,
-                String.valueOf(weekCount),
-                String.valueOf(currentWeek)
+                SQLArguments.of()
+                    .add(label)
+                    .add(weekCount)
+                    .add(currentWeek)
             )
         );
         // Fetch the newly created year
@@ -205,7 +207,7 @@ public class SchoolYear implements APIObject {
     }
 
     public void delete() throws SQLException {
-        Server.getInstance().getConnection().executeVoidProcessSecure(SQLHelper.getDeleteObjectProcess("school_year", String.valueOf(id)));
+        Server.getInstance().getConnection().executeVoidProcessSecure(SQLHelper.getDeleteObjectProcess("school_year", SQLArguments.of().add(id)));
     }
 
     @Override
@@ -1,5 +1,6 @@
 package de.igslandstuhl.database.api;
 
+import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Comparator;
@@ -7,7 +8,10 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import com.google.gson.stream.JsonWriter;
+
 import de.igslandstuhl.database.server.Server;
+import de.igslandstuhl.database.server.sql.SQLArguments;
 import de.igslandstuhl.database.server.sql.SQLHelper;
 
 public class SpecialTask extends Task {
@@ -41,23 +45,18 @@ public class SpecialTask extends Task {
     }
 
     @Override
-    public String toString() {
-        return "{" +
-                "\"id\":" + getId() +
-                ", \"name\": \"" + getName() + '"' +
-                ", \"ratio\":" + ratio +
-                ", \"subject\": \"" + subject.getName() + '"' +
-                '}';
+    protected void writeFields(JsonWriter out) throws IOException {
+        out.beginObject()
+        .name("id").value(getId())
+        .name("name").value(getName())
+        .name("ratio").value(ratio)
+        .name("subject").value(subject != null ? subject.getName() : null)
+        .endObject();
     }
-
     @Override
-    public String toJSON() {
-        return "{" +
-                "\"id\":" + getId() +
-                ", \"name\": \"" + getName() + '"' +
-                ", \"ratio\":" + ratio +
-                ", \"subject\": \"" + subject.getName() + '"' +
-                '}';
+    public void writeNormalizedJSON(JsonWriter out, NormalizedJSON references) throws IOException {
+        // Special tasks only contain the name of their subject
+        writeJSON(out);
     }
 
     /**
@@ -132,7 +131,8 @@ public class SpecialTask extends Task {
      * @return the newly created SpecialTask object, or null if the task could not be added
      */
     public static SpecialTask addSpecialTask(String name, double ratio, Subject subject) throws SQLException {
-        Server.getInstance().getConnection().executeVoidProcessSecure(SQLHelper.getAddObjectProcess("special_task", subject == null ? "-1" : name, String.valueOf(ratio), String.valueOf(subject.getId())));
+        Server.getInstance().getConnection().executeVoidProcessSecure(SQLHelper.getAddObjectProcess("special_task", SQLArguments.of().add(name).add(ratio).add(subject == null ? -1 : subject.getId())));
+        CatalogCache.invalidate();
         return getSpecialTasksByName(name).stream()
                 .filter(t -> t.getSubject() == subject && t.getRatio() == ratio)
                 .sorted(Comparator.comparing(SpecialTask::getId, Comparator.reverseOrder()))
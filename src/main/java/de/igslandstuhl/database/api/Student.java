@@ -1,5 +1,6 @@
 package de.igslandstuhl.database.api;
 
+import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -9,12 +10,18 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
+import com.google.gson.stream.JsonWriter;
+
 import de.igslandstuhl.database.api.results.StudentGenerationResult;
 import de.igslandstuhl.database.server.Server;
+import de.igslandstuhl.database.server.sql.SQLArguments;
 import de.igslandstuhl.database.server.sql.SQLHelper;
+import de.igslandstuhl.database.server.sql.SQLVoidProcess;
+import de.igslandstuhl.database.utils.JSONUtils;
 
 /**
  * Represents a student in the system.
@@ -22,9 +29,9 @@ import de.igslandstuhl.database.server.sql.SQLHelper;
  */
 public class Student extends User {
     private static final String[] SQL_FIELDS = new String[] {"id", "first_name", "last_name", "email", "password", "class", "graduation_level"};
-    private static final String[] INTERESTING_TASKSTAT_FIELDS = {"task"};
-    private static final String[] INTERESTING_SPECIAL_TASK_STAT_FIELDS = {"special_task"};
-    private static final Map<Integer, Student> students = new HashMap<>();
+    private static final String TASK_COLUMN = "task";
+    private static final String SPECIAL_TASK_COLUMN = "special_task";
+    private static final Map<Integer, Student> students = new ConcurrentHashMap<>();
 
     /**
      * The unique ID of the student.
@@ -133,11 +140,12 @@ public class Student extends User {
     }
 
     private void fetchTasks() throws SQLException {
-        Server.getInstance().processRequest((t) -> selectedTasks.add(Task.get(Integer.parseInt(t[0]))), "get_selected_tasks_by_student", INTERESTING_TASKSTAT_FIELDS, String.valueOf(id));
-        Server.getInstance().processRequest((t) -> completedTasks.add(Task.get(Integer.parseInt(t[0]))), "get_completed_tasks_by_student", INTERESTING_TASKSTAT_FIELDS, String.valueOf(id));
-        Server.getInstance().processRequest((t) -> lockedTasks.add(Task.get(Integer.parseInt(t[0]))), "get_locked_tasks_by_student", INTERESTING_TASKSTAT_FIELDS, String.valueOf(id));
+        Server server = Server.getInstance();
+        for (int task : server.queryInts(TASK_COLUMN, "get_selected_tasks_by_student", SQLArguments.of().add(id))) selectedTasks.add(Task.get(task));
+        for (int task : server.queryInts(TASK_COLUMN, "get_completed_tasks_by_student", SQLArguments.of().add(id))) completedTasks.add(Task.get(task));
+        for (int task : server.queryInts(TASK_COLUMN, "get_locked_tasks_by_student", SQLArguments.of().add(id))) lockedTasks.add(Task.get(task));
 
-        Server.getInstance().processRequest((t) -> completedTasks.add(SpecialTask.get(Integer.parseInt(t[0]))), "get_completed_special_tasks_by_student", INTERESTING_SPECIAL_TASK_STAT_FIELDS, String.valueOf(id));
+        for (int task : server.queryInts(SPECIAL_TASK_COLUMN, "get_completed_special_tasks_by_student", SQLArguments.of().add(id))) completedTasks.add(SpecialTask.get(task));
     }
 
     /**
@@ -152,7 +160,7 @@ public class Student extends User {
             Student student = Server.getInstance().processSingleRequest(Student::fromSQL, "get_student_by_id", SQL_FIELDS, String.valueOf(id));
             students.put(id, student);
             student.fetchTasks();
-            return student;
+            return UserIndex.put(student);
         } catch (SQLException e) {
             e.printStackTrace();
             return null;
@@ -165,13 +173,14 @@ public class Student extends User {
      * @return a Student object if found, or null if not found
      */
     public static Student getByEmail(String email) {
+        if (UserIndex.get(email) instanceof Student student) return student;
         try {
             Student student = Server.getInstance().processSingleRequest(Student::fromSQL, "get_student_by_email", SQL_FIELDS, email);
             if (student == null) return null;
-            if (students.containsKey(student.getId())) return students.get(student.getId());
+            if (students.containsKey(student.getId())) return UserIndex.put(students.get(student.getId()));
             students.put(student.getId(), student);
             student.fetchTasks();
-            return student;
+            return UserIndex.put(student);
         } catch (NullPointerException e) {
             return null;
         } catch (SQLException e) {
@@ -223,9 +232,9 @@ public class Student extends User {
      */
     public static Student registerStudentWithPassword(int id, String firstName, String lastName, String email, String password, SchoolClass schoolClass, GraduationLevel graduationLevel) throws SQLException {
         Student student = new Student(id, firstName, lastName, email, User.passHash(password), schoolClass, graduationLevel);
-        Server.getInstance().getConnection().executeVoidProcessSecure(SQLHelper.getAddObjectProcess("student", String.valueOf(id), firstName, lastName, email, User.passHash(password), schoolClass != null ? String.valueOf(schoolClass.getId()) : "-1", String.valueOf(graduationLevel.getLevel())));
+        Server.getInstance().getConnection().executeVoidProcessSecure(SQLHelper.getAddObjectProcess("student", SQLArguments.of().add(id).add(firstName).add(lastName).add(email).add(student.getPasswordHash()).add(schoolClass != null ? schoolClass.getId() : -1).add(graduationLevel.getLevel())));
         students.put(id, student);
-        return student;
+        return UserIndex.put(student);
     }
 
     public static String[] generatePasswords(int count, int length) {
@@ -427,22 +436,49 @@ public class Student extends User {
         removeSubjectRequest(subject.getId(), subjectRequest.getGermanTranslation());
     }
 
-    public void beginTask(Task task) throws SQLException {
+    /**
+     * Queues a write of the task state of this student, it is committed together with the writes of other students.
+     * The cached state is updated before, if the write fails, the student is dropped from the cache, so the stored state is loaded again.
+     * @param write the write
+     * @return a future that completes when the write is committed
+     */
+    private CompletableFuture<Void> submitTaskWrite(SQLVoidProcess write) {
+        // The returned stage completes after the eviction, so callers never see the stale state
+        return Server.getInstance().getConnection().submitWrite(write).whenComplete((ignored, failure) -> {
+            if (failure != null) {
+                students.remove(id);
+                UserIndex.remove(getEmail());
+            }
+        });
+    }
+
+    /**
+     * Marks a task as in progress.
+     * @param task the task
+     * @return a future that completes when the change is committed
+     */
+    public CompletableFuture<Void> beginTask(Task task) {
         if (task == null) {
             throw new IllegalArgumentException("Task cannot be null");
         }
+        // Update in memory
+        selectedTasks.add(task);
         // Update in DB
-        Server.getInstance().getConnection().executeVoidProcessSecure(
-            SQLHelper.getAddObjectProcess("taskstat",
-                String.valueOf(id),
-                String.valueOf(task.getId()),
-                "1" // 1 indicates the task is in progress
+        return submitTaskWrite(
+            SQLHelper.getAddObjectProcess("taskstat", SQLArguments.of()
+                .add(id)
+                .add(task.getId())
+                .add(1) // 1 indicates the task is in progress
             )
         );
-        // Update in memory
-        selectedTasks.add(task);
     }
-    public void changeTaskStatus(Task task, int newStatus) throws SQLException {
+    /**
+     * Changes the status of a task.
+     * @param task the task
+     * @param newStatus the new status, e.g. {@link Task#STATUS_COMPLETED}
+     * @return a future that completes when the change is committed
+     */
+    public CompletableFuture<Void> changeTaskStatus(Task task, int newStatus) {
         if (task == null) {
             throw new IllegalArgumentException("Task cannot be null");
         }
@@ -467,17 +503,18 @@ public class Student extends User {
             throw new IllegalArgumentException("Invalid task status: " + newStatus);
         }
         // Update in DB
-        Server.getInstance().getConnection().executeVoidProcessSecure(
-            SQLHelper.getAddObjectProcess("taskstat",
-                String.valueOf(id),
-                String.valueOf(task.getId()),
-                String.valueOf(newStatus)
+        return submitTaskWrite(
+            SQLHelper.getAddObjectProcess("taskstat", SQLArguments.of()
+                .add(id)
+                .add(task.getId())
+                .add(newStatus)
             )
         );
     }
     public Student changeGraduationLevel(int graduationLevel) throws SQLException {
-        Server.getInstance().getConnection().executeVoidProcessSecure(SQLHelper.getUpdateObjectProcess("graduation_level", String.valueOf(id), String.valueOf(graduationLevel)));
+        Server.getInstance().getConnection().executeVoidProcessSecure(SQLHelper.getUpdateObjectProcess("graduation_level", SQLArguments.of().add(id).add(graduationLevel)));
         students.remove(id);
+        UserIndex.remove(getEmail());
         return get(id);
     }
 
@@ -490,8 +527,9 @@ public class Student extends User {
     }
 
     public void delete() throws SQLException {
-        Server.getInstance().getConnection().executeVoidProcessSecure(SQLHelper.getDeleteObjectProcess("student", String.valueOf(id)));
+        Server.getInstance().getConnection().executeVoidProcessSecure(SQLHelper.getDeleteObjectProcess("student", SQLArguments.of().add(id)));
         students.remove(id);
+        UserIndex.remove(getEmail());
     }
 
     @Override
@@ -513,43 +551,81 @@ public class Student extends User {
 
     @Override
     public String toJSON() {
-        StringBuilder builder = new StringBuilder();
-        builder.append("{\n")
-        .append("\"id\": ").append(id).append(",\n")
-        .append("\"firstName\": \"").append(firstName).append("\",\n")
-        .append("\"lastName\": \"").append(lastName).append("\",\n")
-        .append("\"email\": \"").append(email).append("\",\n")
-        .append("\"schoolClass\": ").append(String.valueOf(schoolClass)).append(",\n")
-        .append("\"graduationLevel\": ").append(graduationLevel.getLevel()).append(",\n")
-        .append("\"selectedTasks\": ").append(selectedTasks).append(",\n")
-        .append("\"completedTasks\": ").append(completedTasks).append(",\n")
-        .append("\"lockedTasks\": ").append(lockedTasks).append(",\n")
-        .append("\"currentRoom\": ").append(String.valueOf(currentRoom)).append(",\n")
-        .append("\"currentRequests\": {").append(currentRequests.entrySet().stream()
-            .map(entry -> "\"" + entry.getKey() + "\": " + entry.getValue().stream().map((r) -> '"' + r.getGermanTranslation() + '"').toList())
-            .reduce((a, b) -> a + ", " + b).orElse("")).append("},\n")
-        .append("\"currentProgress\": {");
-        for (Map.Entry<Subject, Topic> entry : currentTopics.entrySet()) {
-            builder.append("\"").append(entry.getKey().getName()).append("\": ");
-            builder.append("{\"topic\": ").append(entry.getValue().getId()).append(", ");
-            builder.append("\"progress\": ").append(getCurrentProgress(entry.getKey())).append("}, ");
+        return JSONUtils.toJSON(this);
+    }
+    @Override
+    public void writeJSON(JsonWriter out) throws IOException {
+        writeFields(out, null);
+    }
+    @Override
+    public void writeNormalizedJSON(JsonWriter out, NormalizedJSON references) throws IOException {
+        writeFields(out, references);
+    }
+    private void writeFields(JsonWriter out, NormalizedJSON references) throws IOException {
+        out.beginObject()
+        .name("id").value(id)
+        .name("firstName").value(firstName)
+        .name("lastName").value(lastName)
+        .name("email").value(email)
+        .name("schoolClass");
+        if (references != null) {
+            references.writeReference(out, schoolClass);
+        } else if (schoolClass != null) {
+            schoolClass.writeJSON(out);
+        } else {
+            out.nullValue();
+        }
+        out.name("graduationLevel").value(graduationLevel.getLevel());
+        out.name("selectedTasks");
+        writeTasks(out, selectedTasks, references);
+        out.name("completedTasks");
+        writeTasks(out, completedTasks, references);
+        out.name("lockedTasks");
+        writeTasks(out, lockedTasks, references);
+        out.name("currentRoom");
+        if (currentRoom != null) {
+            currentRoom.writeJSON(out);
+        } else {
+            out.nullValue();
         }
-        if (!currentTopics.isEmpty()) {
-            builder.setLength(builder.length() - 2); // Remove trailing comma and space
+        out.name("currentRequests").beginObject();
+        for (Map.Entry<Integer, Set<SubjectRequest>> entry : currentRequests.entrySet()) {
+            out.name(String.valueOf(entry.getKey())).beginArray();
+            for (SubjectRequest request : entry.getValue()) {
+                out.value(request.getGermanTranslation());
+            }
+            out.endArray();
         }
-        builder.append("},\n");
-        builder.append("\"predictedProgress\": {");
+        out.endObject();
+        out.name("currentProgress").beginObject();
         for (Map.Entry<Subject, Topic> entry : currentTopics.entrySet()) {
-            builder.append("\"").append(entry.getKey().getName()).append("\": ");
-            builder.append("{\"topic\": ").append(entry.getValue().getId()).append(", ");
-            builder.append("\"predictedProgress\": ").append(getPredictedProgress(entry.getKey())).append("}, ");
+            out.name(entry.getKey().getName()).beginObject()
+            .name("topic").value(entry.getValue().getId())
+            .name("progress").value(getCurrentProgress(entry.getKey()))
+            .endObject();
         }
-        if (!currentTopics.isEmpty()) {
-            builder.setLength(builder.length() - 2); // Remove trailing comma and space
+        out.endObject();
+        out.name("predictedProgress").beginObject();
+        for (Map.Entry<Subject, Topic> entry : currentTopics.entrySet()) {
+            out.name(entry.getKey().getName()).beginObject()
+            .name("topic").value(entry.getValue().getId())
+            .name("predictedProgress").value(getPredictedProgress(entry.getKey()))
+            .endObject();
         }
-        builder.append("}\n");
-        builder.append("}");
-        return builder.toString();
+        out.endObject();
+        out.endObject();
+    }
+
+    private static void writeTasks(JsonWriter out, Set<Task> tasks, NormalizedJSON references) throws IOException {
+        if (references == null) {
+            JSONUtils.writeJSON(out, tasks);
+            return;
+        }
+        out.beginArray();
+        for (Task task : tasks) {
+            task.writeNormalizedJSON(out, references);
+        }
+        out.endArray();
     }
 
     private void loadCurrentTopics() {
@@ -587,10 +663,10 @@ public class Student extends User {
     public void setCurrentTopic(Subject subject, Topic topic) throws SQLException {
         // Update in DB
         Server.getInstance().getConnection().executeVoidProcessSecure(
-            SQLHelper.getAddObjectProcess("topic_to_student",
-                String.valueOf(id),
-                String.valueOf(topic.getId()),
-                String.valueOf(topic.getSubject().getId())
+            SQLHelper.getAddObjectProcess("topic_to_student", SQLArguments.of()
+                .add(id)
+                .add(topic.getId())
+                .add(topic.getSubject().getId())
             )
         );
         // Update in memory
@@ -711,19 +787,24 @@ public class Student extends User {
         return currentRequests.entrySet().stream().anyMatch((set) -> !set.getValue().isEmpty());
     }
 
-    public void assignCompletedSpecialTask(SpecialTask task) throws SQLException {
+    /**
+     * Marks a special task as completed.
+     * @param task the special task
+     * @return a future that completes when the change is committed
+     */
+    public CompletableFuture<Void> assignCompletedSpecialTask(SpecialTask task) {
         if (task == null) {
             throw new IllegalArgumentException("Special task cannot be null");
         }
+        // Update in memory
+        completedTasks.add(task);
         // Update in DB
-        Server.getInstance().getConnection().executeVoidProcessSecure(
-            SQLHelper.getAddObjectProcess("special_task_to_student",
-                String.valueOf(id),
-                String.valueOf(task.getId())
+        return submitTaskWrite(
+            SQLHelper.getAddObjectProcess("special_task_to_student", SQLArguments.of()
+                .add(id)
+                .add(task.getId())
             )
         );
-        // Update in memory
-        completedTasks.add(task);
     }
 
     @Override
@@ -777,8 +858,9 @@ public class Student extends User {
 
     @Override
     public Student setPassword(String password) throws SQLException {
-        Server.getInstance().getConnection().executeVoidProcessSecure(SQLHelper.getUpdateObjectProcess("password_hash_for_student", passHash(password), String.valueOf(getId())));
+        Server.getInstance().getConnection().executeVoidProcessSecure(SQLHelper.getUpdateObjectProcess("password_hash_for_student", SQLArguments.of().add(passHash(password)).add(getId())));
         students.remove(id);
+        UserIndex.remove(getEmail());
         return get(id);
     }
 }
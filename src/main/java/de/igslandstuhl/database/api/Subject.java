@@ -1,5 +1,6 @@
 package de.igslandstuhl.database.api;
 
+import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -9,7 +10,10 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.stream.Collectors;
 
+import com.google.gson.stream.JsonWriter;
+
 import de.igslandstuhl.database.server.Server;
+import de.igslandstuhl.database.server.sql.SQLArguments;
 import de.igslandstuhl.database.server.sql.SQLHelper;
 
 /**
@@ -36,6 +40,10 @@ public class Subject implements APIObject {
      * This is a human-readable name for the subject.
      */
     private final String name;
+    /**
+     * The cached JSON of this subject, see {@link CatalogCache}.
+     */
+    private final CatalogCache.Fragment fragment = new CatalogCache.Fragment(this::writeFields);
     
     /**
      * Constructs a new Subject.
@@ -154,18 +162,18 @@ public class Subject implements APIObject {
      */
     public void addToGrade(int grade) throws SQLException {
         Server.getInstance().getConnection().executeVoidProcessSecure(
-            SQLHelper.getAddObjectProcess("subject_to_grade", String.valueOf(grade), String.valueOf(id))
+            SQLHelper.getAddObjectProcess("subject_to_grade", SQLArguments.of().add(grade).add(id))
         );
     }
     public void removeFromGrade(int grade) throws SQLException {
         Server.getInstance().getConnection().executeVoidProcessSecure(
-            SQLHelper.getDeleteObjectProcess("subject_from_grade", String.valueOf(grade), String.valueOf(id))
+            SQLHelper.getDeleteObjectProcess("subject_from_grade", SQLArguments.of().add(grade).add(id))
         );
     }
 
     @Override
     public String toString() {
-        return "{\"id\": " + id + ", \"name\": \"" + name + "\"}";
+        return toJSON();
     }
     /**
      * Adds a new subject to the database.
@@ -175,7 +183,7 @@ public class Subject implements APIObject {
      * @throws SQLException if there is an error accessing the database
      */
     public static Subject addSubject(String name) throws SQLException {
-        Server.getInstance().getConnection().executeVoidProcessSecure(SQLHelper.getAddObjectProcess("subject", name));
+        Server.getInstance().getConnection().executeVoidProcessSecure(SQLHelper.getAddObjectProcess("subject", SQLArguments.of().add(name)));
         return get(name);
     }
 
@@ -225,18 +233,20 @@ public class Subject implements APIObject {
 
     public void edit(String name) throws SQLException {
         Server.getInstance().getConnection().executeVoidProcessSecure(
-            SQLHelper.getAddObjectProcess("subject_with_id", String.valueOf(id), name)
+            SQLHelper.getAddObjectProcess("subject_with_id", SQLArguments.of().add(id).add(name))
         );
         // Update the cached subject's name if present
         Subject updated = new Subject(id, name);
         subjects.put(id, updated);
+        CatalogCache.invalidate();
     }
 
     public void delete() throws SQLException {
         Server.getInstance().getConnection().executeVoidProcessSecure(
-            SQLHelper.getDeleteObjectProcess("subject", String.valueOf(id))
+            SQLHelper.getDeleteObjectProcess("subject", SQLArguments.of().add(id))
         );
         subjects.remove(id);
+        CatalogCache.invalidate();
         try {
             Arrays.stream(getGrades()).mapToObj(this::getTopics).forEach((l) -> l.forEach((t) -> {
                 try {
@@ -285,7 +295,17 @@ public class Subject implements APIObject {
 
     @Override
     public String toJSON() {
-        return "{\"id\": " + id + ", \"name\": \"" + name + "\"}";
+        return fragment.get();
+    }
+    @Override
+    public void writeJSON(JsonWriter out) throws IOException {
+        out.jsonValue(fragment.get());
+    }
+    private void writeFields(JsonWriter out) throws IOException {
+        out.beginObject()
+        .name("id").value(id)
+        .name("name").value(name)
+        .endObject();
     }
     
 }
@@ -1,5 +1,6 @@
 package de.igslandstuhl.database.api;
 
+import java.io.IOException;
 import java.sql.SQLException;
 import java.util.HashMap;
 import java.util.Map;
@@ -8,8 +9,11 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
 
+import com.google.gson.stream.JsonWriter;
+
 import de.igslandstuhl.database.Application;
 import de.igslandstuhl.database.server.Server;
+import de.igslandstuhl.database.server.sql.SQLArguments;
 import de.igslandstuhl.database.server.sql.SQLHelper;
 
 /**
@@ -52,6 +56,21 @@ public class Task implements APIObject {
      * It is also used to calculate the task's ratio in relation to the topic.
      */
     private final TaskLevel niveau;
+    /**
+     * The cached JSON of this task, see {@link CatalogCache}.
+     */
+    private final CatalogCache.Fragment fragment = new CatalogCache.Fragment(this::writeFields);
+    /**
+     * The number and ratio of the task, set by its topic whenever the topic loads its tasks.
+     */
+    private volatile Placement placement;
+
+    /**
+     * The position of a task within its topic.
+     * @param number the formatted number, see {@link Task#getNumber()}
+     * @param ratio the ratio, see {@link Task#getRatio()}
+     */
+    record Placement(String number, double ratio) {}
 
     /**
      * Constructs a new Task.
@@ -112,6 +131,8 @@ public class Task implements APIObject {
      * @return the formatted number of the task
      */
     public String getNumber() {
+        Placement placement = placement();
+        if (placement != null) return placement.number();
         switch (niveau) {
             case LEVEL1:
                 return topic.getNumber() + ".1." + (topic.getTasksLevel1().indexOf(this) + 1);
@@ -130,8 +151,26 @@ public class Task implements APIObject {
      * @return the ratio of the task
      */
     public double getRatio() {
+        Placement placement = placement();
+        if (placement != null) return placement.ratio();
         return niveau.getRatio() * topic.getRatio() / (100.0 * topic.getTasksByLevel(niveau).size());
     }
+    /**
+     * Returns the number and ratio computed by the topic, loading the tasks of the topic if necessary.
+     * @return the placement, or null if the task is not part of the loaded tasks of its topic
+     */
+    private Placement placement() {
+        if (topic != null) topic.getTasks(); // Loading the tasks of the topic places them
+        return placement;
+    }
+    /**
+     * Sets the number and ratio of the task, called by the topic when it loads its tasks.
+     * @param number the formatted number
+     * @param ratio the ratio
+     */
+    void place(String number, double ratio) {
+        this.placement = new Placement(number, ratio);
+    }
     /**
      * Returns the subject associated with the task's topic.
      * This is useful for retrieving the subject area to which the task belongs.
@@ -148,8 +187,10 @@ public class Task implements APIObject {
     }
 
     public void delete() throws SQLException {
-        Server.getInstance().getConnection().executeVoidProcessSecure(SQLHelper.getDeleteObjectProcess("task", String.valueOf(id)));
+        Server.getInstance().getConnection().executeVoidProcessSecure(SQLHelper.getDeleteObjectProcess("task", SQLArguments.of().add(id)));
         removeFromCache();
+        if (topic != null) topic.invalidateTasks();
+        CatalogCache.invalidate();
     }
 
     /**
@@ -221,7 +262,7 @@ public class Task implements APIObject {
 
     @Override
     public String toString() {
-        return "{\"id\": " + id + ", \"topic\": " + topic + ", \"name\": \"" + name + "\", \"niveau\": " + niveau + ", \"number\": \"" + getNumber() + "\", \"ratio\": " + getRatio() + "}";
+        return toJSON();
     }
 
     /**
@@ -235,7 +276,9 @@ public class Task implements APIObject {
      * @return the newly created Task object, or null if the task could not be added
      */
     public static Task addTask(Topic topic, String name, TaskLevel niveau) throws SQLException {
-        Server.getInstance().getConnection().executeVoidProcessSecure(SQLHelper.getAddObjectProcess("task", topic == null ? "-1" : String.valueOf(topic.getId()), name, String.valueOf(niveau)));
+        Server.getInstance().getConnection().executeVoidProcessSecure(SQLHelper.getAddObjectProcess("task", SQLArguments.of().add(topic == null ? -1 : topic.getId()).add(name).add(niveau.getNumber())));
+        if (topic != null) topic.invalidateTasks();
+        CatalogCache.invalidate();
         return getByName(name).stream()
                 //.filter(t -> t.getTopic().equals(topic) && t.getNiveau() == niveau)
                 .sorted(Comparator.comparing(Task::getId, Comparator.reverseOrder()))
@@ -288,7 +331,41 @@ public class Task implements APIObject {
 
     @Override
     public String toJSON() {
-        return "{\"id\": " + id + ", \"topic\": " + topic + ", \"name\": \"" + name + "\", \"niveau\": " + niveau + ", \"number\": \"" + getNumber() + "\", \"ratio\": " + getRatio() + "}";
+        return fragment.get();
+    }
+    @Override
+    public void writeJSON(JsonWriter out) throws IOException {
+        out.jsonValue(fragment.get());
+    }
+    /**
+     * Writes the fields of the task, the result is cached until the catalog changes.
+     * @param out the writer to write to
+     * @throws IOException if writing fails
+     */
+    protected void writeFields(JsonWriter out) throws IOException {
+        writeFields(out, null);
+    }
+    @Override
+    public void writeNormalizedJSON(JsonWriter out, NormalizedJSON references) throws IOException {
+        writeFields(out, references);
+    }
+    private void writeFields(JsonWriter out, NormalizedJSON references) throws IOException {
+        out.beginObject()
+        .name("id").value(id)
+        .name("topic");
+        if (references != null) {
+            references.writeReference(out, topic);
+        } else if (topic != null) {
+            topic.writeJSON(out);
+        } else {
+            out.nullValue();
+        }
+        out.name("name").value(name)
+        .name("niveau");
+        niveau.writeJSON(out);
+        out.name("number").value(getNumber())
+        .name("ratio").value(getRatio())
+        .endObject();
     }
     
 }
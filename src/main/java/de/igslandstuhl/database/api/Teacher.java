@@ -1,12 +1,17 @@
 package de.igslandstuhl.database.api;
 
+import java.io.IOException;
 import java.sql.SQLException;
 import java.util.*;
 import java.util.stream.Collectors;
 
+import com.google.gson.stream.JsonWriter;
+
 import de.igslandstuhl.database.api.results.TeacherGenerationResult;
 import de.igslandstuhl.database.server.Server;
+import de.igslandstuhl.database.server.sql.SQLArguments;
 import de.igslandstuhl.database.server.sql.SQLHelper;
+import de.igslandstuhl.database.utils.JSONUtils;
 
 /**
  * Represents a teacher in the student database.
@@ -138,10 +143,21 @@ public class Teacher extends User {
 
     @Override
     public String toJSON() {
-        return String.format(
-            "{\"id\":%d,\"firstName\":\"%s\",\"lastName\":\"%s\",\"email\":\"%s\",\"classIds\":%s}",
-            id, firstName, lastName, email, classIds.toString()
-        );
+        return JSONUtils.toJSON(this);
+    }
+    @Override
+    public void writeJSON(JsonWriter out) throws IOException {
+        out.beginObject()
+        .name("id").value(id)
+        .name("firstName").value(firstName)
+        .name("lastName").value(lastName)
+        .name("email").value(email)
+        .name("classIds").beginArray();
+        for (int classId : classIds) {
+            out.value(classId);
+        }
+        out.endArray()
+        .endObject();
     }
     @Override
     public String toString() {
@@ -198,7 +214,7 @@ public class Teacher extends User {
             teacher.loadClasses();
             teachers.put(id, teacher);
             teachersByEmail.put(teacher.getEmail(), teacher);
-            return teacher;
+            return UserIndex.put(teacher);
         } catch (SQLException e) {
             e.printStackTrace();
             return null;
@@ -221,7 +237,7 @@ public class Teacher extends User {
             teacher.loadClasses();
             teachers.put(teacher.getId(), teacher);
             teachersByEmail.put(email, teacher);
-            return teacher;
+            return UserIndex.put(teacher);
         } catch (SQLException e) {
             e.printStackTrace();
             return null;
@@ -269,7 +285,7 @@ public class Teacher extends User {
     public void addSubject(Subject subject) throws SQLException {
         if (subject == null || subject.getId() <= 0) return;
         Server.getInstance().getConnection().executeVoidProcessSecure(
-            SQLHelper.getAddObjectProcess("subject_to_teacher", String.valueOf(id), String.valueOf(subject.getId()))
+            SQLHelper.getAddObjectProcess("subject_to_teacher", SQLArguments.of().add(id).add(subject.getId()))
         );
     }
 
@@ -287,7 +303,7 @@ public class Teacher extends User {
     public static Teacher registerTeacher(String firstName, String lastName, String email, String password) throws SQLException {
         String passwordHash = User.passHash(password);
         Server.getInstance().getConnection().executeVoidProcessSecure(
-            SQLHelper.getAddObjectProcess("teacher", firstName, lastName, email, passwordHash)
+            SQLHelper.getAddObjectProcess("teacher", SQLArguments.of().add(firstName).add(lastName).add(email).add(passwordHash))
         );
         // Now fetch the teacher from DB to get the ID and cache it
         return fromEmail(email);
@@ -350,7 +366,7 @@ public class Teacher extends User {
     public void addClass(int classId) throws SQLException {
         if (classIds.contains(classId)) return;
         Server.getInstance().getConnection().executeVoidProcessSecure(
-            SQLHelper.getAddObjectProcess("teacher_to_class", String.valueOf(id), String.valueOf(classId))
+            SQLHelper.getAddObjectProcess("teacher_to_class", SQLArguments.of().add(id).add(classId))
         );
         classIds.add(classId);
     }
@@ -400,8 +416,11 @@ public class Teacher extends User {
 
     @Override
     public Teacher setPassword(String password) throws SQLException {
-        Server.getInstance().getConnection().executeVoidProcessSecure(SQLHelper.getUpdateObjectProcess("password_hash_for_teachers", passHash(password), String.valueOf(id)));
+        Server.getInstance().getConnection().executeVoidProcessSecure(SQLHelper.getUpdateObjectProcess("password_hash_for_teachers", SQLArguments.of().add(passHash(password)).add(id)));
         teachers.remove(id);
+        // The old object is also cached by email, otherwise logins would still see the old password
+        teachersByEmail.remove(email);
+        UserIndex.remove(email);
         return get(id);
     }
 }
\ No newline at end of file
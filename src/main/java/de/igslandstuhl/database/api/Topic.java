@@ -1,5 +1,6 @@
 package de.igslandstuhl.database.api;
 
+import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -7,8 +8,11 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 
+import com.google.gson.stream.JsonWriter;
+
 import de.igslandstuhl.database.Application;
 import de.igslandstuhl.database.server.Server;
+import de.igslandstuhl.database.server.sql.SQLArguments;
 import de.igslandstuhl.database.server.sql.SQLHelper;
 
 /**
@@ -69,6 +73,14 @@ public class Topic implements APIObject {
      * Lists of tasks with level 3.
      */
     private List<Task> tasksLevel3 = new ArrayList<>();
+    /**
+     * The cached JSON of this topic, see {@link CatalogCache}.
+     */
+    private final CatalogCache.Fragment fragment = new CatalogCache.Fragment(this::writeFields);
+    /**
+     * Set when tasks were added to or removed from the topic, so they are loaded again on the next access.
+     */
+    private volatile boolean tasksOutdated = false;
 
     /**
      * Constructs a Topic object with the specified parameters.
@@ -162,7 +174,7 @@ public class Topic implements APIObject {
      * @return a list of tasks associated with the topic
      */
     public List<Task> getTasks() {
-        if (tasks.isEmpty()) {
+        if (tasks.isEmpty() || tasksOutdated) {
             loadTasks();
         }
         return tasks;
@@ -187,7 +199,7 @@ public class Topic implements APIObject {
      * @return a list of tasks at level 1 associated with the topic
      */
     public List<Task> getTasksLevel1() {
-        if (tasks.isEmpty()) {
+        if (tasks.isEmpty() || tasksOutdated) {
             loadTasks();
         }
         return tasksLevel1;
@@ -199,7 +211,7 @@ public class Topic implements APIObject {
      * @return a list of tasks at level 2 associated with the topic
      */
     public List<Task> getTasksLevel2() {
-        if (tasks.isEmpty()) {
+        if (tasks.isEmpty() || tasksOutdated) {
             loadTasks();
         }
         return tasksLevel2;
@@ -211,7 +223,7 @@ public class Topic implements APIObject {
      * @return a list of tasks at level 3 associated with the topic
      */
     public List<Task> getTasksLevel3() {
-        if (tasks.isEmpty()) {
+        if (tasks.isEmpty() || tasksOutdated) {
             loadTasks();
         }
         return tasksLevel3;
@@ -224,7 +236,7 @@ public class Topic implements APIObject {
      * @return a list of tasks at the specified level associated with the topic
      */
     public List<Task> getTasksByLevel(TaskLevel level) {
-        if (tasks.isEmpty()) {
+        if (tasks.isEmpty() || tasksOutdated) {
             loadTasks();
         }
         switch (level) {
@@ -257,6 +269,7 @@ public class Topic implements APIObject {
      * It populates the tasks list and separates them into level-specific lists.
      */
     private void loadTasks() {
+        tasksOutdated = false;
         tasks.clear();
         try {
             List<Integer> taskIds = new ArrayList<>();
@@ -270,10 +283,30 @@ public class Topic implements APIObject {
             tasksLevel1 = getTasksByLevel(tasks, TaskLevel.LEVEL1);
             tasksLevel2 = getTasksByLevel(tasks, TaskLevel.LEVEL2);
             tasksLevel3 = getTasksByLevel(tasks, TaskLevel.LEVEL3);
+            placeTasks(tasksLevel1, TaskLevel.LEVEL1);
+            placeTasks(tasksLevel2, TaskLevel.LEVEL2);
+            placeTasks(tasksLevel3, TaskLevel.LEVEL3);
         } catch (SQLException e) {
             e.printStackTrace();
         }
     }
+    /**
+     * Computes the number and ratio of the tasks of one level once, instead of on every serialization of a task.
+     * @param levelTasks the tasks of the level, in their order
+     * @param level the level
+     */
+    private void placeTasks(List<Task> levelTasks, TaskLevel level) {
+        for (int i = 0; i < levelTasks.size(); i++) {
+            levelTasks.get(i).place(number + "." + level + "." + (i + 1), level.getRatio() * ratio / (100.0 * levelTasks.size()));
+        }
+    }
+    /**
+     * Marks the tasks of the topic as outdated, after a task was added or removed.
+     */
+    void invalidateTasks() {
+        tasksOutdated = true;
+        CatalogCache.invalidate();
+    }
     private static void addToCache(String[] fields) {
         Topic topic = fromSQLFields(fields);
         topics.put(topic.getId(), topic);
@@ -297,13 +330,44 @@ public class Topic implements APIObject {
 
     @Override
     public String toString() {
-        return "{\"id\":" + id + ", \"name\": \"" + name + "\", \"subject\": " + subject + ", \"ratio\": " + ratio + ", \"grade\": " + grade
-                + ", \"tasks\": " + getTaskIds() + ", \"number\": " + number + "}";
+        return toJSON();
     }
     @Override
     public String toJSON() {
-        return "{\"id\":" + id + ", \"name\": \"" + name + "\", \"subject\": " + subject + ", \"ratio\": " + ratio + ", \"grade\": " + grade
-                + ", \"tasks\": " + getTaskIds() + ", \"number\": " + number + "}";
+        return fragment.get();
+    }
+    @Override
+    public void writeJSON(JsonWriter out) throws IOException {
+        out.jsonValue(fragment.get());
+    }
+    @Override
+    public void writeNormalizedJSON(JsonWriter out, NormalizedJSON references) throws IOException {
+        writeFields(out, references);
+    }
+    private void writeFields(JsonWriter out) throws IOException {
+        writeFields(out, null);
+    }
+    private void writeFields(JsonWriter out, NormalizedJSON references) throws IOException {
+        out.beginObject()
+        .name("id").value(id)
+        .name("name").value(name)
+        .name("subject");
+        if (references != null) {
+            references.writeReference(out, subject);
+        } else if (subject != null) {
+            subject.writeJSON(out);
+        } else {
+            out.nullValue();
+        }
+        out.name("ratio").value(ratio)
+        .name("grade").value(grade)
+        .name("tasks").beginArray();
+        for (Task task : getTasks()) {
+            out.value(task.getId());
+        }
+        out.endArray()
+        .name("number").value(number)
+        .endObject();
     }
     /**
      * Adds a new topic to the database.
@@ -316,7 +380,8 @@ public class Topic implements APIObject {
      * @throws SQLException if a database error occurs
      */
     public static Topic addTopic(String name, Subject subject, int ratio, int grade, int number) throws SQLException {
-        Server.getInstance().getConnection().executeVoidProcessSecure(SQLHelper.getAddObjectProcess("topic", name, subject == null ? "-1" : String.valueOf(subject.getId()), String.valueOf(ratio), String.valueOf(grade), String.valueOf(number)));
+        Server.getInstance().getConnection().executeVoidProcessSecure(SQLHelper.getAddObjectProcess("topic", SQLArguments.of().add(name).add(subject == null ? -1 : subject.getId()).add(ratio).add(grade).add(number)));
+        CatalogCache.invalidate();
         return getByName(name).stream()
                 .filter(t -> t.getSubject() == subject && t.getRatio() == ratio && t.getGrade() == grade && t.getNumber() == number)
                 .sorted((t1, t2) -> Integer.compare(t2.getId(), t1.getId())) // Sort by ID in descending order
@@ -325,8 +390,9 @@ public class Topic implements APIObject {
     }
 
     public void delete() throws SQLException {
-        Server.getInstance().getConnection().executeVoidProcessSecure(SQLHelper.getDeleteObjectProcess("topic", String.valueOf(id)));
+        Server.getInstance().getConnection().executeVoidProcessSecure(SQLHelper.getDeleteObjectProcess("topic", SQLArguments.of().add(id)));
         topics.remove(id);
+        CatalogCache.invalidate();
         tasks.forEach(t -> {
             try {
                 t.delete();
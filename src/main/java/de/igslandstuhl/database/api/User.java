@@ -82,7 +82,7 @@ public abstract class User implements APIObject {
 
     /**
      * Retrieves a user by their username.
-     * This method searches for a user in the database using the provided username.
+     * Loaded users are found in the {@link UserIndex}, others are searched in the database.
      * @param username the username of the user to retrieve
      * @return the User object if found, or null if not found
      */
@@ -91,13 +91,13 @@ public abstract class User implements APIObject {
             return ANONYMOUS;
         }
         username = username.replace("%40", "@");
+        User user = UserIndex.get(username);
+        if (user != null) return user;
         Student student = Student.getByEmail(username);
         if (student != null) return student;
         Teacher teacher = Teacher.fromEmail(username);
         if (teacher != null) return teacher;
-        Admin admin = Admin.get(username);
-        if (admin != null) return admin;
-        return null;
+        return UserIndex.put(Admin.get(username));
     }
 
     public static String generateRandomPassword(int length, long seed) {
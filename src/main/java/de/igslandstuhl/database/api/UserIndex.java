@@ -0,0 +1,44 @@
+package de.igslandstuhl.database.api;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps the usernames of students, teachers and admins to the loaded user objects.
+ * Students and teachers log in with their email address, admins with their username.
+ * {@link User#getUser(String)} is called for every request of a logged in user, with the index it is a single lookup
+ * instead of up to three database queries. Users are added when they are loaded or registered and replaced or removed
+ * whenever the cached object of a user is replaced, e.g. by {@link User#setPassword(String)}.
+ */
+final class UserIndex {
+    private static final Map<String, User> users = new ConcurrentHashMap<>();
+
+    private UserIndex() {}
+
+    /**
+     * Looks up a loaded user.
+     * @param username the username or email address
+     * @return the user, or null if the user is not loaded yet
+     */
+    static User get(String username) {
+        return users.get(username);
+    }
+    /**
+     * Adds a user to the index, replacing an older object of the same user.
+     * @param user the user, null is ignored
+     * @return the user
+     */
+    static <U extends User> U put(U user) {
+        if (user != null && user.getUsername() != null) {
+            users.put(user.getUsername(), user);
+        }
+        return user;
+    }
+    /**
+     * Removes a user from the index.
+     * @param username the username or email address
+     */
+    static void remove(String username) {
+        if (username != null) users.remove(username);
+    }
+}
@@ -16,10 +16,10 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
-import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
 
 import de.igslandstuhl.database.api.SchoolYear;
+import de.igslandstuhl.database.utils.JSONUtils;
 
 public final class Holiday {
     private static final HttpClient HTTP_CLIENT = HttpClient.newHttpClient();
@@ -103,16 +103,14 @@ public final class Holiday {
 
     }
     public static Holiday fromJson(String json) {
-        Gson gson = new Gson();
         java.lang.reflect.Type mapType = new TypeToken<Map<String, Object>>(){}.getType();
-        Map<String, Object> jsonMap = gson.fromJson(json, mapType);
+        Map<String, Object> jsonMap = JSONUtils.GSON.fromJson(json, mapType);
         return fromMap(jsonMap);
     }
 
     public static List<Holiday> readList(String json) {
-        Gson gson = new Gson();
         java.lang.reflect.Type listType = new TypeToken<List<Map<String,Object>>>(){}.getType();
-        List<Map<String,Object>> list = gson.fromJson(json, listType);
+        List<Map<String,Object>> list = JSONUtils.GSON.fromJson(json, listType);
         return list.stream().map(Holiday::fromMap).toList();
     }
 
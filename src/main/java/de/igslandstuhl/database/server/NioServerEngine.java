@@ -0,0 +1,569 @@
+package de.igslandstuhl.database.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+
+import de.igslandstuhl.database.server.webserver.HeaderTooLargeException;
+import de.igslandstuhl.database.server.webserver.HttpHeader;
+import de.igslandstuhl.database.server.webserver.HttpHeaderScanner;
+import de.igslandstuhl.database.server.webserver.responses.HttpResponse;
+
+/**
+ * A non-blocking server core for the {@link WebServer}, based on selectors and {@link SSLEngine}.
+ * A small fixed number of I/O threads does all reading, writing and TLS work for every connection of every listener,
+ * while requests are handled in a separate fixed thread pool. Idle keep-alive connections therefore
+ * only cost their buffers, not a thread.
+ */
+class NioServerEngine {
+    private static final int MAX_BODY_SIZE = 16 * 1024 * 1024;
+    private static final long IDLE_CHECK_INTERVAL = 1000;
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+    private static final int PLAIN_BUFFER_SIZE = 16 * 1024;
+
+    private final WebServer webServer;
+    private final SSLContext sslContext;
+    private final List<WebServer.Listener> listeners;
+    private final List<ServerSocketChannel> serverChannels = new ArrayList<>();
+    private final IoWorker[] workers;
+    private final int handlerThreads;
+    private final AtomicInteger nextWorker = new AtomicInteger();
+    private ExecutorService handlerPool;
+    private volatile boolean running;
+
+    /**
+     * Binds the ports of all listeners.
+     * @param sslContext the TLS configuration, may be null if no listener uses TLS
+     */
+    NioServerEngine(WebServer webServer, SSLContext sslContext, List<WebServer.Listener> listeners, int ioThreads, int handlerThreads) throws IOException {
+        if (ioThreads < 1 || handlerThreads < 1) throw new IllegalArgumentException("Invalid thread configuration: " + ioThreads + " I/O threads, " + handlerThreads + " handler threads");
+        this.webServer = webServer;
+        this.sslContext = sslContext;
+        this.listeners = listeners;
+        try {
+            for (WebServer.Listener listener : listeners) {
+                ServerSocketChannel serverChannel = ServerSocketChannel.open();
+                serverChannels.add(serverChannel);
+                serverChannel.bind(new InetSocketAddress(listener.port()));
+            }
+        } catch (IOException e) {
+            closeServerChannels();
+            throw e;
+        }
+        this.workers = new IoWorker[ioThreads];
+        for (int i = 0; i < ioThreads; i++) {
+            workers[i] = new IoWorker(Selector.open());
+        }
+        this.handlerThreads = handlerThreads;
+    }
+
+    /**
+     * Starts accepting connections.
+     * @param virtualThreads true to handle every request on its own virtual thread instead of the fixed handler pool
+     */
+    void start(boolean virtualThreads) {
+        if (virtualThreads) {
+            handlerPool = Executors.newVirtualThreadPerTaskExecutor();
+        } else {
+            AtomicInteger handlerCount = new AtomicInteger();
+            handlerPool = Executors.newFixedThreadPool(handlerThreads, r -> {
+                Thread thread = new Thread(r, "nio-handler-" + handlerCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        running = true;
+        for (int i = 0; i < workers.length; i++) {
+            Thread thread = new Thread(workers[i], "nio-io-" + (i + 1));
+            thread.setDaemon(true);
+            thread.start();
+        }
+        for (int i = 0; i < listeners.size(); i++) {
+            ServerSocketChannel serverChannel = serverChannels.get(i);
+            boolean tls = listeners.get(i).tls();
+            new Thread(() -> acceptLoop(serverChannel, tls), "nio-accept-" + listeners.get(i)).start();
+        }
+    }
+
+    void stop() {
+        running = false;
+        closeServerChannels();
+        for (IoWorker worker : workers) {
+            worker.selector.wakeup();
+        }
+        handlerPool.shutdownNow();
+    }
+
+    private void closeServerChannels() {
+        for (ServerSocketChannel serverChannel : serverChannels) {
+            try { serverChannel.close(); } catch (IOException e) { e.printStackTrace(); }
+        }
+    }
+
+    private void acceptLoop(ServerSocketChannel serverChannel, boolean tls) {
+        while (running) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                // Shared by all listeners, so the connections are spread evenly over the workers
+                workers[Math.floorMod(nextWorker.getAndIncrement(), workers.length)].register(channel, tls);
+            } catch (AsynchronousCloseException e) {
+                // Server channel was closed by stop()
+            } catch (IOException e) {
+                if (running) {
+                    System.err.println("Error while accepting client");
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * An accepted channel waiting to be registered with a worker.
+     * @param tls whether the channel belongs to an HTTPS listener
+     */
+    private record NewChannel(SocketChannel channel, boolean tls) {}
+
+    /**
+     * Runs one selector and all connections registered with it.
+     * Connection state is only touched by this thread; handler threads hand their results back through a queue.
+     */
+    private final class IoWorker implements Runnable {
+        private final Selector selector;
+        private final Queue<NewChannel> newChannels = new ConcurrentLinkedQueue<>();
+        private final Queue<Connection> finishedRequests = new ConcurrentLinkedQueue<>();
+        private final Set<Connection> connections = new HashSet<>();
+
+        IoWorker(Selector selector) {
+            this.selector = selector;
+        }
+
+        void register(SocketChannel channel, boolean tls) {
+            newChannels.add(new NewChannel(channel, tls));
+            selector.wakeup();
+        }
+
+        void requestFinished(Connection connection) {
+            finishedRequests.add(connection);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            long lastIdleCheck = System.currentTimeMillis();
+            try {
+                while (running) {
+                    selector.select(IDLE_CHECK_INTERVAL);
+                    NewChannel channel;
+                    while ((channel = newChannels.poll()) != null) {
+                        accept(channel.channel(), channel.tls());
+                    }
+                    Connection finished;
+                    while ((finished = finishedRequests.poll()) != null) {
+                        finished.startResponse();
+                    }
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        Connection connection = (Connection) key.attachment();
+                        if (!key.isValid()) {
+                            connection.close();
+                        } else {
+                            connection.onReady(key.isReadable(), key.isWritable());
+                        }
+                    }
+                    long now = System.currentTimeMillis();
+                    if (now - lastIdleCheck >= IDLE_CHECK_INTERVAL) {
+                        lastIdleCheck = now;
+                        closeIdleConnections(now);
+                    }
+                }
+            } catch (IOException | ClosedSelectorException e) {
+                if (running) e.printStackTrace();
+            } finally {
+                for (Connection connection : new ArrayList<>(connections)) {
+                    connection.close();
+                }
+                try { selector.close(); } catch (IOException ignored) {}
+            }
+        }
+
+        private void accept(SocketChannel channel, boolean tls) {
+            try {
+                SSLEngine engine = null;
+                if (tls) {
+                    engine = sslContext.createSSLEngine();
+                    engine.setUseClientMode(false);
+                }
+                Connection connection = new Connection(this, channel, engine);
+                connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                connections.add(connection);
+                if (engine != null) engine.beginHandshake();
+            } catch (IOException e) {
+                try { channel.close(); } catch (IOException ignored) {}
+            }
+        }
+
+        private void closeIdleConnections(long now) {
+            long timeout = webServer.getIdleTimeoutMillis();
+            for (Connection connection : new ArrayList<>(connections)) {
+                if (!connection.processing && now - connection.lastActivity > timeout) {
+                    connection.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * One client connection of the NIO engine.
+     * Decrypted bytes are collected until a complete request is available, which is then passed to the handler pool.
+     * Connections of plain HTTP listeners have no SSL engine and move the bytes between the socket and the buffers directly.
+     * Reading pauses until the response has been written, so requests of one connection are answered in order.
+     */
+    private final class Connection {
+        private final IoWorker worker;
+        private final SocketChannel channel;
+        /**
+         * The TLS state of the connection, null for plain HTTP.
+         */
+        private final SSLEngine engine;
+        private final WebServer.RequestProcessor processor;
+        private SelectionKey key;
+
+        private ByteBuffer netIn;
+        private ByteBuffer appIn;
+        private ByteBuffer netOut;
+        private byte[] request = new byte[4096];
+        private int requestLength;
+        private final HttpHeaderScanner scanner = new HttpHeaderScanner();
+        private HttpHeader header;
+        private int headerEnd;
+
+        private ByteBuffer response;
+        private boolean keepAliveAfterResponse;
+        private volatile byte[] finishedResponse;
+        private volatile boolean finishedKeepAlive;
+
+        private boolean processing;
+        private boolean closed;
+        private int handledRequests;
+        private long lastActivity = System.currentTimeMillis();
+
+        Connection(IoWorker worker, SocketChannel channel, SSLEngine engine) throws IOException {
+            this.worker = worker;
+            this.channel = channel;
+            this.engine = engine;
+            InetSocketAddress address = (InetSocketAddress) channel.getRemoteAddress();
+            this.processor = webServer.new RequestProcessor(address != null ? address.getAddress().getHostAddress() : null, engine != null);
+            if (engine != null) {
+                int packetSize = engine.getSession().getPacketBufferSize();
+                this.netIn = ByteBuffer.allocate(packetSize);
+                this.netOut = ByteBuffer.allocate(packetSize);
+                this.appIn = ByteBuffer.allocate(engine.getSession().getApplicationBufferSize());
+            } else {
+                // Without TLS, requests are read into the application buffer and responses written from their own buffer
+                this.netIn = EMPTY;
+                this.netOut = EMPTY;
+                this.appIn = ByteBuffer.allocate(PLAIN_BUFFER_SIZE);
+            }
+        }
+
+        void onReady(boolean readable, boolean writable) {
+            try {
+                if (readable) {
+                    int read = channel.read(engine != null ? netIn : appIn);
+                    if (read < 0) {
+                        close();
+                        return;
+                    }
+                    lastActivity = System.currentTimeMillis();
+                }
+                pump();
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        /**
+         * Called on the I/O thread once the handler pool has rendered the response.
+         */
+        void startResponse() {
+            if (closed) return;
+            byte[] bytes = finishedResponse;
+            finishedResponse = null;
+            processing = false;
+            if (bytes == null) {
+                close();
+                return;
+            }
+            response = ByteBuffer.wrap(bytes);
+            keepAliveAfterResponse = finishedKeepAlive;
+            lastActivity = System.currentTimeMillis();
+            try {
+                pump();
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        /**
+         * Moves data between the socket, the SSL engine and the request and response buffers until nothing more can be done without waiting.
+         */
+        private void pump() throws IOException {
+            if (engine != null) {
+                transferTls();
+            } else {
+                transferPlain();
+            }
+            if (closed) return;
+            if (response != null && !response.hasRemaining() && netOut.position() == 0) {
+                response = null;
+                if (!keepAliveAfterResponse) {
+                    close();
+                    return;
+                }
+                // Records received while the response was written have not been decrypted yet
+                if (engine != null) {
+                    transferTls();
+                    if (closed) return;
+                }
+            }
+            if ((engine == null || engine.getHandshakeStatus() == HandshakeStatus.NOT_HANDSHAKING) && !processing && response == null) {
+                dispatch();
+                if (closed) return;
+            }
+            updateInterest();
+        }
+
+        private void transferPlain() throws IOException {
+            while (response != null && response.hasRemaining()) {
+                if (channel.write(response) == 0) break; // Wait until the socket accepts more data
+            }
+            if (appIn.position() > 0) drainApplicationData();
+        }
+
+        private void transferTls() throws IOException {
+            boolean progress = true;
+            while (progress && !closed) {
+                progress = false;
+                HandshakeStatus status = engine.getHandshakeStatus();
+                if (status == HandshakeStatus.NEED_TASK) {
+                    Runnable task;
+                    while ((task = engine.getDelegatedTask()) != null) {
+                        task.run();
+                    }
+                    progress = true;
+                    continue;
+                }
+                if (status == HandshakeStatus.NEED_WRAP || (status == HandshakeStatus.NOT_HANDSHAKING && response != null && response.hasRemaining())) {
+                    progress |= wrap();
+                }
+                if (!flush()) break; // Wait until the socket accepts more data
+                if (status != HandshakeStatus.NEED_WRAP && (status != HandshakeStatus.NOT_HANDSHAKING || !busy())) {
+                    progress |= unwrap();
+                }
+                if (engine.isInboundDone() || engine.isOutboundDone()) {
+                    close();
+                    return;
+                }
+            }
+        }
+
+        private boolean wrap() throws IOException {
+            ByteBuffer source = engine.getHandshakeStatus() == HandshakeStatus.NOT_HANDSHAKING && response != null ? response : EMPTY;
+            SSLEngineResult result = engine.wrap(source, netOut);
+            switch (result.getStatus()) {
+                case BUFFER_OVERFLOW:
+                    if (netOut.position() == 0) {
+                        netOut = ByteBuffer.allocate(Math.max(netOut.capacity() * 2, engine.getSession().getPacketBufferSize()));
+                        return true;
+                    }
+                    return false; // Flush first
+                case CLOSED:
+                    return false;
+                default:
+                    return result.bytesConsumed() > 0 || result.bytesProduced() > 0;
+            }
+        }
+
+        private boolean unwrap() throws IOException {
+            if (netIn.position() == 0) return false;
+            netIn.flip();
+            SSLEngineResult result;
+            try {
+                result = engine.unwrap(netIn, appIn);
+            } finally {
+                netIn.compact();
+            }
+            switch (result.getStatus()) {
+                case BUFFER_OVERFLOW:
+                    if (appIn.position() == 0) {
+                        appIn = ByteBuffer.allocate(Math.max(appIn.capacity() * 2, engine.getSession().getApplicationBufferSize()));
+                    } else {
+                        drainApplicationData();
+                    }
+                    return true;
+                case BUFFER_UNDERFLOW:
+                    if (!netIn.hasRemaining()) {
+                        ByteBuffer larger = ByteBuffer.allocate(Math.max(netIn.capacity() * 2, engine.getSession().getPacketBufferSize()));
+                        netIn.flip();
+                        larger.put(netIn);
+                        netIn = larger;
+                    }
+                    return false;
+                case CLOSED:
+                    return false;
+                default:
+                    drainApplicationData();
+                    return result.bytesConsumed() > 0 || result.bytesProduced() > 0;
+            }
+        }
+
+        private boolean flush() throws IOException {
+            if (netOut.position() == 0) return true;
+            netOut.flip();
+            try {
+                while (netOut.hasRemaining()) {
+                    if (channel.write(netOut) == 0) return false;
+                }
+                return true;
+            } finally {
+                netOut.compact();
+            }
+        }
+
+        private void drainApplicationData() {
+            appIn.flip();
+            int length = appIn.remaining();
+            if (requestLength + length > request.length) {
+                request = Arrays.copyOf(request, Math.max(request.length * 2, requestLength + length));
+            }
+            appIn.get(request, requestLength, length);
+            requestLength += length;
+            appIn.clear();
+        }
+
+        /**
+         * Passes the next request to the handler pool once it has been received completely.
+         * The header scanner keeps its position, so bytes arriving in several packets are only scanned once.
+         */
+        private void dispatch() {
+            if (header == null) {
+                try {
+                    headerEnd = scanner.feed(request, requestLength);
+                    if (headerEnd < 0) return;
+                    header = scanner.toHeader(request);
+                } catch (HeaderTooLargeException | IllegalArgumentException e) {
+                    close();
+                    return;
+                }
+                if (header.getContentLength() > MAX_BODY_SIZE) {
+                    close();
+                    return;
+                }
+            }
+            int total = headerEnd + header.getContentLength();
+            if (requestLength < total) return;
+            HttpHeader current = header;
+            byte[] body = Arrays.copyOfRange(request, headerEnd, total);
+            System.arraycopy(request, total, request, 0, requestLength - total);
+            requestLength -= total;
+            if (request.length > HttpHeaderScanner.MAX_HEADER_SIZE && requestLength < 4096) {
+                request = Arrays.copyOf(request, 4096);
+            }
+            header = null;
+            scanner.reset();
+
+            handledRequests++;
+            boolean keepAlive = processor.keepAlive(current, handledRequests);
+            processing = true;
+            try {
+                handlerPool.execute(() -> handle(current, body, keepAlive));
+            } catch (RejectedExecutionException e) {
+                close();
+            }
+        }
+
+        /**
+         * Runs on a handler thread.
+         */
+        private void handle(HttpHeader header, byte[] body, boolean keepAlive) {
+            byte[] bytes = null;
+            boolean keepOpen = false;
+            try {
+                HttpResponse response = processor.handle(header, new ByteArrayInputStream(body));
+                if (response != null) {
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    keepOpen = processor.writeResponse(response, keepAlive, out);
+                    bytes = out.toByteArray();
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+            finishedKeepAlive = keepOpen;
+            finishedResponse = bytes;
+            worker.requestFinished(this);
+        }
+
+        /**
+         * Checks whether a request is handled or its response is written.
+         * Until then further requests are left in the socket buffers: a client that pipelines requests without
+         * reading the responses is throttled by TCP instead of filling the request buffer.
+         */
+        private boolean busy() {
+            return processing || response != null;
+        }
+
+        private void updateInterest() {
+            int ops = 0;
+            if (!busy()) ops |= SelectionKey.OP_READ;
+            if (netOut.position() > 0 || (engine == null && response != null && response.hasRemaining())) ops |= SelectionKey.OP_WRITE;
+            if (key.isValid()) key.interestOps(ops);
+        }
+
+        void close() {
+            if (closed) return;
+            closed = true;
+            worker.connections.remove(this);
+            if (engine != null) {
+                try {
+                    engine.closeOutbound();
+                    if (netOut.position() == 0 && engine.wrap(EMPTY, netOut).bytesProduced() > 0) {
+                        flush(); // Best effort close_notify
+                    }
+                } catch (IOException ignored) {
+                    // Client already went away
+                }
+            }
+            key.cancel();
+            try { channel.close(); } catch (IOException ignored) {}
+        }
+    }
+}
@@ -3,24 +3,27 @@ package de.igslandstuhl.database.server;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Set;
 import java.util.function.Consumer;
 import java.util.function.Function;
 
 import org.apache.commons.codec.digest.DigestUtils;
 
 import de.igslandstuhl.database.Application;
+import de.igslandstuhl.database.api.NormalizedJSON;
 import de.igslandstuhl.database.api.Room;
 import de.igslandstuhl.database.api.SchoolClass;
 import de.igslandstuhl.database.api.Student;
 import de.igslandstuhl.database.api.Subject;
 import de.igslandstuhl.database.api.Teacher;
 import de.igslandstuhl.database.api.User;
+import de.igslandstuhl.database.server.sql.RowMapper;
+import de.igslandstuhl.database.server.sql.SQLArguments;
 import de.igslandstuhl.database.server.sql.SQLHelper;
 import de.igslandstuhl.database.server.sql.SQLiteConnection;
+import de.igslandstuhl.database.utils.JSONUtils;
+import de.igslandstuhl.database.utils.JSONWritable;
 
 /**
  * Represents the main server class that handles all incoming requests and manages the database connection.
@@ -80,20 +83,148 @@ public final class Server implements AutoCloseable {
      */
     private Server() {
         try {
-            connection = new SQLiteConnection(Application.getInstance().getOptionSafe("database", Application.getInstance().beingTested() ? "test-server-" + System.currentTimeMillis() : "database"));
-            String keystorePath = Application.getInstance().runsWebServer() ? Application.getInstance().getOptionSafe("keystore", "keys/web/keystore.jks") : null;
-            String keystorePassword = Application.getInstance().runsWebServer() ? Application.getInstance().getOptionSafe("keystore-password", "changeit") : null;
-            int port = 443;
-            webServer = Application.getInstance().runsWebServer() ? new WebServer(port, keystorePath, keystorePassword) : new WebServer();
+            connection = new SQLiteConnection(
+                Application.getInstance().getOptionSafe("database", Application.getInstance().beingTested() ? "test-server-" + System.currentTimeMillis() : "database"),
+                Application.getInstance().getIntOption("db-connections", SQLiteConnection.DEFAULT_CONNECTION_LIMIT)
+            );
+            connection.setGroupCommit(
+                Application.getInstance().getIntOption("commit-interval", (int) SQLiteConnection.DEFAULT_COMMIT_INTERVAL),
+                Application.getInstance().getIntOption("commit-batch", SQLiteConnection.DEFAULT_COMMIT_BATCH)
+            );
+            if (Application.getInstance().runsWebServer()) {
+                List<WebServer.Listener> listeners = WebServer.Listener.listOf(Application.getInstance().getOption("listen", "https:443"));
+                // The keystore is only needed, and only asked for, if the server terminates TLS itself
+                boolean tls = listeners.stream().anyMatch(WebServer.Listener::tls);
+                String keystorePath = tls ? Application.getInstance().getOptionSafe("keystore", "keys/web/keystore.jks") : null;
+                String keystorePassword = tls ? Application.getInstance().getOptionSafe("keystore-password", "changeit") : null;
+                WebServer.Engine engine = WebServer.Engine.of(Application.getInstance().getOption("server-engine", "blocking"));
+                int ioThreads = Application.getInstance().getIntOption("io-threads", WebServer.IO_THREADS);
+                int handlerThreads = Application.getInstance().getIntOption("handler-threads", WebServer.HANDLER_THREADS);
+                webServer = new WebServer(listeners, keystorePath, keystorePassword, engine, ioThreads, handlerThreads);
+                webServer.setTrustedProxies(Arrays.asList(Application.getInstance().getOption("trusted-proxies", "").split(",")));
+            } else {
+                webServer = new WebServer();
+            }
+            webServer.setKeepAlive(
+                Application.getInstance().getIntOption("keep-alive-timeout", WebServer.KEEP_ALIVE_TIMEOUT),
+                Application.getInstance().getIntOption("keep-alive-max-requests", WebServer.MAX_KEEP_ALIVE_REQUESTS)
+            );
+            webServer.setVirtualThreads(Boolean.parseBoolean(Application.getInstance().getOption("virtual-threads", "false")));
         } catch (Exception e) {
             throw new IllegalStateException("Server failed on start", e);
         }
     }
 
+    /**
+     * Runs a query and maps its rows on the calling thread.
+     * The statement is closed before this method returns, so the caller may use the database again while processing the rows.
+     *
+     * @param mapper The mapper of the rows, it should only read columns.
+     * @param request The SQL query to execute.
+     * @param args Additional arguments for the SQL query.
+     * @return The mapped rows, in the order of the result set.
+     * @throws SQLException If an error occurs while executing the SQL query.
+     */
+    public <T> List<T> query(RowMapper<? extends T> mapper, String request, String... args) throws SQLException {
+        return query(mapper, request, SQLArguments.parse(args));
+    }
+    /**
+     * Runs a query with typed arguments and maps its rows on the calling thread.
+     *
+     * @param mapper The mapper of the rows, it should only read columns.
+     * @param request The SQL query to execute.
+     * @param args The arguments of the SQL query.
+     * @return The mapped rows, in the order of the result set.
+     * @throws SQLException If an error occurs while executing the SQL query.
+     */
+    public <T> List<T> query(RowMapper<? extends T> mapper, String request, SQLArguments args) throws SQLException {
+        return connection.withConnection(() -> {
+            try {
+                ResultSet result = connection.executeProcess(SQLHelper.getQueryProcess(request, args));
+                List<T> rows = new ArrayList<>();
+                while (result.next()) {
+                    rows.add(mapper.map(result));
+                }
+                return rows;
+            } finally {
+                connection.closePendingStatement();
+            }
+        });
+    }
+    /**
+     * Runs a query and maps its first row.
+     *
+     * @param mapper The mapper of the row, it should only read columns.
+     * @param request The SQL query to execute.
+     * @param args Additional arguments for the SQL query.
+     * @return The mapped row, or null if the result is empty.
+     * @throws SQLException If an error occurs while executing the SQL query.
+     */
+    public <T> T queryFirst(RowMapper<? extends T> mapper, String request, String... args) throws SQLException {
+        return queryFirst(mapper, request, SQLArguments.parse(args));
+    }
+    /**
+     * Runs a query with typed arguments and maps its first row.
+     *
+     * @param mapper The mapper of the row, it should only read columns.
+     * @param request The SQL query to execute.
+     * @param args The arguments of the SQL query.
+     * @return The mapped row, or null if the result is empty.
+     * @throws SQLException If an error occurs while executing the SQL query.
+     */
+    public <T> T queryFirst(RowMapper<? extends T> mapper, String request, SQLArguments args) throws SQLException {
+        return connection.withConnection(() -> {
+            try {
+                ResultSet result = connection.executeProcess(SQLHelper.getQueryProcess(request, args));
+                return result.next() ? mapper.map(result) : null;
+            } finally {
+                connection.closePendingStatement();
+            }
+        });
+    }
+    /**
+     * Runs a query and reads a single integer column, e.g. the ids of related objects, without boxing every value.
+     *
+     * @param column The label of the column.
+     * @param request The SQL query to execute.
+     * @param args Additional arguments for the SQL query.
+     * @return The values of the column, rows where it is NULL are skipped.
+     * @throws SQLException If an error occurs while executing the SQL query.
+     */
+    public int[] queryInts(String column, String request, String... args) throws SQLException {
+        return queryInts(column, request, SQLArguments.parse(args));
+    }
+    /**
+     * Runs a query with typed arguments and reads a single integer column.
+     *
+     * @param column The label of the column.
+     * @param request The SQL query to execute.
+     * @param args The arguments of the SQL query.
+     * @return The values of the column, rows where it is NULL are skipped.
+     * @throws SQLException If an error occurs while executing the SQL query.
+     */
+    public int[] queryInts(String column, String request, SQLArguments args) throws SQLException {
+        return connection.withConnection(() -> {
+            try {
+                ResultSet result = connection.executeProcess(SQLHelper.getQueryProcess(request, args));
+                int[] values = new int[16];
+                int size = 0;
+                while (result.next()) {
+                    int value = result.getInt(column);
+                    if (result.wasNull()) continue;
+                    if (size == values.length) values = Arrays.copyOf(values, size * 2);
+                    values[size++] = value;
+                }
+                return Arrays.copyOf(values, size);
+            } finally {
+                connection.closePendingStatement();
+            }
+        });
+    }
+
     /**
      * Processes a single SQL request and returns the result.
-     * This method executes a SQL query and applies a function to the result set, returning the processed output.
-     * It is synchronized to ensure thread safety when accessing the database connection.
+     * The output function is applied after the statement is closed, so it may use the database.
      *
      * @param output The function to apply to the result set.
      * @param request The SQL query to execute.
@@ -103,27 +234,15 @@ public final class Server implements AutoCloseable {
      * @throws SQLException If an error occurs while executing the SQL query.
      */
     public <T> T processSingleRequest(Function<String[],T> output, String request, String[] sqlFields, String... args) throws SQLException {
-        try {
-            ResultSet result = connection.executeProcess(SQLHelper.getQueryProcess(request, args));
-            if (result.next()){
-                List<String> results = new ArrayList<>();
-                for (String columnLabel : sqlFields) {
-                    results.add(result.getString(columnLabel));
-                }
-                connection.closePendingStatement();
-                String[] resultArr = new String[results.size()];
-                return output.apply(results.toArray(resultArr));
-            } else {
-                return null;
-            }
-        } finally {
-            connection.closePendingStatement();
-        }
+        return connection.withConnection(() -> {
+            String[] fields = queryFirst(RowMapper.columns(sqlFields), request, args);
+            return fields != null ? output.apply(fields) : null;
+        });
     }
     /**
      * Processes a SQL request and applies a callback to each row of the result set.
-     * This method executes a SQL query and iterates through the result set, applying the callback to each row.
-     * It creates a new Thread to ensure the callbacks do not interrupt the database query.
+     * The rows are read first and the callbacks are applied after the statement is closed, on the calling thread,
+     * so callbacks may use the database, e.g. to load referenced objects.
      *
      * @param callback The callback function to apply to each row of the result set.
      * @param request The SQL query to execute.
@@ -132,39 +251,13 @@ public final class Server implements AutoCloseable {
      * @throws SQLException If an error occurs while executing the SQL query.
      */
     public void processRequest(Consumer<String[]> callback, String request, String[] sqlFields, String... args) throws SQLException {
-        try {
-            ResultSet result = connection.executeProcess(SQLHelper.getQueryProcess(request, args));
-            Thread subroutine = new Thread(() -> {
-                try {
-                    while (result.next()) {
-                        List<String> results = new LinkedList<>();
-                        for (String columnLabel : sqlFields) {
-                            results.add(result.getString(columnLabel));
-                        }
-                        String[] resultArr = new String[results.size()];
-                        callback.accept(results.toArray(resultArr));
-                    }
-                } catch (SQLException e) {
-                    e.printStackTrace();
-                    throw new IllegalStateException(e);
-                }
-            });
-            subroutine.start();
-            try {
-                subroutine.join();
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-                throw new IllegalStateException(e);
-            }
-        } finally {
-            connection.closePendingStatement();
-        }
+        connection.withConnection(() -> {
+            query(RowMapper.columns(sqlFields), request, args).forEach(callback);
+            return null;
+        });
     }
     public String[][] processRequest(String request, String[] sqlFields, String... args) throws SQLException {
-        List<String[]> rows = new LinkedList<>();
-        processRequest(row -> rows.add(row), request, sqlFields, args);
-        String[][] rowsArr = new String[rows.size()][];
-        return rows.toArray(rowsArr);
+        return query(RowMapper.columns(sqlFields), request, args).toArray(String[][]::new);
     }
 
     /**
@@ -193,41 +286,71 @@ public final class Server implements AutoCloseable {
      * @return The JSON representation of the requested resource, or null if not found.
      */
     public String getSQLResource(String username, String resource) {
-        resource = resource.intern();
+        return getSQLResource(username, resource, false);
+    }
+    /**
+     * Retrieves an SQL resource for the specified user and resource name.
+     *
+     * @param username The username of the user requesting the resource.
+     * @param resource The name of the resource to retrieve.
+     * @param normalized Whether the resource is written in the normalized form, see {@link NormalizedJSON}.
+     * @return The JSON representation of the requested resource, or null if not found.
+     */
+    public String getSQLResource(String username, String resource, boolean normalized) {
+        JSONWritable writable = getSQLResourceWriter(username, resource, normalized);
+        return writable != null ? JSONUtils.toJSON(writable) : null;
+    }
+    /**
+     * Retrieves an SQL resource for the specified user and resource name, to be written as JSON.
+     * The data is read when the resource is written, large lists are streamed without building the whole document first.
+     *
+     * @param username The username of the user requesting the resource.
+     * @param resource The name of the resource to retrieve.
+     * @param normalized Whether the resource is written in the normalized form, see {@link NormalizedJSON}.
+     * @return The writer of the requested resource, or null if not found.
+     */
+    public JSONWritable getSQLResourceWriter(String username, String resource, boolean normalized) {
         if (resource.equals("mydata")) {
+            // A single object, serialized right away so errors surface before the response is started
             User user = User.getUser(username);
-            return user.toJSON();
+            String json = normalized ? JSONUtils.toJSON(NormalizedJSON.of(user)) : user.toJSON();
+            return (out) -> out.jsonValue(json);
         } else if (resource.equals("rooms")) {
-            return new HashSet<>(Room.getRooms().values()).toString();
+            return (out) -> JSONUtils.writeJSON(out, Room.getRooms().values());
         } else if (resource.equals("mysubjects")) {
             User user = User.getUser(username);
             if (user instanceof Student student) {
-                return student.getSchoolClass().getSubjects().toString();
+                return (out) -> JSONUtils.writeJSON(out, student.getSchoolClass().getSubjects());
             } else if (user instanceof Teacher teacher) {
-                return teacher.getSubjects().toString();
+                return (out) -> JSONUtils.writeJSON(out, teacher.getSubjects());
             } else {
                 return null;
             }
         } else if (resource.equals("myclasses")) {
             User user = User.getUser(username);
             if (user instanceof Teacher teacher) {
-                Set<Integer> classIDs = teacher.getClassIds();
-                Set<String> classes = new HashSet<>();
-                for (Integer classID : classIDs) {
-                    classes.add("{\"classId\": " + classID + ", \"name\": \"" + SchoolClass.get(classID).getLabel() + "\"}");
-                }
-                return classes.toString();
+                return (out) -> {
+                    out.beginArray();
+                    for (Integer classID : teacher.getClassIds()) {
+                        out.beginObject()
+                        .name("classId").value(classID)
+                        .name("name").value(SchoolClass.get(classID).getLabel())
+                        .endObject();
+                    }
+                    out.endArray();
+                };
             } else {
                 return null;
             }
         } else if (resource.equals("teachers")) {
-            return new HashSet<>(Teacher.getAll()).toString();
+            return (out) -> JSONUtils.writeJSON(out, Teacher.getAll());
         } else if (resource.equals("students")) {
-            return new HashSet<>(Student.getAll()).toString();
+            if (normalized) return NormalizedJSON.ofList(Student.getAll());
+            return (out) -> JSONUtils.writeJSON(out, Student.getAll());
         } else if (resource.equals("subjects")) {
-            return new HashSet<>(Subject.getAll()).toString();
+            return (out) -> JSONUtils.writeJSON(out, Subject.getAll());
         } else if (resource.equals("classes")) {
-            return new HashSet<>(SchoolClass.getAll()).toString();
+            return (out) -> JSONUtils.writeJSON(out, SchoolClass.getAll());
         } else {
             return null;
         }
@@ -237,5 +360,6 @@ public final class Server implements AutoCloseable {
     public void close() throws SQLException {
         connection.close();
         webServer.stop();
+        webServer.getSessionManager().close();
     }
 }
@@ -2,7 +2,10 @@ package de.igslandstuhl.database.server;
 
 import java.io.*;
 import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
 import java.net.SocketException;
+import java.net.SocketTimeoutException;
 import java.net.URLDecoder;
 import java.net.UnknownHostException;
 import java.nio.charset.Charset;
@@ -15,165 +18,419 @@ import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.UnrecoverableKeyException;
 import java.security.cert.CertificateException;
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Locale;
-import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
+import de.igslandstuhl.database.api.User;
+import de.igslandstuhl.database.server.resources.ResourceLocation;
+import de.igslandstuhl.database.server.webserver.AccessManager;
+import de.igslandstuhl.database.server.webserver.HeaderTooLargeException;
 import de.igslandstuhl.database.server.webserver.HttpHeader;
+import de.igslandstuhl.database.server.webserver.HttpHeaderReader;
 import de.igslandstuhl.database.server.webserver.PostRequestHandler;
+import de.igslandstuhl.database.server.webserver.RequestContext;
+import de.igslandstuhl.database.server.webserver.ResponseWriter;
 import de.igslandstuhl.database.server.webserver.SessionManager;
+import de.igslandstuhl.database.server.webserver.Status;
+import de.igslandstuhl.database.server.webserver.requests.APIPostRequest;
 import de.igslandstuhl.database.server.webserver.requests.GetRequest;
-import de.igslandstuhl.database.server.webserver.requests.PostRequest;
 import de.igslandstuhl.database.server.webserver.responses.GetResponse;
 import de.igslandstuhl.database.server.webserver.responses.HttpResponse;
 import de.igslandstuhl.database.server.webserver.responses.PostResponse;
 
 /**
- * A simple HTTPS web server that handles various requests related to student data.
+ * A simple HTTPS (or, behind a reverse proxy, plain HTTP) web server that handles various requests related to student data.
  * It supports GET and POST requests for login, subject requests, current topics, tasks, and room updates.
  */
-public class WebServer implements Runnable {
+public class WebServer {
     public static final int SESSION_DURATION = 21600; // six hours
     public static final int MAXIMUM_INACTIVITY_DURATION = 3600; // An hour
     public static final int RATELIMIT = 60;
+    public static final int MAX_SESSIONS = 10000;
+    public static final int KEEP_ALIVE_TIMEOUT = 5; // seconds
+    public static final int MAX_KEEP_ALIVE_REQUESTS = 100;
+
+    public static final int IO_THREADS = 2;
+    public static final int HANDLER_THREADS = 16;
+
+    /**
+     * The available server cores.
+     * BLOCKING uses one thread per connection, NIO a few selector threads and a fixed handler pool.
+     */
+    public enum Engine {
+        BLOCKING, NIO;
+
+        public static Engine of(String name) {
+            try {
+                return valueOf(name.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown server engine: " + name);
+            }
+        }
+    }
+
+    /**
+     * A port the server listens on.
+     * HTTPS listeners terminate TLS themselves, plain HTTP listeners are meant to run behind a TLS terminating reverse proxy.
+     * @param port the port to listen on
+     * @param tls whether connections to this port use TLS
+     */
+    public record Listener(int port, boolean tls) {
+        public Listener {
+            if (port < 0 || port > 65535) throw new IllegalArgumentException("Invalid port: " + port);
+        }
+
+        /**
+         * Parses a listener, e.g. "https:443" or "http:8080".
+         * @param spec the scheme and port of the listener
+         * @return the listener
+         */
+        public static Listener of(String spec) {
+            String[] parts = spec.trim().split(":");
+            if (parts.length == 2) {
+                try {
+                    int port = Integer.parseInt(parts[1].trim());
+                    switch (parts[0].trim().toLowerCase(Locale.ROOT)) {
+                        case "https": return new Listener(port, true);
+                        case "http": return new Listener(port, false);
+                        default: break;
+                    }
+                } catch (NumberFormatException e) {
+                    // Reported below
+                }
+            }
+            throw new IllegalArgumentException("Invalid listener: " + spec + ", expected e.g. https:443 or http:8080");
+        }
+
+        /**
+         * Parses a comma separated list of listeners, e.g. "https:443,http:8080".
+         * @param specs the listeners
+         * @return the listeners, at least one
+         */
+        public static List<Listener> listOf(String specs) {
+            List<Listener> listeners = new ArrayList<>();
+            for (String spec : specs.split(",")) {
+                if (!spec.isBlank()) listeners.add(of(spec));
+            }
+            if (listeners.isEmpty()) throw new IllegalArgumentException("No listener configured");
+            return listeners;
+        }
+
+        @Override
+        public String toString() {
+            return (tls ? "https:" : "http:") + port;
+        }
+    }
 
     private volatile boolean running;
-    private final SSLServerSocket serverSocket;
-    private final SessionManager userManager = new SessionManager(SESSION_DURATION, MAXIMUM_INACTIVITY_DURATION, RATELIMIT);
-    private final ExecutorService clientPool = Executors.newCachedThreadPool();
-    private final boolean secure = true;
+    private final List<Listener> listeners;
+    private final List<ServerSocket> serverSockets;
+    private final NioServerEngine nioEngine;
+    private final SessionManager userManager = new SessionManager(SESSION_DURATION, MAXIMUM_INACTIVITY_DURATION, RATELIMIT, MAX_SESSIONS);
+    private ExecutorService clientPool;
+    /**
+     * Whether requests are handled on virtual threads instead of platform threads.
+     */
+    private boolean virtualThreads = false;
+    /**
+     * Addresses of the reverse proxies whose X-Forwarded-For and X-Forwarded-Proto headers are trusted.
+     */
+    private volatile Set<String> trustedProxies = Set.of();
+    /**
+     * Time in seconds an idle connection is kept open while waiting for the next request.
+     * A value of 0 disables persistent connections.
+     */
+    private int keepAliveTimeout = KEEP_ALIVE_TIMEOUT;
+    /**
+     * Maximum number of requests served over one connection before it is closed.
+     */
+    private int maxKeepAliveRequests = MAX_KEEP_ALIVE_REQUESTS;
 
     public SessionManager getSessionManager() {
         return userManager;
     }
 
+    /**
+     * Configures persistent (keep-alive) connections.
+     * @param timeout the time in seconds an idle connection is kept open, 0 to close after every request
+     * @param maxRequests the maximum number of requests per connection
+     */
+    public void setKeepAlive(int timeout, int maxRequests) {
+        if (timeout < 0 || maxRequests < 1) throw new IllegalArgumentException("Invalid keep-alive configuration: timeout " + timeout + ", max requests " + maxRequests);
+        this.keepAliveTimeout = timeout;
+        this.maxKeepAliveRequests = maxRequests;
+    }
+
+    /**
+     * Configures whether requests are handled on virtual threads.
+     * Database access stays limited by the connection limit of the {@link de.igslandstuhl.database.server.sql.SQLiteConnection}.
+     * @param virtualThreads true to use a virtual thread per request, false for platform threads
+     */
+    public void setVirtualThreads(boolean virtualThreads) {
+        if (running) throw new IllegalStateException("Server already started");
+        this.virtualThreads = virtualThreads;
+    }
+
+    /**
+     * Configures the reverse proxies that terminate TLS in front of this server.
+     * Only requests coming from these addresses may set the client address and scheme with X-Forwarded-For and X-Forwarded-Proto,
+     * for all other requests the headers are ignored, as any client could send them.
+     * @param proxies the IP addresses of the proxies
+     */
+    public void setTrustedProxies(Collection<String> proxies) {
+        Set<String> addresses = new HashSet<>();
+        for (String proxy : proxies) {
+            if (!proxy.isBlank()) addresses.add(proxy.trim());
+        }
+        this.trustedProxies = Set.copyOf(addresses);
+    }
+
+    /**
+     * Returns the ports this server listens on.
+     * @return the listeners
+     */
+    public List<Listener> getListeners() {
+        return listeners;
+    }
+
+    /**
+     * Returns how long a connection may stay idle before it is closed, in milliseconds.
+     * Even with keep-alive disabled, the first request has to arrive within the default timeout.
+     */
+    int getIdleTimeoutMillis() {
+        return (keepAliveTimeout > 0 ? keepAliveTimeout : KEEP_ALIVE_TIMEOUT) * 1000;
+    }
+
     public WebServer(int port, String keystorePath, String keystorePassword)
             throws KeyStoreException, FileNotFoundException, IOException,
             NoSuchAlgorithmException, CertificateException, UnrecoverableKeyException, KeyManagementException {
-        KeyStore ks = KeyStore.getInstance("JKS");
-        try (FileInputStream fis = new FileInputStream(keystorePath)) {
-            ks.load(fis, keystorePassword.toCharArray());
+        this(port, keystorePath, keystorePassword, Engine.BLOCKING, IO_THREADS, HANDLER_THREADS);
+    }
+    /**
+     * Constructs a webserver with the given server core.
+     * @param port the port to listen on
+     * @param keystorePath the path of the keystore holding the server certificate
+     * @param keystorePassword the password of the keystore
+     * @param engine the server core to use
+     * @param ioThreads the number of selector threads, only used by the NIO engine
+     * @param handlerThreads the number of request handler threads, only used by the NIO engine
+     */
+    public WebServer(int port, String keystorePath, String keystorePassword, Engine engine, int ioThreads, int handlerThreads)
+            throws KeyStoreException, FileNotFoundException, IOException,
+            NoSuchAlgorithmException, CertificateException, UnrecoverableKeyException, KeyManagementException {
+        this(List.of(new Listener(port, true)), keystorePath, keystorePassword, engine, ioThreads, handlerThreads);
+    }
+    /**
+     * Constructs a webserver listening on several ports.
+     * @param listeners the ports to listen on
+     * @param keystorePath the path of the keystore holding the server certificate, only needed for HTTPS listeners
+     * @param keystorePassword the password of the keystore, only needed for HTTPS listeners
+     * @param engine the server core to use
+     * @param ioThreads the number of selector threads, only used by the NIO engine
+     * @param handlerThreads the number of request handler threads, only used by the NIO engine
+     */
+    public WebServer(List<Listener> listeners, String keystorePath, String keystorePassword, Engine engine, int ioThreads, int handlerThreads)
+            throws KeyStoreException, FileNotFoundException, IOException,
+            NoSuchAlgorithmException, CertificateException, UnrecoverableKeyException, KeyManagementException {
+        if (listeners.isEmpty()) throw new IllegalArgumentException("No listener configured");
+        this.listeners = List.copyOf(listeners);
+        SSLContext sslContext = null;
+        if (listeners.stream().anyMatch(Listener::tls)) {
+            KeyStore ks = KeyStore.getInstance("JKS");
+            try (FileInputStream fis = new FileInputStream(keystorePath)) {
+                ks.load(fis, keystorePassword.toCharArray());
+            }
+            KeyManagerFactory kmf = KeyManagerFactory.getInstance("SunX509");
+            kmf.init(ks, keystorePassword.toCharArray());
+            sslContext = SSLContext.getInstance("TLS");
+            sslContext.init(kmf.getKeyManagers(), null, null);
+        }
+        if (engine == Engine.NIO) {
+            serverSockets = List.of();
+            nioEngine = new NioServerEngine(this, sslContext, this.listeners, ioThreads, handlerThreads);
+        } else {
+            List<ServerSocket> sockets = new ArrayList<>();
+            try {
+                for (Listener listener : this.listeners) {
+                    sockets.add(listener.tls() ? sslContext.getServerSocketFactory().createServerSocket(listener.port()) : new ServerSocket(listener.port()));
+                }
+            } catch (IOException e) {
+                for (ServerSocket socket : sockets) {
+                    try { socket.close(); } catch (IOException ignored) {}
+                }
+                throw e;
+            }
+            serverSockets = List.copyOf(sockets);
+            nioEngine = null;
         }
-        KeyManagerFactory kmf = KeyManagerFactory.getInstance("SunX509");
-        kmf.init(ks, keystorePassword.toCharArray());
-        SSLContext sslContext = SSLContext.getInstance("TLS");
-        sslContext.init(kmf.getKeyManagers(), null, null);
-        SSLServerSocketFactory factory = sslContext.getServerSocketFactory();
-        serverSocket = (SSLServerSocket) factory.createServerSocket(port);
     }
     /**
      * Constructs a test webserver without server socket
      */
     protected WebServer() {
-        this.serverSocket = null;
+        this.listeners = List.of();
+        this.serverSockets = List.of();
+        this.nioEngine = null;
     }
 
-    class ClientHandler implements Runnable {
-        private final SSLSocket clientSocket;
-        private final String clientIp;
+    /**
+     * Processes the requests of one client, independent of how the bytes are transported.
+     * Both server engines use it, so requests are handled the same way by either one.
+     */
+    class RequestProcessor {
+        /**
+         * The address of the peer, which is the proxy if the server runs behind one.
+         */
+        final String peerIp;
+        /**
+         * Whether the connection to the peer uses TLS.
+         */
+        final boolean tls;
 
-        ClientHandler(SSLSocket socket) {
-            this.clientSocket = socket;
-            InetAddress inetAddress;
-            try {
-                inetAddress = socket != null ? socket.getInetAddress() : InetAddress.getLocalHost();
-            } catch (UnknownHostException e) {
-                inetAddress = null;
-            }
-            clientIp = inetAddress != null ? inetAddress.getHostAddress() : null;
+        RequestProcessor(String peerIp, boolean tls) {
+            this.peerIp = peerIp;
+            this.tls = tls;
         }
 
-        @Override
-        public void run() {
-            try {
-                BufferedOutputStream rawOut = new BufferedOutputStream(clientSocket.getOutputStream());
-                PrintStream out = new PrintStream(rawOut, false, StandardCharsets.UTF_8);
-                try (BufferedInputStream bis = new BufferedInputStream(clientSocket.getInputStream())) {
-                    String headerString = readHeadersAsString(bis);
-                    if (headerString == null) {
-                        rawOut.close();
-                    }
-                    try {
-                        if (headerString.startsWith("GET")) {
-                            handleGet(headerString, out);
-                        } else if (headerString.startsWith("POST")) {
-                            handlePost(headerString, bis, out);
-                        } else {
-                            rawOut.close();
-                            // TODO: response with "Unsupported Method"
-                        }
-                        out.flush();
-                    } catch (SocketException e) {
-                        Thread.currentThread().interrupt();
-                    }
-                }
-            } catch (Exception e) {
-                e.printStackTrace();
-            } finally {
-                try { clientSocket.close(); } catch (IOException ignored) {}
+        /**
+         * Returns the address of the client that sent the request.
+         * Behind a trusted proxy, this is the last address in X-Forwarded-For that is not a trusted proxy itself.
+         * @param header the header of the request
+         * @return the client address
+         */
+        String clientIp(HttpHeader header) {
+            Set<String> proxies = trustedProxies;
+            if (!proxies.contains(peerIp)) return peerIp;
+            String forwardedFor = header.get("X-Forwarded-For");
+            if (forwardedFor == null) return peerIp;
+            String[] addresses = forwardedFor.split(",");
+            for (int i = addresses.length - 1; i >= 0; i--) {
+                String address = addresses[i].trim();
+                if (!address.isEmpty() && (!proxies.contains(address) || i == 0)) return address;
             }
+            return peerIp;
         }
 
-        String readHeadersAsString(InputStream in) throws IOException {
-            try {
-                byte[] headerBytes = readUntilDoubleCRLF(in);
-                if (headerBytes == null || headerBytes.length == 0) return null;
-                return new String(headerBytes, StandardCharsets.ISO_8859_1);
-            } catch (SocketException|SSLHandshakeException e) {
-                Thread.currentThread().interrupt();
-                return ""; // not accessible
+        /**
+         * Checks whether the client reached the server over TLS, either directly or through a trusted proxy.
+         * @param header the header of the request
+         * @return true if the connection of the client is encrypted
+         */
+        boolean isSecure(HttpHeader header) {
+            if (!trustedProxies.contains(peerIp)) return tls;
+            String forwardedProto = header.get("X-Forwarded-Proto");
+            if (forwardedProto == null) return tls;
+            // A chain of proxies may append one value each, the first one was set by the proxy facing the client
+            return forwardedProto.split(",")[0].trim().equalsIgnoreCase("https");
+        }
+
+        /**
+         * Dispatches a request to the GET or POST handling.
+         * @param header the header of the request
+         * @param body the stream to read the request body from
+         * @return the response, or null if the request method is not supported
+         * @throws IOException if reading the body fails
+         */
+        HttpResponse handle(HttpHeader header, InputStream body) throws IOException {
+            if (header.getMethod().equals("GET")) {
+                return handleGet(header);
+            } else if (header.getMethod().equals("POST")) {
+                return handlePost(header, body);
+            } else {
+                // TODO: response with "Unsupported Method"
+                return null;
             }
         }
 
-        void handleGet(String headerString, PrintStream out) {
+        HttpResponse handleGet(HttpHeader header) {
+            GetRequest get = new GetRequest(header, clientIp(header), isSecure(header));
+            // Public pages, scripts and icons resolve to the same file for every user, they need no session
+            ResourceLocation anonymous = get.locationFor(User.ANONYMOUS);
+            if (AccessManager.isPublicAsset(anonymous)) {
+                return GetResponse.resourceFor(get, anonymous, User.ANONYMOUS);
+            }
             SessionManager sessionManager = Server.getInstance().getWebServer().getSessionManager();
-            GetRequest get = new GetRequest(headerString, clientIp, secure);
-            GetResponse response;
-            if (!sessionManager.validateSession(get)) {
-                response = GetResponse.forbidden(get);
+            RequestContext context = get.getRequestContext();
+            long retryAfter = sessionManager.checkRateLimit(context);
+            if (retryAfter > 0) {
+                return HttpResponse.tooManyRequests(get, retryAfter);
+            } else if (!sessionManager.validateSession(context)) {
+                return GetResponse.forbidden(get);
             } else {
-                String user = sessionManager.getSessionUser(get).getUsername();
-                response = GetResponse.getResource(get, get.toResourceLocation(user), user);
+                User user = context.getUser();
+                return GetResponse.resourceFor(get, get.locationFor(user), user);
             }
-            response.respond(out);
         }
 
-        void handlePost(String headerString, InputStream in, PrintStream out) throws IOException {
-            Map<String, String> headerMap = parseHeaders(headerString);
-            HttpHeader postHeader = new HttpHeader(headerString);
-            int contentLength = headerMap.containsKey("content-length") ? Integer.parseInt(headerMap.get("content-length")) : 0;
-            Charset bodyCharset = determineCharset(headerMap.get("content-type"));
+        HttpResponse handlePost(HttpHeader postHeader, InputStream in) throws IOException {
+            int contentLength = postHeader.getContentLength();
+            Charset bodyCharset = determineCharset(postHeader.getContentType());
             String body = null;
             if (contentLength > 0) {
                 byte[] bodyBytes = readNBytes(in, contentLength);
+                if (bodyBytes == null) throw new EOFException("Request body ended early");
                 String raw = new String(bodyBytes, bodyCharset);
                 body = URLDecoder.decode(raw, bodyCharset.name());
             }
-            PostRequest parsedRequest = new PostRequest(postHeader, body, clientIp, secure);
-            HttpResponse response = Server.getInstance().getWebServer().getSessionManager().validateSession(parsedRequest) ? PostRequestHandler.getInstance().handlePostRequest(parsedRequest) : PostResponse.forbidden("Forbidden: session manipulation or ratelimit", parsedRequest);
-            response.respond(out);
-        }
-
-        byte[] readUntilDoubleCRLF(InputStream in) throws IOException {
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            LinkedList<Integer> window = new LinkedList<>();
-            int current;
-            while ((current = in.read()) != -1) {
-                baos.write(current);
-                window.addLast(current);
-                if (window.size() > 4) window.removeFirst();
-                if (window.size() == 4) {
-                    Integer[] w = window.toArray(new Integer[0]);
-                    if (w[0] == 13 && w[1] == 10 && w[2] == 13 && w[3] == 10) {
-                        break;
-                    }
-                }
-                if (baos.size() > 64 * 1024) break;
+            APIPostRequest parsedRequest = new APIPostRequest(postHeader, body, clientIp(postHeader), isSecure(postHeader));
+            SessionManager sessionManager = Server.getInstance().getWebServer().getSessionManager();
+            RequestContext context = parsedRequest.getRequestContext();
+            long retryAfter = sessionManager.checkRateLimit(context);
+            if (retryAfter > 0) {
+                return HttpResponse.tooManyRequests(parsedRequest, retryAfter);
             }
-            return baos.toByteArray();
+            return sessionManager.validateSession(context) ? PostRequestHandler.getInstance().handlePostRequest(parsedRequest) : PostResponse.forbidden("Forbidden: session manipulation", parsedRequest);
+        }
+
+        /**
+         * Decides whether the connection is kept open after the current request.
+         * @param header the header of the current request
+         * @param handledRequests the number of requests handled on this connection, including the current one
+         * @return true if the connection should be kept open
+         */
+        boolean keepAlive(HttpHeader header, int handledRequests) {
+            return keepAliveTimeout > 0 && handledRequests < maxKeepAliveRequests && isKeepAliveRequested(header);
+        }
+
+        /**
+         * Determines if the client wants to keep the connection open after the current request.
+         * HTTP/1.1 connections are persistent unless the client sends "Connection: close",
+         * HTTP/1.0 connections only if the client explicitly sends "Connection: keep-alive".
+         * @param header the header of the current request
+         * @return true if the connection should be kept open
+         */
+        boolean isKeepAliveRequested(HttpHeader header) {
+            String connection = header.getConnection();
+            if (header.getVersion().equals("HTTP/1.1")) {
+                return connection == null || !connection.equalsIgnoreCase("close");
+            } else {
+                return connection != null && connection.equalsIgnoreCase("keep-alive");
+            }
+        }
+
+        /**
+         * Writes the response to the client with explicit message framing, see {@link ResponseWriter}.
+         * Without it, the client could only detect the end of the body by the connection being closed.
+         * @param response the response to write
+         * @param keepAlive whether the connection should stay open after this response
+         * @param out the stream to write to
+         * @return true if the connection can stay open after this response
+         * @throws IOException if writing to the client fails
+         */
+        boolean writeResponse(HttpResponse response, boolean keepAlive, OutputStream out) throws IOException {
+            ResponseWriter writer = new ResponseWriter(out, response, keepAlive, "timeout=" + keepAliveTimeout + ", max=" + maxKeepAliveRequests);
+            PrintStream stream = new PrintStream(writer, false, StandardCharsets.UTF_8);
+            response.respond(stream);
+            stream.flush();
+            if (stream.checkError()) throw new IOException("Writing the response failed");
+            writer.finish();
+            return writer.isKeepAlive();
         }
 
         byte[] readNBytes(InputStream in, int n) throws IOException {
@@ -187,21 +444,6 @@ public class WebServer implements Runnable {
             return buffer;
         }
 
-        Map<String, String> parseHeaders(String headerString) {
-            Map<String, String> map = new HashMap<>();
-            String[] lines = headerString.split("\\r?\\n");
-            for (int i = 1; i < lines.length; i++) {
-                String line = lines[i];
-                int idx = line.indexOf(':');
-                if (idx > 0) {
-                    String name = line.substring(0, idx).trim().toLowerCase(Locale.ROOT);
-                    String value = line.substring(idx + 1).trim();
-                    map.put(name, value);
-                }
-            }
-            return map;
-        }
-
         Charset determineCharset(String contentType) {
             if (contentType != null) {
                 for (String p : contentType.split(";")) {
@@ -219,10 +461,83 @@ public class WebServer implements Runnable {
         }
     }
 
+    /**
+     * Serves one connection of the blocking engine on its own thread.
+     */
+    class ClientHandler extends RequestProcessor implements Runnable {
+        private final Socket clientSocket;
+
+        ClientHandler(Socket socket) {
+            super(addressOf(socket), socket instanceof SSLSocket);
+            this.clientSocket = socket;
+        }
+
+        @Override
+        public void run() {
+            try {
+                // The timeout applies while waiting for the next request on an idle connection
+                clientSocket.setSoTimeout(getIdleTimeoutMillis());
+                HttpHeaderReader in = new HttpHeaderReader(clientSocket.getInputStream());
+                BufferedOutputStream out = new BufferedOutputStream(clientSocket.getOutputStream());
+                int handledRequests = 0;
+                boolean keepAlive = true;
+                while (keepAlive && running) {
+                    HttpHeader header;
+                    try {
+                        header = in.readHeader();
+                    } catch (IllegalArgumentException e) {
+                        // Malformed request line or Content-Length, the next request cannot be found in the stream
+                        writeResponse(HttpResponse.error(null, Status.BAD_REQUEST), false, out);
+                        out.flush();
+                        break;
+                    }
+                    if (header == null) break; // Connection closed by client
+                    handledRequests++;
+                    keepAlive = keepAlive(header, handledRequests);
+
+                    HttpResponse response = handle(header, in);
+                    if (response == null) break;
+                    // Only POST requests read their body, the body of any other request must not be taken for the next one
+                    if (!header.getMethod().equals("POST")) in.skipNBytes(header.getContentLength());
+                    keepAlive = writeResponse(response, keepAlive, out);
+                    out.flush();
+                }
+            } catch (SocketTimeoutException e) {
+                // Idle keep-alive connection, nothing to do
+            } catch (SocketException | SSLException e) {
+                // Client went away
+            } catch (HeaderTooLargeException | EOFException e) {
+                // Oversized or truncated request, drop the connection
+            } catch (Exception e) {
+                e.printStackTrace();
+            } finally {
+                try { clientSocket.close(); } catch (IOException ignored) {}
+            }
+        }
+    }
+
+    private static String addressOf(Socket socket) {
+        InetAddress inetAddress;
+        try {
+            inetAddress = socket != null ? socket.getInetAddress() : InetAddress.getLocalHost();
+        } catch (UnknownHostException e) {
+            inetAddress = null;
+        }
+        return inetAddress != null ? inetAddress.getHostAddress() : null;
+    }
+
     public void start() {
         if (!running) {
             running = true;
-            new Thread(this).start();
+            if (nioEngine != null) {
+                nioEngine.start(virtualThreads);
+            } else {
+                clientPool = virtualThreads ? Executors.newVirtualThreadPerTaskExecutor() : Executors.newCachedThreadPool();
+                for (int i = 0; i < serverSockets.size(); i++) {
+                    ServerSocket serverSocket = serverSockets.get(i);
+                    new Thread(() -> acceptLoop(serverSocket), "accept-" + listeners.get(i)).start();
+                }
+            }
         } else {
             throw new IllegalStateException("Server already started");
         }
@@ -230,15 +545,20 @@ public class WebServer implements Runnable {
 
     public void stop() {
         running = false;
-        try { serverSocket.close(); } catch (IOException e) { e.printStackTrace(); }
-        clientPool.shutdownNow();
+        if (nioEngine != null) {
+            nioEngine.stop();
+        } else {
+            for (ServerSocket serverSocket : serverSockets) {
+                try { serverSocket.close(); } catch (IOException e) { e.printStackTrace(); }
+            }
+            if (clientPool != null) clientPool.shutdownNow();
+        }
     }
 
-    @Override
-    public void run() {
+    private void acceptLoop(ServerSocket serverSocket) {
         while (running) {
             try {
-                final SSLSocket clientSocket = (SSLSocket) serverSocket.accept();
+                final Socket clientSocket = serverSocket.accept();
                 clientPool.submit(new ClientHandler(clientSocket));
             } catch (IOException e) {
                 if (running) {
@@ -7,6 +7,7 @@ import java.util.Random;
 import de.igslandstuhl.database.Registry;
 import de.igslandstuhl.database.api.*;
 import de.igslandstuhl.database.server.Server;
+import de.igslandstuhl.database.server.webserver.RouteTable;
 import de.igslandstuhl.database.utils.CommonUtils;
 
 @FunctionalInterface
@@ -340,6 +341,11 @@ public interface Command {
                 throw new IllegalStateException(e);
             }
         });
+        // web server
+        registerCommand("list-routes", (args) -> {
+            RouteTable routes = RouteTable.getDefault();
+            return "Routes (" + routes.size() + "):\n" + routes;
+        });
         // manual sql commands
         registerCommand("sql-update", (args) -> {
             String command = argsPart(args, 0, args.length);
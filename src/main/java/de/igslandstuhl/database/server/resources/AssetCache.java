@@ -0,0 +1,133 @@
+package de.igslandstuhl.database.server.resources;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+import de.igslandstuhl.database.server.webserver.Compression;
+
+/**
+ * Caches the static web resources (HTML, JavaScript, CSS and images) in memory.
+ * Each resource is read from the classpath once and kept as the exact bytes sent to the client,
+ * together with a gzip compressed variant and the validators used for conditional requests.
+ * Virtual resources are generated per user and are never cached.
+ */
+public final class AssetCache {
+    /**
+     * A cached resource.
+     * @param content the content of the resource, text resources are encoded in UTF-8
+     * @param gzipContent the gzip compressed content, or null if the resource does not compress well
+     * @param etag the strong entity tag of the content, including the quotes
+     * @param lastModified the modification date of the resource, formatted for the Last-Modified header
+     */
+    public static record Asset(byte[] content, byte[] gzipContent, String etag, String lastModified) {
+        /**
+         * Returns the content in the chosen representation.
+         * @param gzip whether the compressed variant is sent
+         * @return the bytes of the body
+         */
+        public byte[] content(boolean gzip) {
+            return gzip ? gzipContent : content;
+        }
+        /**
+         * Returns the entity tag of the chosen representation.
+         * Both variants need their own strong tag, as they differ byte for byte.
+         * @param gzip whether the compressed variant is sent
+         * @return the entity tag, including the quotes
+         */
+        public String etag(boolean gzip) {
+            return gzip ? etag.substring(0, etag.length() - 1) + "-gzip\"" : etag;
+        }
+        /**
+         * Checks whether the client already holds this version of the resource, in either representation.
+         * @param ifNoneMatch the value of the If-None-Match header, may be null
+         * @return true if one of the entity tags matches, so the resource does not need to be sent again
+         */
+        public boolean matches(String ifNoneMatch) {
+            if (ifNoneMatch == null) return false;
+            for (String tag : ifNoneMatch.split(",")) {
+                tag = tag.trim();
+                // If-None-Match uses the weak comparison (RFC 9110, section 13.1.2)
+                if (tag.startsWith("W/")) tag = tag.substring(2);
+                if (tag.equals("*") || tag.equals(etag) || (gzipContent != null && tag.equals(etag(true)))) return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * The IMF-fixdate format of HTTP dates, e.g. "Sun, 06 Nov 1994 08:49:37 GMT".
+     */
+    private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.ENGLISH);
+
+    private static final Map<ResourceLocation, Asset> cache = new ConcurrentHashMap<>();
+
+    private AssetCache() {}
+
+    /**
+     * Returns the cached resource, reading it from the classpath on the first request.
+     * @param location the location of the resource, must not be virtual
+     * @return the cached resource
+     * @throws FileNotFoundException if the resource does not exist
+     */
+    public static Asset get(ResourceLocation location) throws FileNotFoundException {
+        if (location.isVirtual()) throw new IllegalArgumentException("Virtual resources cannot be cached: " + location);
+        Asset asset = cache.get(location);
+        if (asset == null) {
+            // Concurrent first requests may both read the file, the result is the same
+            Asset loaded = load(location);
+            asset = cache.putIfAbsent(location, loaded);
+            if (asset == null) asset = loaded;
+        }
+        return asset;
+    }
+
+    private static Asset load(ResourceLocation location) throws FileNotFoundException {
+        byte[] content;
+        try (InputStream in = ResourceHelper.openResourceAsStream(location)) {
+            content = in.readAllBytes();
+        } catch (FileNotFoundException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        String etag = "\"" + DigestUtils.sha1Hex(content) + "\"";
+        return new Asset(content, Compression.gzipIfSmaller(content), etag, HTTP_DATE.format(lastModified(location).atOffset(ZoneOffset.UTC)));
+    }
+
+    private static Instant lastModified(ResourceLocation location) {
+        URL url = ResourceHelper.class.getResource("/" + location.context() + "/" + location.namespace() + "/" + location.resource());
+        long millis = 0;
+        if (url != null) {
+            try {
+                URLConnection connection = url.openConnection();
+                connection.setUseCaches(false);
+                millis = connection.getLastModified();
+                connection.getInputStream().close();
+            } catch (IOException e) {
+                millis = 0;
+            }
+        }
+        // HTTP dates have a resolution of one second
+        return millis > 0 ? Instant.ofEpochSecond(millis / 1000) : Instant.now().truncatedTo(ChronoUnit.SECONDS);
+    }
+
+    /**
+     * Removes all cached resources, so they are read again on the next request.
+     */
+    public static void clear() {
+        cache.clear();
+    }
+}
@@ -24,6 +24,7 @@ import java.util.zip.ZipException;
 import java.util.zip.ZipFile;
 
 import de.igslandstuhl.database.server.Server;
+import de.igslandstuhl.database.utils.JSONWritable;
 
 /**
  * Helper class for managing resources in the application.
@@ -268,10 +269,41 @@ public class ResourceHelper {
      * @return the content of the virtual resource as a String, or null if not applicable
      */
     public static String readVirtualResource(String user, ResourceLocation location) {
+        return readVirtualResource(user, location, false);
+    }
+    /**
+     * Reads a virtual resource based on the user's context and location.
+     * If the resource is not virtual or does not match the expected namespace, it returns null.
+     *
+     * @param user the username of the user requesting the resource
+     * @param location the ResourceLocation object representing the virtual resource
+     * @param normalized whether JSON is written in the normalized form, see {@link de.igslandstuhl.database.api.NormalizedJSON}
+     * @return the content of the virtual resource as a String, or null if not applicable
+     */
+    public static String readVirtualResource(String user, ResourceLocation location, boolean normalized) {
+        if (!location.isVirtual()) {
+            return null;
+        } else if (location.namespace().equals("sql")) {
+            return Server.getInstance().getSQLResource(user, location.resource(), normalized);
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Returns a writer for a virtual resource, so it can be streamed to the client as JSON.
+     * If the resource is not virtual or does not match the expected namespace, it returns null.
+     *
+     * @param user the username of the user requesting the resource
+     * @param location the ResourceLocation object representing the virtual resource
+     * @param normalized whether JSON is written in the normalized form, see {@link de.igslandstuhl.database.api.NormalizedJSON}
+     * @return the writer of the virtual resource, or null if not applicable
+     */
+    public static JSONWritable virtualResourceWriter(String user, ResourceLocation location, boolean normalized) {
         if (!location.isVirtual()) {
             return null;
         } else if (location.namespace().equals("sql")) {
-            return Server.getInstance().getSQLResource(user, location.resource());
+            return Server.getInstance().getSQLResourceWriter(user, location.resource(), normalized);
         } else {
             return null;
         }
@@ -0,0 +1,55 @@
+package de.igslandstuhl.database.server.sql;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Maps the current row of a result set to an object.
+ * The mapper is called while the result set is open, so it should only read columns and not run SQL itself.
+ * Work that needs the database belongs after the query, see {@link de.igslandstuhl.database.server.Server#query(RowMapper, String, String...)}.
+ * @param <T> the type of the mapped rows
+ */
+@FunctionalInterface
+public interface RowMapper<T> {
+    /**
+     * Maps the current row.
+     * @param row the result set, positioned at the row to map
+     * @return the mapped row
+     * @throws SQLException if a column cannot be read
+     */
+    public T map(ResultSet row) throws SQLException;
+
+    /**
+     * Returns a mapper that reads the given columns as strings, in the given order.
+     * @param columnLabels the labels of the columns
+     * @return the mapper
+     */
+    public static RowMapper<String[]> columns(String... columnLabels) {
+        return (row) -> {
+            String[] fields = new String[columnLabels.length];
+            for (int i = 0; i < columnLabels.length; i++) {
+                fields[i] = row.getString(columnLabels[i]);
+            }
+            return fields;
+        };
+    }
+    /**
+     * Returns a mapper that reads a single column as string.
+     * @param columnLabel the label of the column
+     * @return the mapper
+     */
+    public static RowMapper<String> stringColumn(String columnLabel) {
+        return (row) -> row.getString(columnLabel);
+    }
+    /**
+     * Returns a mapper that reads a single integer column.
+     * @param columnLabel the label of the column
+     * @return the mapper, mapping SQL NULL to null
+     */
+    public static RowMapper<Integer> intColumn(String columnLabel) {
+        return (row) -> {
+            int value = row.getInt(columnLabel);
+            return row.wasNull() ? null : value;
+        };
+    }
+}
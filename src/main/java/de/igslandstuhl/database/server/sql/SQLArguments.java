@@ -0,0 +1,145 @@
+package de.igslandstuhl.database.server.sql;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Arrays;
+
+/**
+ * The arguments of an SQL statement, bound by position with their own type.
+ * Numbers are stored unboxed, so binding an id costs no parsing and no allocation.
+ * <pre>
+ * SQLHelper.getAddObjectProcess("taskstat", SQLArguments.of().add(studentId).add(taskId).add(status))
+ * </pre>
+ */
+public final class SQLArguments {
+    private static final byte NULL = 0;
+    private static final byte INT = 1;
+    private static final byte LONG = 2;
+    private static final byte DOUBLE = 3;
+    private static final byte STRING = 4;
+    private static final byte TIMESTAMP = 5;
+
+    private byte[] types;
+    /**
+     * The values of numbers, doubles as raw bits, and the SQL type of nulls.
+     */
+    private long[] numbers;
+    private Object[] objects;
+    private int size;
+
+    private SQLArguments(int capacity) {
+        this.types = new byte[capacity];
+        this.numbers = new long[capacity];
+        this.objects = new Object[capacity];
+    }
+
+    /**
+     * Creates an empty argument list.
+     * @return the arguments
+     */
+    public static SQLArguments of() {
+        return new SQLArguments(4);
+    }
+    /**
+     * Converts untyped arguments: arguments that are integers are bound as INTEGER, all others as TEXT.
+     * Prefer the typed methods, a text that happens to look like a number is bound as INTEGER here.
+     * @param args the arguments
+     * @return the arguments
+     */
+    public static SQLArguments parse(String... args) {
+        SQLArguments arguments = new SQLArguments(Math.max(args.length, 1));
+        for (String arg : args) {
+            if (isInteger(arg)) {
+                arguments.add(Integer.parseInt(arg));
+            } else {
+                arguments.add(arg);
+            }
+        }
+        return arguments;
+    }
+    private static boolean isInteger(String s) {
+        if (s == null || s.isEmpty() || s.length() > 11) return false;
+        int start = s.charAt(0) == '-' || s.charAt(0) == '+' ? 1 : 0;
+        if (start == s.length()) return false;
+        for (int i = start; i < s.length(); i++) {
+            if (s.charAt(i) < '0' || s.charAt(i) > '9') return false;
+        }
+        long value = Long.parseLong(s);
+        return value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE;
+    }
+
+    private SQLArguments append(byte type, long number, Object object) {
+        if (size == types.length) {
+            types = Arrays.copyOf(types, size * 2);
+            numbers = Arrays.copyOf(numbers, size * 2);
+            objects = Arrays.copyOf(objects, size * 2);
+        }
+        types[size] = type;
+        numbers[size] = number;
+        objects[size] = object;
+        size++;
+        return this;
+    }
+    public SQLArguments add(int value) {
+        return append(INT, value, null);
+    }
+    public SQLArguments add(long value) {
+        return append(LONG, value, null);
+    }
+    public SQLArguments add(double value) {
+        return append(DOUBLE, Double.doubleToRawLongBits(value), null);
+    }
+    /**
+     * Adds a text argument, it is bound as TEXT even if it looks like a number.
+     * @param value the text, null is bound as NULL
+     * @return these arguments
+     */
+    public SQLArguments add(String value) {
+        return value == null ? addNull(Types.VARCHAR) : append(STRING, 0, value);
+    }
+    /**
+     * Adds a timestamp argument.
+     * @param value the timestamp, null is bound as NULL
+     * @return these arguments
+     */
+    public SQLArguments add(Timestamp value) {
+        return value == null ? addNull(Types.TIMESTAMP) : append(TIMESTAMP, 0, value);
+    }
+    /**
+     * Adds a NULL argument.
+     * @param sqlType the SQL type of the parameter, see {@link Types}
+     * @return these arguments
+     */
+    public SQLArguments addNull(int sqlType) {
+        return append(NULL, sqlType, null);
+    }
+
+    /**
+     * Returns the number of arguments.
+     * @return the number of arguments
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Binds the arguments to the parameters of a statement, the first argument to the first parameter.
+     * @param statement the statement
+     * @throws SQLException if an argument cannot be bound
+     */
+    public void bind(PreparedStatement statement) throws SQLException {
+        for (int i = 0; i < size; i++) {
+            int index = i + 1;
+            switch (types[i]) {
+                case INT -> statement.setInt(index, (int) numbers[i]);
+                case LONG -> statement.setLong(index, numbers[i]);
+                case DOUBLE -> statement.setDouble(index, Double.longBitsToDouble(numbers[i]));
+                case STRING -> statement.setString(index, (String) objects[i]);
+                case TIMESTAMP -> statement.setTimestamp(index, (Timestamp) objects[i]);
+                default -> statement.setNull(index, (int) numbers[i]);
+            }
+        }
+    }
+}
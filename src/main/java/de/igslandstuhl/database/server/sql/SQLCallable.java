@@ -0,0 +1,18 @@
+package de.igslandstuhl.database.server.sql;
+
+import java.sql.SQLException;
+
+/**
+ * Represents a database action that produces a result.
+ * It is used to run code within a connection scope of a {@link SQLiteConnection}.
+ * @param <T> the type of the result
+ */
+@FunctionalInterface
+public interface SQLCallable<T> {
+    /**
+     * Executes the action.
+     * @return the result of the action
+     * @throws SQLException if an SQL error occurs during execution
+     */
+    public T call() throws SQLException;
+}
@@ -3,6 +3,14 @@ package de.igslandstuhl.database.server.sql;
 import java.io.FileNotFoundException;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import de.igslandstuhl.database.server.Server;
 import de.igslandstuhl.database.server.resources.ResourceHelper;
@@ -27,16 +35,99 @@ public class SQLHelper {
      * This is used to organize SQL push files.
      */
     public static final String PUSHES = "pushes";
-    public static void insertArgs(PreparedStatement s, String[] args) throws SQLException {
-        for (int i = 0; i < args.length; i++) {
-            String arg = args[i];
+    /**
+     * Pattern of the statement files, the first group is the subdirectory, the second the name of the statement.
+     */
+    private static final Pattern STATEMENT_FILES = Pattern.compile(".*" + CONTEXT + "[/\\\\](" + QUERIES + "|" + PUSHES + ")[/\\\\]([^/\\\\]+)\\.sql");
+    /**
+     * The text of the statement files, keyed by subdirectory and name, e.g. "queries/get_student_by_id".
+     * The files do not change while the server runs, so each is read only once.
+     */
+    private static final Map<String, String> statements = new ConcurrentHashMap<>();
+
+    private static String loadStatement(String directory, String name) {
+        return statements.computeIfAbsent(directory + "/" + name, (key) -> {
             try {
-                int intArg = Integer.parseInt(arg);
-                s.setInt(i + 1, intArg);
-            } catch (NumberFormatException e) {
-                s.setString(i + 1, arg);
+                return ResourceHelper.readResourceCompletely(new ResourceLocation(CONTEXT, directory, name + ".sql"));
+            } catch (FileNotFoundException e) {
+                throw new SQLCommandNotFoundException(name, e);
             }
+        });
+    }
+    /**
+     * Reads all statement files under sql/queries and sql/pushes into the cache.
+     * @return the loaded statements, keyed by subdirectory and name, e.g. "queries/get_student_by_id"
+     */
+    public static Map<String, String> loadAllStatements() {
+        for (String resource : ResourceHelper.getResources(STATEMENT_FILES)) {
+            Matcher matcher = STATEMENT_FILES.matcher(resource);
+            if (matcher.matches()) loadStatement(matcher.group(1), matcher.group(2));
         }
+        return Collections.unmodifiableMap(new TreeMap<>(statements));
+    }
+    /**
+     * Counts the positional parameters (?) of a statement, ignoring question marks in string literals, quoted identifiers and comments.
+     * @param sql the statement
+     * @return the number of parameters
+     */
+    public static int countParameters(String sql) {
+        int count = 0;
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (c == '\'' || c == '"' || c == '`') {
+                int end = sql.indexOf(c, i + 1);
+                i = end < 0 ? sql.length() : end;
+            } else if (c == '-' && sql.startsWith("--", i)) {
+                int end = sql.indexOf('\n', i);
+                i = end < 0 ? sql.length() : end;
+            } else if (c == '/' && sql.startsWith("/*", i)) {
+                int end = sql.indexOf("*/", i + 2);
+                i = end < 0 ? sql.length() : end + 1;
+            } else if (c == '?') {
+                count++;
+            }
+        }
+        return count;
+    }
+    /**
+     * Loads all statement files and compiles them against the schema of the database, so mistakes show up at startup
+     * instead of with the first request that needs the statement. Every statement must use exactly as many positional
+     * parameters as the database expects, since {@link #insertArgs(PreparedStatement, String[])} binds them by position.
+     * The compiled statements stay in the statement cache of the connection.
+     * @param connection the connection to the database, the tables must exist
+     * @return the problems found, empty if all statements are valid
+     * @throws SQLException if no database connection is available
+     */
+    public static List<String> validateStatements(SQLiteConnection connection) throws SQLException {
+        List<String> problems = new ArrayList<>();
+        connection.withConnection(() -> {
+            for (Map.Entry<String, String> statement : loadAllStatements().entrySet()) {
+                try {
+                    PreparedStatement s = connection.prepareStatement(statement.getValue());
+                    int expected = countParameters(statement.getValue());
+                    int actual = s.getParameterMetaData().getParameterCount();
+                    if (expected != actual) {
+                        problems.add(statement.getKey() + ": " + actual + " parameters, but " + expected + " positional placeholders");
+                    }
+                } catch (SQLException e) {
+                    problems.add(statement.getKey() + ": " + e.getMessage());
+                } finally {
+                    connection.closePendingStatement();
+                }
+            }
+            return null;
+        });
+        return problems;
+    }
+
+    /**
+     * Binds untyped arguments to a statement, see {@link SQLArguments#parse(String...)}.
+     * @param s the statement
+     * @param args the arguments
+     * @throws SQLException if an argument cannot be bound
+     */
+    public static void insertArgs(PreparedStatement s, String[] args) throws SQLException {
+        SQLArguments.parse(args).bind(s);
     }
     /**
      * Gets an SQL query by its name and replaces placeholders with provided arguments.
@@ -46,14 +137,7 @@ public class SQLHelper {
      * @return the SQL query as a String with placeholders replaced
      */
     public static String getSQLQuery(String queryName) {
-        ResourceLocation location = new ResourceLocation(CONTEXT, QUERIES, queryName + ".sql");
-        String query;
-        try {
-            query = ResourceHelper.readResourceCompletely(location);
-        } catch (FileNotFoundException e) {
-            throw new SQLCommandNotFoundException(queryName, e);
-        }
-        return query;
+        return loadStatement(QUERIES, queryName);
     }
     /**
      * Prepares an SQL query statement by its name and replaces placeholders with provided arguments.
@@ -76,8 +160,17 @@ public class SQLHelper {
      * @return a SQLProcess that executes the query
      */
     public static SQLProcess getQueryProcess(String queryName, String... args) {
-        String query = getSQLQuery(queryName);
-        return new SQLQueryProcess(query, args);
+        return getQueryProcess(queryName, SQLArguments.parse(args));
+    }
+    /**
+     * Gets an SQL query process by its name, with typed arguments.
+     *
+     * @param queryName the name of the SQL query file (without extension)
+     * @param args      the arguments of the query
+     * @return a SQLProcess that executes the query
+     */
+    public static SQLProcess getQueryProcess(String queryName, SQLArguments args) {
+        return new SQLQueryProcess(getSQLQuery(queryName), args);
     }
 
     /**
@@ -88,14 +181,7 @@ public class SQLHelper {
      * @return the SQL add statement as a String with placeholders replaced
      */
     public static String getSQLAddStatement(String object) {
-        ResourceLocation location = new ResourceLocation(CONTEXT, PUSHES, "add_" + object + ".sql");
-        String statement;
-        try {
-            statement = ResourceHelper.readResourceCompletely(location);
-        } catch (FileNotFoundException e) {
-            throw new SQLCommandNotFoundException("add_" + object, e);
-        }
-        return statement;
+        return loadStatement(PUSHES, "add_" + object);
     }
     /**
      * Gets an SQL process for adding an object to the database.
@@ -107,6 +193,16 @@ public class SQLHelper {
     public static SQLVoidProcess getAddObjectProcess(String object, String... args) {
         return SQLVoidProcess.update(getSQLAddStatement(object), args);
     }
+    /**
+     * Gets an SQL process for adding an object to the database, with typed arguments.
+     *
+     * @param object the name of the object (e.g., "student", "course")
+     * @param args   the arguments of the SQL statement
+     * @return a SQLVoidProcess that executes the statement
+     */
+    public static SQLVoidProcess getAddObjectProcess(String object, SQLArguments args) {
+        return SQLVoidProcess.update(getSQLAddStatement(object), args);
+    }
 
     /**
      * Gets an SQL delete statement for a specific object and replaces placeholders with provided arguments.
@@ -116,14 +212,7 @@ public class SQLHelper {
      * @return the SQL add statement as a String with placeholders replaced
      */
     public static String getSQLDeleteStatement(String object) {
-        ResourceLocation location = new ResourceLocation(CONTEXT,PUSHES, "delete_" + object + ".sql");
-        String statement;
-        try {
-            statement = ResourceHelper.readResourceCompletely(location);
-        } catch (FileNotFoundException e) {
-            throw new SQLCommandNotFoundException("delete_" + object, e);
-        }
-        return statement;
+        return loadStatement(PUSHES, "delete_" + object);
     }
 
     /**
@@ -136,6 +225,16 @@ public class SQLHelper {
     public static SQLVoidProcess getDeleteObjectProcess(String object, String... args) {
         return SQLVoidProcess.update(getSQLDeleteStatement(object), args);
     }
+    /**
+     * Gets an SQL process for deleting an object from the database, with typed arguments.
+     *
+     * @param object the name of the object (e.g., "student", "course")
+     * @param args   the arguments of the SQL statement
+     * @return a SQLVoidProcess that executes the statement
+     */
+    public static SQLVoidProcess getDeleteObjectProcess(String object, SQLArguments args) {
+        return SQLVoidProcess.update(getSQLDeleteStatement(object), args);
+    }
 
         /**
      * Gets an SQL delete statement for a specific object and replaces placeholders with provided arguments.
@@ -145,14 +244,7 @@ public class SQLHelper {
      * @return the SQL add statement as a String with placeholders replaced
      */
     public static String getSQLUpdateStatement(String object) {
-        ResourceLocation location = new ResourceLocation(CONTEXT,PUSHES, "update_" + object + ".sql");
-        String statement;
-        try {
-            statement = ResourceHelper.readResourceCompletely(location);
-        } catch (FileNotFoundException e) {
-            throw new SQLCommandNotFoundException("update_" + object, e);
-        }
-        return statement;
+        return loadStatement(PUSHES, "update_" + object);
     }
 
     /**
@@ -165,4 +257,14 @@ public class SQLHelper {
     public static SQLVoidProcess getUpdateObjectProcess(String object, String... args) {
         return SQLVoidProcess.update(getSQLUpdateStatement(object), args);
     }
+    /**
+     * Gets an SQL process for updating an object in the database, with typed arguments.
+     *
+     * @param object the name of the object (e.g., "student", "course")
+     * @param args   the arguments of the SQL statement
+     * @return a SQLVoidProcess that executes the statement
+     */
+    public static SQLVoidProcess getUpdateObjectProcess(String object, SQLArguments args) {
+        return SQLVoidProcess.update(getSQLUpdateStatement(object), args);
+    }
 }
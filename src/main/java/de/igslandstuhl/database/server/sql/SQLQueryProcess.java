@@ -6,9 +6,12 @@ import java.sql.SQLException;
 
 public class SQLQueryProcess implements SQLProcess {
     private final String query;
-    private final String[] params;
+    private final SQLArguments params;
 
     public SQLQueryProcess(String query, String[] params) {
+        this(query, SQLArguments.parse(params));
+    }
+    public SQLQueryProcess(String query, SQLArguments params) {
         this.query = query;
         this.params = params;
     }
@@ -16,7 +19,7 @@ public class SQLQueryProcess implements SQLProcess {
     @Override
     public ResultSet execute(PreparedStatementSupplier stmt) throws SQLException {
         PreparedStatement s = stmt.prepareStatement(query);
-        SQLHelper.insertArgs(s, params);
+        params.bind(s);
         return s.executeQuery();
     }
 }
@@ -17,9 +17,12 @@ public interface SQLVoidProcess {
     public void execute(PreparedStatementSupplier supplier) throws SQLException;
 
     public static SQLVoidProcess update(String query, String[] args) {
+        return update(query, SQLArguments.parse(args));
+    }
+    public static SQLVoidProcess update(String query, SQLArguments args) {
         return (supplier) -> {
             PreparedStatement p = supplier.prepareStatement(query);
-            SQLHelper.insertArgs(p, args);
+            args.bind(p);
             p.executeUpdate();
         };
     }
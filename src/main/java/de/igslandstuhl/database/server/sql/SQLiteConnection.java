@@ -7,7 +7,21 @@ import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Savepoint;
 import java.sql.Statement;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.regex.Pattern;
 
 import de.igslandstuhl.database.server.resources.ResourceHelper;
@@ -15,26 +29,273 @@ import de.igslandstuhl.database.utils.TrackingReadWriteLock;
 
 /**
  * Represents a connection to an SQLite database.
+ * Internally, it is a small pool: up to {@link #getConnectionLimit()} connections for reading and a single connection for writing.
+ * SQLite only allows one writer at a time anyway, so writes wait for the writer connection instead of for the database lock.
+ * Connections are lent to a thread for a scope, see {@link #withConnection(SQLCallable)} and {@link #withWriteConnection(SQLCallable)}.
  */
 public class SQLiteConnection implements AutoCloseable, PreparedStatementSupplier {
+    /**
+     * The default maximum number of read connections in use at the same time.
+     */
+    public static final int DEFAULT_CONNECTION_LIMIT = 8;
+    /**
+     * The default time a thread waits for a connection before it gives up, in milliseconds.
+     */
+    public static final long DEFAULT_BORROW_TIMEOUT = 30000;
+    /**
+     * Connections lent for longer than this are reported as possible leaks, in milliseconds.
+     */
+    public static final long LEAK_THRESHOLD = 60000;
+    /**
+     * The number of prepared statements kept per connection.
+     */
+    public static final int STATEMENT_CACHE_SIZE = 64;
+    /**
+     * The default time the writer waits for further writes to commit them together, in milliseconds.
+     */
+    public static final long DEFAULT_COMMIT_INTERVAL = 5;
+    /**
+     * The default maximum number of writes committed together.
+     */
+    public static final int DEFAULT_COMMIT_BATCH = 100;
     /**
      * The URL of the SQLite database.
      * It is constructed as "jdbc:sqlite:" + url + ".db".
      */
     private final String url;
 
-    private final ThreadLocal<Connection> connectionSupplier;
+    /**
+     * Limits the number of read connections in use, so a large number of (virtual) threads cannot open a connection each.
+     */
+    private final Semaphore connectionPermits;
+    private final int connectionLimit;
+    /**
+     * Only one thread may use the writer connection at a time.
+     */
+    private final Semaphore writerPermit = new Semaphore(1, true);
+    private final long borrowTimeout;
+    /**
+     * Open read connections that are currently not lent to any thread.
+     */
+    private final Queue<Connection> idleConnections = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger openConnections = new AtomicInteger();
+    private volatile Connection writerConnection;
+    /**
+     * The connection lent to the current thread.
+     * JDBC connections must not be used by two threads at once, so threads started within a scope borrow their own.
+     */
+    private final ThreadLocal<Lease> currentLease = new ThreadLocal<>();
+    private final Set<Lease> activeLeases = ConcurrentHashMap.newKeySet();
+    private final Map<Connection, StatementCache> statementCaches = new ConcurrentHashMap<>();
+    private final LongAdder borrows = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private long commitInterval = DEFAULT_COMMIT_INTERVAL;
+    private int commitBatch = DEFAULT_COMMIT_BATCH;
+    private WriteQueue writeQueue;
+    private volatile boolean closed;
+
+    private static final class Lease {
+        private final Connection connection;
+        private final boolean writer;
+        private final Thread owner = Thread.currentThread();
+        private final long borrowedAt = System.nanoTime();
+        private volatile boolean released;
+
+        private Lease(Connection connection, boolean writer) {
+            this.connection = connection;
+            this.writer = writer;
+        }
+    }
+
+    /**
+     * Counters of the connection pool, e.g. for monitoring.
+     * @param openConnections the number of open read connections
+     * @param leasedConnections the number of read connections lent to threads
+     * @param writerLeased whether the writer connection is lent to a thread
+     * @param borrows the number of connections lent so far, nested scopes are not counted
+     * @param timeouts the number of threads that gave up waiting for a connection
+     * @param waitMillis the total time threads waited for a connection
+     * @param cachedStatements the number of prepared statements in the statement caches of all connections
+     * @param statementCacheHits the number of statements taken from a statement cache
+     * @param statementCacheMisses the number of statements that had to be prepared
+     */
+    public record Statistics(int openConnections, int leasedConnections, boolean writerLeased, long borrows, long timeouts, long waitMillis,
+            int cachedStatements, long statementCacheHits, long statementCacheMisses) {}
+
     /**
      * Returns the <code>java.sql.Connection</code> associated with this <code>SQLiteConnection</code>.
+     * This is the connection lent to the current thread, see {@link #withConnection(SQLCallable)}.
      * @return the <code>Connection</code> object
+     * @throws IllegalStateException if the current thread is not within a connection scope
      */
     public Connection getSQLConnection() {
-        return connectionSupplier.get();
+        Lease lease = currentLease.get();
+        if (lease == null || lease.released) throw new IllegalStateException("No database connection lent to " + Thread.currentThread().getName() + " - use withConnection or withWriteConnection");
+        return lease.connection;
+    }
+    /**
+     * Returns the maximum number of read connections in use at the same time.
+     * @return the connection limit
+     */
+    public int getConnectionLimit() {
+        return connectionLimit;
+    }
+    /**
+     * Runs the given action with a read connection lent to the current thread.
+     * At most {@link #getConnectionLimit()} connections are lent at the same time, further threads wait until one is returned.
+     * Nested calls reuse the lent connection. It is only lent to the current thread, threads started within the action
+     * have to borrow their own, so with the connection limit reached they wait for another thread to return one.
+     * @param action the action to run
+     * @return the result of the action
+     * @throws SQLException if no connection could be opened or borrowed in time, or the action fails
+     */
+    public <T> T withConnection(SQLCallable<T> action) throws SQLException {
+        return withLease(false, action);
+    }
+    /**
+     * Runs the given action with the writer connection lent to the current thread.
+     * Nested calls reuse the writer connection, also for reading. Within a read scope, the writer connection is lent
+     * additionally and the read connection is used again after the action.
+     * @param action the action to run
+     * @return the result of the action
+     * @throws SQLException if the connection could not be opened or borrowed in time, or the action fails
+     */
+    public <T> T withWriteConnection(SQLCallable<T> action) throws SQLException {
+        return withLease(true, action);
+    }
+    private <T> T withLease(boolean write, SQLCallable<T> action) throws SQLException {
+        Lease outer = currentLease.get();
+        if (outer != null && !outer.released && (outer.writer || !write)) return action.call();
+
+        Semaphore permits = write ? writerPermit : connectionPermits;
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(borrowTimeout, TimeUnit.MILLISECONDS)) {
+                timeouts.increment();
+                reportLeaks();
+                throw new SQLException("Timed out after " + borrowTimeout + " ms waiting for a database " + (write ? "write " : "") + "connection");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection", e);
+        }
+        waitNanos.add(System.nanoTime() - start);
+        borrows.increment();
+        Connection connection;
+        try {
+            connection = write ? writerConnection() : idleConnection();
+        } catch (SQLException e) {
+            permits.release();
+            throw e;
+        }
+        Lease lease = new Lease(connection, write);
+        activeLeases.add(lease);
+        currentLease.set(lease);
+        try {
+            return action.call();
+        } finally {
+            lease.released = true;
+            activeLeases.remove(lease);
+            if (outer != null) {
+                currentLease.set(outer);
+            } else {
+                currentLease.remove();
+            }
+            if (!write) {
+                if (closed) {
+                    openConnections.decrementAndGet();
+                    closeConnection(connection);
+                } else {
+                    idleConnections.add(connection);
+                }
+            }
+            permits.release();
+        }
+    }
+    private Connection idleConnection() throws SQLException {
+        Connection connection = idleConnections.poll();
+        while (connection != null && connection.isClosed()) {
+            openConnections.decrementAndGet();
+            statementCaches.remove(connection);
+            connection = idleConnections.poll();
+        }
+        if (connection == null) {
+            connection = DriverManager.getConnection(url);
+            openConnections.incrementAndGet();
+        }
+        return connection;
+    }
+    private synchronized Connection writerConnection() throws SQLException {
+        Connection connection = writerConnection;
+        if (connection == null || connection.isClosed()) {
+            if (connection != null) statementCaches.remove(connection);
+            connection = DriverManager.getConnection(url);
+            writerConnection = connection;
+        }
+        return connection;
+    }
+    private void closeConnection(Connection connection) throws SQLException {
+        StatementCache cache = statementCaches.remove(connection);
+        try {
+            if (cache != null) cache.close();
+        } finally {
+            connection.close();
+        }
+    }
+    /**
+     * Reports connections that have been lent for longer than {@link #LEAK_THRESHOLD}, with the stack of the thread holding them.
+     * This is called when a thread gives up waiting for a connection, as leaked connections are the usual reason.
+     * @return the number of reported connections
+     */
+    public int reportLeaks() {
+        long now = System.nanoTime();
+        int leaks = 0;
+        for (Lease lease : activeLeases) {
+            long heldMillis = TimeUnit.NANOSECONDS.toMillis(now - lease.borrowedAt);
+            if (heldMillis < LEAK_THRESHOLD) continue;
+            leaks++;
+            System.err.println("WARNING: database " + (lease.writer ? "writer " : "") + "connection held for " + heldMillis + " ms by " + lease.owner);
+            for (StackTraceElement element : lease.owner.getStackTrace()) {
+                System.err.println("\tat " + element);
+            }
+        }
+        return leaks;
+    }
+    /**
+     * Returns the counters of the connection pool.
+     * @return the statistics
+     */
+    public Statistics getStatistics() {
+        int cachedStatements = 0;
+        long hits = 0, misses = 0;
+        for (StatementCache cache : statementCaches.values()) {
+            cachedStatements += cache.size();
+            hits += cache.getHits();
+            misses += cache.getMisses();
+        }
+        return new Statistics(openConnections.get(), connectionLimit - connectionPermits.availablePermits(), writerPermit.availablePermits() == 0,
+                borrows.sum(), timeouts.sum(), TimeUnit.NANOSECONDS.toMillis(waitNanos.sum()), cachedStatements, hits, misses);
+    }
+    /**
+     * A statement in use, it goes back to the statement cache of its connection when it is released.
+     */
+    private static final class PendingStatement {
+        private final String sql;
+        private final PreparedStatement statement;
+        private final StatementCache cache;
+        private ResultSet result;
+
+        private PendingStatement(String sql, PreparedStatement statement, StatementCache cache) {
+            this.sql = sql;
+            this.statement = statement;
+            this.cache = cache;
+        }
     }
     /**
      * Current statement in this thread that need to be closed when the connection is closed.
      */
-    private ThreadLocal<PreparedStatement> pendingStatement = new ThreadLocal<>();
+    private ThreadLocal<PendingStatement> pendingStatement = new ThreadLocal<>();
 
     private final TrackingReadWriteLock lock = new TrackingReadWriteLock();
 
@@ -61,9 +322,15 @@ public class SQLiteConnection implements AutoCloseable, PreparedStatementSupplie
     }
     @Override
     public PreparedStatement prepareStatement(String sql) throws SQLException {
-        if (pendingStatement.get() != null && !pendingStatement.get().isClosed()) throw new SQLMultipleAccessesException("Multiple statements created at one time in one thread - use another Thread for callbacks etc.");
-        PreparedStatement stmt = getSQLConnection().prepareStatement(sql);
-        pendingStatement.set(stmt);
+        PendingStatement pending = pendingStatement.get();
+        if (pending != null && !pending.statement.isClosed()) throw new SQLMultipleAccessesException("Multiple statements created at one time in one thread - read the rows first, e.g. with Server.query, and use the database afterwards");
+        Connection connection = getSQLConnection();
+        StatementCache cache = statementCaches.computeIfAbsent(connection, (c) -> new StatementCache(STATEMENT_CACHE_SIZE));
+        PreparedStatement stmt = cache.take(sql);
+        if (stmt == null || stmt.isClosed()) {
+            stmt = connection.prepareStatement(sql);
+        }
+        pendingStatement.set(new PendingStatement(sql, stmt, cache));
         return stmt;
     }
     /**
@@ -86,12 +353,15 @@ public class SQLiteConnection implements AutoCloseable, PreparedStatementSupplie
      * @throws SQLException if an SQL error occurs during execution
      */
     public void executeVoidProcessSecure(String sql) throws SQLException {
-        lock.writeLock().lock();
-        try (Statement stmt = getSQLConnection().createStatement()) {
-            stmt.execute(sql);
-        } finally {
-            lock.writeLock().unlock();
-        }
+        withWriteConnection(() -> {
+            lock.writeLock().lock();
+            try (Statement stmt = getSQLConnection().createStatement()) {
+                stmt.execute(sql);
+            } finally {
+                lock.writeLock().unlock();
+            }
+            return null;
+        });
     }
     /**
      * Executes a SQL void process securely, ensuring that the statement is closed after execution.
@@ -99,16 +369,126 @@ public class SQLiteConnection implements AutoCloseable, PreparedStatementSupplie
      * @throws SQLException if an SQL error occurs during execution
      */
     public void executeVoidProcessSecure(SQLVoidProcess p) throws SQLException {
-        lock.writeLock().lock();
+        withWriteConnection(() -> {
+            lock.writeLock().lock();
+            try {
+                p.execute(this);
+            } finally {
+                closePendingStatement();
+                lock.writeLock().unlock();
+            }
+            return null;
+        });
+    }
+    /**
+     * Configures the group commit of {@link #submitWrite(SQLVoidProcess)}, before the first write is submitted.
+     * @param commitInterval the time the writer waits for further writes after the first one, in milliseconds
+     * @param commitBatch the maximum number of writes committed together
+     */
+    public synchronized void setGroupCommit(long commitInterval, int commitBatch) {
+        if (writeQueue != null) throw new IllegalStateException("Group commit already started");
+        if (commitInterval < 0 || commitBatch < 1) throw new IllegalArgumentException("Invalid group commit: " + commitInterval + " ms, " + commitBatch + " writes");
+        this.commitInterval = commitInterval;
+        this.commitBatch = commitBatch;
+    }
+    /**
+     * Returns the queue of {@link #submitWrite(SQLVoidProcess)}, starting its writer thread on first use.
+     * @return the write queue
+     */
+    public synchronized WriteQueue getWriteQueue() {
+        if (writeQueue == null) {
+            if (closed) throw new IllegalStateException("Connection is closed");
+            writeQueue = new WriteQueue(this::executeGroup, commitInterval, commitBatch);
+        }
+        return writeQueue;
+    }
+    /**
+     * Queues a write that is committed together with other writes arriving at about the same time, see {@link WriteQueue}.
+     * Use this for frequent small writes instead of {@link #executeVoidProcessSecure(SQLVoidProcess)}, which commits every write on its own.
+     * @param p the write
+     * @return a future that completes when the write is committed
+     */
+    public CompletableFuture<Void> submitWrite(SQLVoidProcess p) {
+        return getWriteQueue().submit(p);
+    }
+    /**
+     * Waits until a submitted write is committed.
+     * The writer itself waits up to the borrow timeout for the writer connection, possibly behind the batch before,
+     * so this gives up after the commit interval and twice the borrow timeout.
+     * Must not be called within {@link #withWriteConnection(SQLCallable)}, the writer needs the writer connection to commit.
+     * @param write the future of the write
+     * @throws SQLException if the write failed, was not committed in time or the thread was interrupted
+     */
+    public void await(CompletableFuture<?> write) throws SQLException {
+        await(write, commitInterval + 2 * borrowTimeout);
+    }
+    /**
+     * Waits until a submitted write is committed.
+     * @param write the future of the write
+     * @param timeout the maximum time to wait, in milliseconds
+     * @throws SQLException if the write failed, was not committed in time or the thread was interrupted
+     */
+    public static void await(CompletableFuture<?> write, long timeout) throws SQLException {
         try {
-            p.execute(this);
-        } finally {
-            closePendingStatement();
-            lock.writeLock().unlock();
+            write.get(timeout, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // The write stays queued and may still be committed later
+            throw new SQLException("Timed out after " + timeout + " ms waiting for a write to be committed", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a write", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SQLException sqlException) throw sqlException;
+            if (e.getCause() instanceof RuntimeException runtimeException) throw runtimeException;
+            throw new SQLException(e.getCause());
         }
     }
+    /**
+     * Executes writes in one transaction with the writer connection.
+     * Every write gets a savepoint, so a failing write is rolled back without affecting the others.
+     * @param processes the writes
+     * @return the failure of every write, null for writes that succeeded
+     * @throws SQLException if the transaction could not be committed
+     */
+    private Exception[] executeGroup(List<SQLVoidProcess> processes) throws SQLException {
+        return withWriteConnection(() -> {
+            Exception[] failures = new Exception[processes.size()];
+            Connection connection = getSQLConnection();
+            lock.writeLock().lock();
+            try {
+                connection.setAutoCommit(false);
+                try {
+                    for (int i = 0; i < processes.size(); i++) {
+                        Savepoint savepoint = connection.setSavepoint();
+                        try {
+                            processes.get(i).execute(this);
+                        } catch (SQLException | RuntimeException e) {
+                            failures[i] = e;
+                        } finally {
+                            closePendingStatement();
+                        }
+                        if (failures[i] == null) {
+                            connection.releaseSavepoint(savepoint);
+                        } else {
+                            connection.rollback(savepoint);
+                        }
+                    }
+                    connection.commit();
+                } catch (SQLException | RuntimeException e) {
+                    connection.rollback();
+                    throw e;
+                } finally {
+                    connection.setAutoCommit(true);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+            return failures;
+        });
+    }
     /**
      * Executes a SQL process that returns a ResultSet.
+     * The result set is read after this method returns, so callers should wrap it and the reading in {@link #withConnection(SQLCallable)}.
      * @param p the SQLProcess to execute
      * @return a ResultSet containing the results of the query
      * @throws SQLException if an SQL error occurs during execution
@@ -117,7 +497,7 @@ public class SQLiteConnection implements AutoCloseable, PreparedStatementSupplie
         if (p instanceof SQLQueryProcess qp) return executeProcess(qp);
         lock.writeLock().lock();
         try {
-            return p.execute(this);
+            return trackResult(p.execute(this));
         } finally {
             lock.writeLock().unlock();
         }
@@ -131,11 +511,20 @@ public class SQLiteConnection implements AutoCloseable, PreparedStatementSupplie
     public ResultSet executeProcess(SQLQueryProcess p) throws SQLException {
         lock.readLock().lock();
         try {
-            return p.execute(this);
+            return trackResult(p.execute(this));
         } finally {
             lock.readLock().unlock();
         }
     }
+    /**
+     * Remembers the result set of the pending statement, it is closed when the statement is released.
+     * An open result set keeps the read transaction of its statement open, also if the statement goes back to the cache.
+     */
+    private ResultSet trackResult(ResultSet result) {
+        PendingStatement pending = pendingStatement.get();
+        if (pending != null) pending.result = result;
+        return result;
+    }
     /**
      * Closes all pending statements that have been created during the lifetime of this connection.
      * This method should be called before closing the connection to ensure that all resources are released.
@@ -145,11 +534,18 @@ public class SQLiteConnection implements AutoCloseable, PreparedStatementSupplie
         pendingStatement.remove();
     }
     /**
-     * Closes the pending statement in the current thread
-     * @throws SQLException
+     * Releases the pending statement in the current thread: its result set is closed and the statement goes back to the statement cache.
+     * @throws SQLException if the result set or an evicted statement cannot be closed
      */
     public void closePendingStatement() throws SQLException {
-        pendingStatement.get().close();
+        PendingStatement pending = pendingStatement.get();
+        if (pending == null) return;
+        pendingStatement.remove();
+        try {
+            if (pending.result != null) pending.result.close();
+        } finally {
+            pending.cache.release(pending.sql, pending.statement);
+        }
     }
     /**
      * Creates the necessary tables in the database by executing SQL scripts.
@@ -167,20 +563,51 @@ public class SQLiteConnection implements AutoCloseable, PreparedStatementSupplie
      * @throws SQLException if an error occurs while establishing the connection
      */
     public SQLiteConnection(String url) throws SQLException {
+        this(url, DEFAULT_CONNECTION_LIMIT);
+    }
+    /**
+     * Constructs a new SQLiteConnection with the specified database URL and connection limit.
+     * @param url the name of the database file (without extension)
+     * @param connectionLimit the maximum number of connections in use at the same time
+     * @throws SQLException if an error occurs while establishing the connection
+     */
+    public SQLiteConnection(String url, int connectionLimit) throws SQLException {
+        this(url, connectionLimit, DEFAULT_BORROW_TIMEOUT);
+    }
+    /**
+     * Constructs a new SQLiteConnection with the specified database URL, connection limit and borrow timeout.
+     * @param url the name of the database file (without extension)
+     * @param connectionLimit the maximum number of read connections in use at the same time
+     * @param borrowTimeout the time a thread waits for a connection before it gives up, in milliseconds
+     * @throws SQLException if an error occurs while establishing the connection
+     */
+    public SQLiteConnection(String url, int connectionLimit, long borrowTimeout) throws SQLException {
+        if (connectionLimit < 1) throw new IllegalArgumentException("Invalid connection limit: " + connectionLimit);
+        if (borrowTimeout < 0) throw new IllegalArgumentException("Invalid borrow timeout: " + borrowTimeout);
+        this.connectionLimit = connectionLimit;
+        this.connectionPermits = new Semaphore(connectionLimit, true);
+        this.borrowTimeout = borrowTimeout;
         this.url = "jdbc:sqlite:" + url + ".db";
-        this.connectionSupplier = ThreadLocal.withInitial(() -> {
-            try {
-                return DriverManager.getConnection(this.url);
-            } catch (SQLException e) {
-                throw new IllegalStateException(e);
-            }
-        });
     }
     @Override
     public void close() throws SQLException {
+        WriteQueue queue;
+        synchronized (this) {
+            closed = true;
+            queue = writeQueue;
+        }
+        // Commit the queued writes while the writer connection is still open
+        if (queue != null) queue.close();
         lock.interruptAll();
         closeAllPendingStatements();
-        connectionSupplier.remove();
+        Connection connection;
+        while ((connection = idleConnections.poll()) != null) {
+            openConnections.decrementAndGet();
+            closeConnection(connection);
+        }
+        synchronized (this) {
+            if (writerConnection != null) closeConnection(writerConnection);
+        }
     }
     public static void main(String[] args) throws SQLException {
         String url = "lernjobs"; // Datenbank-Datei im Projektverzeichnis
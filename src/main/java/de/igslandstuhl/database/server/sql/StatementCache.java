@@ -0,0 +1,84 @@
+package de.igslandstuhl.database.server.sql;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The prepared statements of one connection, keyed by their SQL, so each statement is compiled only once per connection.
+ * A statement is taken out of the cache while it is used and put back afterwards, so two users of the same connection
+ * never share one statement. If the cache is full, the least recently used statement is closed.
+ */
+final class StatementCache implements AutoCloseable {
+    private final int capacity;
+    private final Map<String, PreparedStatement> statements;
+    private long hits;
+    private long misses;
+
+    StatementCache(int capacity) {
+        this.capacity = capacity;
+        this.statements = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Takes a statement out of the cache.
+     * @param sql the SQL of the statement
+     * @return the statement, or null if it has to be prepared
+     */
+    synchronized PreparedStatement take(String sql) {
+        PreparedStatement statement = statements.remove(sql);
+        if (statement != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return statement;
+    }
+    /**
+     * Puts a statement back into the cache after use.
+     * Closed statements and statements whose SQL is already cached again are closed instead.
+     * @param sql the SQL of the statement
+     * @param statement the statement
+     * @throws SQLException if a statement cannot be closed
+     */
+    void release(String sql, PreparedStatement statement) throws SQLException {
+        if (statement.isClosed()) return;
+        statement.clearParameters();
+        PreparedStatement evicted = null;
+        synchronized (this) {
+            if (capacity == 0 || statements.containsKey(sql)) {
+                evicted = statement;
+            } else {
+                statements.put(sql, statement);
+                if (statements.size() > capacity) {
+                    var eldest = statements.entrySet().iterator();
+                    evicted = eldest.next().getValue();
+                    eldest.remove();
+                }
+            }
+        }
+        if (evicted != null) evicted.close();
+    }
+    synchronized int size() {
+        return statements.size();
+    }
+    synchronized long getHits() {
+        return hits;
+    }
+    synchronized long getMisses() {
+        return misses;
+    }
+
+    @Override
+    public void close() throws SQLException {
+        PreparedStatement[] open;
+        synchronized (this) {
+            open = statements.values().toArray(PreparedStatement[]::new);
+            statements.clear();
+        }
+        for (PreparedStatement statement : open) {
+            statement.close();
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package de.igslandstuhl.database.server.sql;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Queues writes and commits them in groups on a single writer thread.
+ * The writer takes the first queued write and waits up to the commit interval for more, or until the batch is full.
+ * The whole batch is then committed as one transaction, so many small writes arriving at the same moment, like students
+ * ticking off tasks at the end of a lesson, cost one commit (and one sync of the database file) instead of one each.
+ * The future of a write completes once its transaction is committed.
+ */
+public class WriteQueue implements AutoCloseable {
+    /**
+     * Executes a batch of writes in one transaction.
+     */
+    @FunctionalInterface
+    interface Committer {
+        /**
+         * Executes and commits the writes.
+         * @param writes the writes
+         * @return the failure of every write, null for writes that succeeded
+         * @throws SQLException if the transaction could not be committed, none of the writes is stored then
+         */
+        Exception[] commit(List<SQLVoidProcess> writes) throws SQLException;
+    }
+
+    private record Write(SQLVoidProcess process, CompletableFuture<Void> result) {}
+
+    private final Committer committer;
+    private final long commitInterval;
+    private final int maxBatch;
+    private final BlockingQueue<Write> queue = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder writes = new LongAdder();
+    private volatile boolean closed;
+
+    /**
+     * Creates a queue and starts its writer thread.
+     * @param committer executes the batches
+     * @param commitInterval the time the writer waits for further writes after the first one, in milliseconds
+     * @param maxBatch the maximum number of writes in one transaction
+     */
+    WriteQueue(Committer committer, long commitInterval, int maxBatch) {
+        if (commitInterval < 0 || maxBatch < 1) throw new IllegalArgumentException("Invalid group commit: " + commitInterval + " ms, " + maxBatch + " writes");
+        this.committer = committer;
+        this.commitInterval = commitInterval;
+        this.maxBatch = maxBatch;
+        this.writer = new Thread(this::run, "SQL Writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Queues a write.
+     * @param process the write
+     * @return a future that completes when the write is committed, or exceptionally if it failed
+     */
+    public CompletableFuture<Void> submit(SQLVoidProcess process) {
+        Write write = new Write(process, new CompletableFuture<>());
+        queue.add(write);
+        // The queue may have been closed and drained while the write was added
+        if (closed && queue.remove(write)) {
+            write.result().completeExceptionally(new SQLException("Write queue is closed"));
+        }
+        return write.result();
+    }
+
+    private void run() {
+        List<Write> batch = new ArrayList<>(maxBatch);
+        try {
+            while (!closed) {
+                try {
+                    Write first = queue.poll(100, TimeUnit.MILLISECONDS);
+                    if (first == null) continue;
+                    batch.add(first);
+                    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(commitInterval);
+                    while (batch.size() < maxBatch) {
+                        long wait = deadline - System.nanoTime();
+                        Write next = wait > 0 ? queue.poll(wait, TimeUnit.NANOSECONDS) : queue.poll();
+                        if (next == null) break;
+                        batch.add(next);
+                    }
+                } catch (InterruptedException e) {
+                    // Nobody else knows the writer thread, stop after committing what has been taken already
+                    closed = true;
+                }
+                commit(batch);
+                batch.clear();
+            }
+        } catch (Throwable t) {
+            // Without the writer nobody would complete the futures, so the queue is closed and all waiting writes fail
+            closed = true;
+            queue.drainTo(batch);
+            for (Write write : batch) {
+                write.result().completeExceptionally(t);
+            }
+            throw t;
+        }
+    }
+    private void commit(List<Write> batch) {
+        if (batch.isEmpty()) return;
+        List<SQLVoidProcess> processes = new ArrayList<>(batch.size());
+        for (Write write : batch) {
+            processes.add(write.process());
+        }
+        try {
+            Exception[] failures = committer.commit(processes);
+            batches.increment();
+            writes.add(batch.size());
+            for (int i = 0; i < batch.size(); i++) {
+                if (failures[i] == null) {
+                    batch.get(i).result().complete(null);
+                } else {
+                    batch.get(i).result().completeExceptionally(failures[i]);
+                }
+            }
+        } catch (Throwable t) {
+            // Errors fail the batch as well, the writer goes on with the next one
+            for (Write write : batch) {
+                write.result().completeExceptionally(t);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of committed transactions.
+     * @return the number of batches
+     */
+    public long getBatches() {
+        return batches.sum();
+    }
+    /**
+     * Returns the number of writes in committed transactions.
+     * @return the number of writes
+     */
+    public long getWrites() {
+        return writes.sum();
+    }
+    /**
+     * Returns the number of writes waiting for the writer.
+     * @return the number of queued writes
+     */
+    public int getQueued() {
+        return queue.size();
+    }
+
+    /**
+     * Stops the writer thread and commits the remaining writes on the calling thread.
+     * The writer is not interrupted, so a transaction in progress is completed.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        List<Write> rest = new ArrayList<>();
+        queue.drainTo(rest);
+        for (int i = 0; i < rest.size(); i += maxBatch) {
+            commit(rest.subList(i, Math.min(rest.size(), i + maxBatch)));
+        }
+    }
+}
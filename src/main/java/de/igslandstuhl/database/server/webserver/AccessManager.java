@@ -1,6 +1,6 @@
 package de.igslandstuhl.database.server.webserver;
 
-import java.util.Arrays;
+import java.util.Set;
 
 import de.igslandstuhl.database.api.User;
 import de.igslandstuhl.database.server.resources.ResourceLocation;
@@ -14,7 +14,7 @@ public class AccessManager {
      * Public spaces and locations that are accessible without authentication.
      * These resources can be accessed by anyone, regardless of their authentication status.
      */
-    private static final String[] PUBLIC_SPACES = {"error", "site", "icons"};
+    private static final Set<String> PUBLIC_SPACES = Set.of("error", "site", "icons");
     /**
      * The user space is restricted to authenticated users.
      */
@@ -31,12 +31,12 @@ public class AccessManager {
      * Public locations that are accessible without authentication.
      * These resources can be accessed by anyone, regardless of their authentication status.
      */
-    private static final String[] PUBLIC_LOCATIONS = {"rooms", "subjects"};
+    private static final Set<String> PUBLIC_LOCATIONS = Set.of("rooms", "subjects");
     /**
      * Admin locations that are accessible only to authenticated admins.
      * These resources require admin privileges for access.
      */
-    private static final String[] ADMIN_LOCATIONS = {"students", "teachers", "classes"};
+    private static final Set<String> ADMIN_LOCATIONS = Set.of("students", "teachers", "classes");
     
     /**
      * Checks if a user has access to a specific resource.
@@ -49,20 +49,35 @@ public class AccessManager {
         return hasAccess(User.getUser(user), resource);
     }
     public static boolean hasAccess(User user, ResourceLocation resource) {
-        if (Arrays.asList(PUBLIC_SPACES).contains(resource.namespace()) || Arrays.asList(PUBLIC_LOCATIONS).contains(resource.resource())) {
-            return true;
-        } else if (user != null) {
-            if (resource.namespace().equals(USER_SPACE) || resource.resource().startsWith("my") && !(user == User.ANONYMOUS)) {
-                return true;
-            } else if (resource.namespace().equals(TEACHER_SPACE)) {
-                return user.isTeacher() || user.isAdmin();
-            } else if (resource.namespace().equals(ADMIN_SPACE) || Arrays.asList(ADMIN_LOCATIONS).contains(resource.resource())) {
-                return user.isAdmin();
-            } else {
-                return false;
-            }
+        return policyOf(resource).allows(user);
+    }
+    /**
+     * Checks if a resource is a static file of a public space, e.g. the login page, stylesheets or icons.
+     * These are the same for every user, so they are served without a session.
+     * @param resource the ResourceLocation representing the resource
+     * @return true if the resource is a public static file
+     */
+    public static boolean isPublicAsset(ResourceLocation resource) {
+        return !resource.isVirtual() && PUBLIC_SPACES.contains(resource.namespace());
+    }
+    /**
+     * Returns who may access the given resource.
+     * @param resource the ResourceLocation representing the resource
+     * @return the access policy of the resource
+     */
+    public static AccessPolicy policyOf(ResourceLocation resource) {
+        if (PUBLIC_SPACES.contains(resource.namespace()) || PUBLIC_LOCATIONS.contains(resource.resource())) {
+            return AccessPolicy.PUBLIC;
+        } else if (resource.namespace().equals(USER_SPACE)) {
+            return AccessPolicy.USER;
+        } else if (resource.resource().startsWith("my")) {
+            return AccessPolicy.LOGGED_IN;
+        } else if (resource.namespace().equals(TEACHER_SPACE)) {
+            return AccessPolicy.TEACHER;
+        } else if (resource.namespace().equals(ADMIN_SPACE) || ADMIN_LOCATIONS.contains(resource.resource())) {
+            return AccessPolicy.ADMIN;
         } else {
-            return false;
+            return AccessPolicy.NONE;
         }
     }
 }
@@ -0,0 +1,56 @@
+package de.igslandstuhl.database.server.webserver;
+
+import de.igslandstuhl.database.api.User;
+
+/**
+ * Describes who may access a resource.
+ * The policy of a resource only depends on its location, see {@link AccessManager#policyOf(de.igslandstuhl.database.server.resources.ResourceLocation)}.
+ */
+public enum AccessPolicy {
+    /**
+     * Accessible without authentication.
+     */
+    PUBLIC,
+    /**
+     * Accessible with any session, including anonymous ones.
+     */
+    USER,
+    /**
+     * Personal data, accessible to every logged in user.
+     */
+    LOGGED_IN,
+    /**
+     * Accessible to teachers and admins.
+     */
+    TEACHER,
+    /**
+     * Accessible to admins only.
+     */
+    ADMIN,
+    /**
+     * Not accessible at all.
+     */
+    NONE;
+
+    /**
+     * Checks whether the given user may access a resource with this policy.
+     * @param user the user, or null if the request has no session
+     * @return true if the user has access
+     */
+    public boolean allows(User user) {
+        switch (this) {
+            case PUBLIC:
+                return true;
+            case USER:
+                return user != null;
+            case LOGGED_IN:
+                return user != null && user != User.ANONYMOUS;
+            case TEACHER:
+                return user != null && (user.isTeacher() || user.isAdmin());
+            case ADMIN:
+                return user != null && user.isAdmin();
+            default:
+                return false;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package de.igslandstuhl.database.server.webserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Gzip content coding for response bodies.
+ */
+public final class Compression {
+    /**
+     * Bodies smaller than this are sent as they are, the gzip header and the extra work would not pay off.
+     */
+    public static final int MIN_SIZE = 1024;
+
+    private Compression() {}
+
+    /**
+     * Checks whether bodies of the given content type are worth compressing.
+     * Images are already compressed.
+     * @param contentType the content type of the body, may be null
+     * @return true if the body should be compressed
+     */
+    public static boolean isCompressible(ContentType contentType) {
+        return contentType != null && (contentType.isText() || contentType == ContentType.CSV);
+    }
+
+    /**
+     * Compresses the given bytes with gzip.
+     * @param data the buffer holding the data
+     * @param offset the start of the data
+     * @param length the length of the data
+     * @return the compressed data
+     */
+    public static byte[] gzip(byte[] data, int offset, int length) {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(length / 4 + 64);
+        try (GZIPOutputStream out = new GZIPOutputStream(compressed, 8192)) {
+            out.write(data, offset, length);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // Cannot happen, the data is written to memory
+        }
+        return compressed.toByteArray();
+    }
+
+    /**
+     * Compresses the given bytes with gzip, if that makes them noticeably smaller.
+     * @param data the data
+     * @return the compressed data, or null if the data is too small or does not compress well
+     */
+    public static byte[] gzipIfSmaller(byte[] data) {
+        if (data.length < MIN_SIZE) return null;
+        byte[] compressed = gzip(data, 0, data.length);
+        return compressed.length < data.length * 9 / 10 ? compressed : null;
+    }
+}
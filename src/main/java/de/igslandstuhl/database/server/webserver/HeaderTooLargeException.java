@@ -0,0 +1,11 @@
+package de.igslandstuhl.database.server.webserver;
+
+import java.io.IOException;
+
+/**
+ * Thrown if a request header exceeds the size or line limits of the {@link HttpHeaderScanner}.
+ */
+public class HeaderTooLargeException extends IOException {
+    public HeaderTooLargeException() {}
+    public HeaderTooLargeException(String msg) { super(msg); }
+}
@@ -1,92 +1,309 @@
 package de.igslandstuhl.database.server.webserver;
 
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
+/**
+ * Represents the parsed header of an HTTP request.
+ * The header is parsed once, in a single pass over the lines found by a {@link HttpHeaderScanner}, and is immutable afterwards.
+ * Header fields are looked up case-insensitively, cookies and query parameters are only parsed when first requested.
+ */
 public class HttpHeader {
     /**
-     * Represents the path of the POST request.
-     * This is the part of the request line that specifies the resource being requested.
+     * Represents the method of the request, e.g. "GET" or "POST".
+     */
+    private final String method;
+    /**
+     * Represents the request target as sent by the client, including the query string.
+     */
+    private final String target;
+    /**
+     * Represents the path of the request.
+     * This is the part of the request target that specifies the resource being requested, without the query string.
      */
     private final String path;
     /**
-     * Represents the content length of the POST request.
+     * Represents the raw query string of the request, or null if the target contains none.
+     */
+    private final String query;
+    /**
+     * Represents the protocol version of the request, e.g. "HTTP/1.1".
+     */
+    private final String version;
+    /**
+     * All header fields, keyed case-insensitively.
+     * Repeated fields are combined into one value, as allowed by RFC 9110.
+     */
+    private final Map<String, String> fields;
+    /**
+     * Represents the content length of the request.
      * This is used to determine the size of the request body.
      */
     private final int contentLength;
     /**
-     * Represents the cookies associated with the POST request.
-     * This is an array of Cookie objects that may be included in the request.
+     * Represents the cookies associated with the request, parsed on first access.
      */
-    private final Cookie[] cookies;
-    private final String userAgent;
-    private final String acceptLanguage;
+    private volatile Cookie[] cookies;
+    /**
+     * Represents the query parameters of the request, parsed on first access.
+     */
+    private volatile Map<String, String> queryParameters;
 
     /**
-     * Constructs a new PostRequest with the given header and body.
-     * @param header the header of the POST request
-     * @param body the body of the POST request
+     * Parses the given request header.
+     * @param header the header of the request, the terminating empty line is optional
+     * @throws IllegalArgumentException if the request line or the content length is malformed
      */
     public HttpHeader(String header) {
+        this(scan(header.getBytes(StandardCharsets.ISO_8859_1)));
+    }
+    private HttpHeader(HttpHeader scanned) {
+        this.method = scanned.method;
+        this.target = scanned.target;
+        this.path = scanned.path;
+        this.query = scanned.query;
+        this.version = scanned.version;
+        this.fields = scanned.fields;
+        this.contentLength = scanned.contentLength;
+    }
+    private static HttpHeader scan(byte[] bytes) {
+        HttpHeaderScanner scanner = new HttpHeaderScanner();
+        try {
+            scanner.finish(bytes, bytes.length);
+        } catch (HeaderTooLargeException e) {
+            throw new IllegalArgumentException(e.getMessage(), e);
+        }
+        return scanner.toHeader(bytes);
+    }
+    /**
+     * Constructs a header from the lines found by a {@link HttpHeaderScanner}.
+     * @param buffer the buffer holding the header
+     * @param lineStarts the start offsets of the lines
+     * @param lineEnds the end offsets of the lines, excluding the line break
+     * @param lineCount the number of lines, the first one being the request line
+     */
+    HttpHeader(byte[] buffer, int[] lineStarts, int[] lineEnds, int lineCount) {
+        if (lineCount == 0) throw new IllegalArgumentException("Empty request header");
         // Example: "POST /login HTTP/1.1"
-        String[] parts = header.split(" ");
-        this.path = parts[1];
-        
-        int contentLength = 0;
-        Cookie[] cookies = new Cookie[0];
-        String userAgent = null;
-        String acceptLanguage = null;
-        for (String line : header.split("\n")) {
-            if (line.startsWith("Content-Length:")) {
-                contentLength = Integer.parseInt(line.split(":")[1].trim());
-            } else if (line.startsWith("Cookie:")) {
-                String[] cookieData = line.substring(7).split(";");
-                List<Cookie> cookieList = new ArrayList<>();
-                for (String cookie : cookieData) {
-                    String[] keyValue = cookie.trim().split("=");
-                    if (keyValue.length == 2) {
-                        cookieList.add(new Cookie(keyValue[0].trim(), keyValue[1].trim()));
-                    }
-                }
-                cookies = cookieList.toArray(new Cookie[0]);
-            } else if (line.startsWith("User-Agent:")) {
-                userAgent = line.split(":")[1].trim();
-            } else if (line.startsWith("Accept-Language:")) {
-                acceptLanguage = line.split(":")[1].trim();
-            }
+        int start = lineStarts[0];
+        int end = lineEnds[0];
+        int firstSpace = indexOf(buffer, start, end, (byte) ' ');
+        if (firstSpace < 0) throw new IllegalArgumentException("Malformed request line");
+        int secondSpace = indexOf(buffer, firstSpace + 1, end, (byte) ' ');
+        int targetEnd = secondSpace < 0 ? end : secondSpace;
+        int questionMark = indexOf(buffer, firstSpace + 1, targetEnd, (byte) '?');
+        this.method = decode(buffer, start, firstSpace);
+        this.target = decode(buffer, firstSpace + 1, targetEnd);
+        this.path = questionMark < 0 ? target : decode(buffer, firstSpace + 1, questionMark);
+        this.query = questionMark < 0 ? null : decode(buffer, questionMark + 1, targetEnd);
+        this.version = secondSpace < 0 ? "" : decode(buffer, secondSpace + 1, end).trim();
+
+        Map<String, String> fields = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (int line = 1; line < lineCount; line++) {
+            start = lineStarts[line];
+            end = lineEnds[line];
+            int colon = indexOf(buffer, start, end, (byte) ':');
+            if (colon <= start) continue;
+            String name = decode(buffer, start, colon).trim();
+            String value = value(buffer, colon, end);
+            fields.merge(name, value, (first, second) -> first + (name.equalsIgnoreCase("Cookie") ? "; " : ", ") + second);
+        }
+        this.fields = Collections.unmodifiableMap(fields);
+
+        String contentLength = fields.get("Content-Length");
+        try {
+            this.contentLength = contentLength != null ? Integer.parseInt(contentLength) : 0;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid Content-Length", e);
         }
-        this.cookies = cookies;
-        this.contentLength = contentLength;
-        this.userAgent = userAgent;
-        this.acceptLanguage = acceptLanguage;
+        if (this.contentLength < 0) throw new IllegalArgumentException("Invalid Content-Length: " + contentLength);
     }
 
+    private static int indexOf(byte[] buffer, int from, int to, byte b) {
+        for (int i = from; i < to; i++) {
+            if (buffer[i] == b) return i;
+        }
+        return -1;
+    }
     /**
-     * Returns the path of the POST request.
-     * This is the part of the request line that specifies the resource being requested.
-     * @return the path of the POST request
+     * Returns the trimmed value of a header field, everything after the first colon.
+     */
+    private static String value(byte[] buffer, int colon, int end) {
+        int start = colon + 1;
+        while (start < end && (buffer[start] == ' ' || buffer[start] == '\t')) start++;
+        while (end > start && (buffer[end - 1] == ' ' || buffer[end - 1] == '\t')) end--;
+        return decode(buffer, start, end);
+    }
+    private static String decode(byte[] buffer, int start, int end) {
+        return new String(buffer, start, end - start, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Returns the method of the request, e.g. "GET" or "POST".
+     * @return the request method
+     */
+    public String getMethod() {
+        return method;
+    }
+    /**
+     * Returns the request target as sent by the client, including the query string.
+     * @return the request target
+     */
+    public String getTarget() {
+        return target;
+    }
+    /**
+     * Returns the path of the request.
+     * This is the part of the request target that specifies the resource being requested, without the query string.
+     * @return the path of the request
      */
     public String getPath() {
         return path;
     }
     /**
-     * Returns the content length of the POST request.
+     * Returns the raw query string of the request.
+     * @return the query string without the leading '?', or null if the request has none
+     */
+    public String getQuery() {
+        return query;
+    }
+    /**
+     * Returns the query parameters of the request.
+     * They are parsed on the first call.
+     * @return an unmodifiable map of the decoded query parameters
+     */
+    public Map<String, String> getQueryParameters() {
+        Map<String, String> parameters = queryParameters;
+        if (parameters == null) {
+            parameters = parseQuery(query);
+            queryParameters = parameters;
+        }
+        return parameters;
+    }
+    private static Map<String, String> parseQuery(String query) {
+        if (query == null || query.isEmpty()) return Map.of();
+        Map<String, String> parameters = new HashMap<>();
+        for (String pair : query.split("&")) {
+            if (pair.isEmpty()) continue;
+            int equals = pair.indexOf('=');
+            String key = equals < 0 ? pair : pair.substring(0, equals);
+            String value = equals < 0 ? "" : pair.substring(equals + 1);
+            parameters.put(decodeQueryPart(key), decodeQueryPart(value));
+        }
+        return Collections.unmodifiableMap(parameters);
+    }
+    private static String decodeQueryPart(String part) {
+        try {
+            return URLDecoder.decode(part, StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            return part; // Malformed escape sequence, keep as sent
+        }
+    }
+    /**
+     * Returns the protocol version of the request, e.g. "HTTP/1.1".
+     * @return the protocol version, or an empty string if the request line contains none
+     */
+    public String getVersion() {
+        return version;
+    }
+    /**
+     * Returns the value of a header field.
+     * @param name the name of the field, case-insensitive
+     * @return the value, or null if the request does not contain the field
+     */
+    public String get(String name) {
+        return fields.get(name);
+    }
+    /**
+     * Returns all header fields.
+     * @return an unmodifiable, case-insensitive map of the header fields
+     */
+    public Map<String, String> getFields() {
+        return fields;
+    }
+    /**
+     * Returns the content length of the request.
      * This is used to determine the size of the request body.
-     * @return the content length of the POST request
+     * @return the content length of the request
      */
     public int getContentLength() {
         return contentLength;
     }
 
+    /**
+     * Returns the cookies sent with the request.
+     * They are parsed on the first call.
+     * @return the cookies
+     */
     public Cookie[] getCookies() {
-        return cookies;
+        Cookie[] cookies = this.cookies;
+        if (cookies == null) {
+            cookies = parseCookies(fields.get("Cookie"));
+            this.cookies = cookies;
+        }
+        return cookies.clone();
+    }
+    private static Cookie[] parseCookies(String cookieHeader) {
+        if (cookieHeader == null) return new Cookie[0];
+        List<Cookie> cookieList = new ArrayList<>();
+        for (String cookie : cookieHeader.split(";")) {
+            String[] keyValue = cookie.trim().split("=");
+            if (keyValue.length == 2) {
+                cookieList.add(new Cookie(keyValue[0].trim(), keyValue[1].trim()));
+            }
+        }
+        return cookieList.toArray(new Cookie[0]);
     }
 
     public String getUserAgent() {
-        return userAgent;
+        return fields.get("User-Agent");
     }
 
     public String getAcceptLanguage() {
-        return acceptLanguage;
+        return fields.get("Accept-Language");
+    }
+
+    public String getConnection() {
+        return fields.get("Connection");
+    }
+
+    public String getContentType() {
+        return fields.get("Content-Type");
+    }
+
+    /**
+     * Checks whether the client accepts the given content coding, according to the Accept-Encoding header.
+     * Codings with a quality of zero are refused, "*" stands for all codings that are not listed.
+     * @param coding the content coding, e.g. "gzip"
+     * @return true if the response body may be sent with this coding
+     */
+    public boolean acceptsEncoding(String coding) {
+        String accepted = fields.get("Accept-Encoding");
+        if (accepted == null) return false;
+        boolean wildcard = false;
+        for (String entry : accepted.split(",")) {
+            String[] parts = entry.split(";");
+            String name = parts[0].trim();
+            boolean refused = false;
+            for (int i = 1; i < parts.length; i++) {
+                String parameter = parts[i].trim();
+                if (parameter.startsWith("q=") || parameter.startsWith("Q=")) {
+                    try {
+                        refused = Double.parseDouble(parameter.substring(2)) <= 0;
+                    } catch (NumberFormatException e) {
+                        refused = true;
+                    }
+                }
+            }
+            if (name.equalsIgnoreCase(coding)) return !refused;
+            if (name.equals("*")) wildcard = !refused;
+        }
+        return wildcard;
     }
 }
@@ -0,0 +1,90 @@
+package de.igslandstuhl.database.server.webserver;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * A buffered input stream that reads HTTP request headers.
+ * Headers are scanned in a reusable buffer by a {@link HttpHeaderScanner}. Bytes read beyond the header
+ * stay in the buffer and are returned by the read methods, so the request body can be read from this stream.
+ */
+public class HttpHeaderReader extends InputStream {
+    private static final int INITIAL_BUFFER_SIZE = 8192;
+
+    private final InputStream in;
+    private final HttpHeaderScanner scanner = new HttpHeaderScanner();
+    private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+    private int position;
+    private int limit;
+
+    public HttpHeaderReader(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Reads the next request header.
+     * @return the header, or null if the stream ended before the next request
+     * @throws HeaderTooLargeException if the header exceeds the limits of {@link HttpHeaderScanner}
+     * @throws EOFException if the stream ended within a header
+     * @throws IOException if reading fails
+     */
+    public HttpHeader readHeader() throws IOException {
+        compact();
+        scanner.reset();
+        int headerEnd;
+        while ((headerEnd = scanner.feed(buffer, limit)) < 0) {
+            if (limit == buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.min(buffer.length * 2, HttpHeaderScanner.MAX_HEADER_SIZE));
+            }
+            int read = in.read(buffer, limit, buffer.length - limit);
+            if (read < 0) {
+                if (limit == 0) return null;
+                throw new EOFException("Stream ended within request header");
+            }
+            limit += read;
+        }
+        HttpHeader header = scanner.toHeader(buffer);
+        position = headerEnd;
+        return header;
+    }
+
+    /**
+     * Moves unread bytes to the start of the buffer, where the next header has to begin.
+     */
+    private void compact() {
+        if (position == 0) return;
+        System.arraycopy(buffer, position, buffer, 0, limit - position);
+        limit -= position;
+        position = 0;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (position < limit) return buffer[position++] & 0xFF;
+        return in.read();
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) return 0;
+        if (position < limit) {
+            int n = Math.min(len, limit - position);
+            System.arraycopy(buffer, position, b, off, n);
+            position += n;
+            return n;
+        }
+        return in.read(b, off, len);
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (limit - position) + in.available();
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,98 @@
+package de.igslandstuhl.database.server.webserver;
+
+/**
+ * Finds the end of an HTTP request header in a byte buffer and records where its lines start and end.
+ * The scanner is incremental: bytes can be fed as they arrive, and bytes already scanned are not looked at again.
+ * The header has to start at index 0 of the buffer. Lines may end with CRLF or a bare LF.
+ * All state is kept in a few ints and two reusable offset arrays, so scanning does not allocate.
+ */
+public class HttpHeaderScanner {
+    /**
+     * The maximum size of a request header in bytes, including the terminating empty line.
+     */
+    public static final int MAX_HEADER_SIZE = 64 * 1024;
+    /**
+     * The maximum number of lines of a request header, including the request line.
+     */
+    public static final int MAX_HEADER_LINES = 128;
+
+    private final int[] lineStarts = new int[MAX_HEADER_LINES];
+    private final int[] lineEnds = new int[MAX_HEADER_LINES];
+    private int lineCount;
+    private int lineStart;
+    private int scanned;
+    private int headerEnd = -1;
+
+    /**
+     * Scans the bytes of the buffer up to the given index.
+     * @param buffer the buffer holding the header, starting at index 0
+     * @param length the number of valid bytes in the buffer
+     * @return the index after the empty line ending the header, or -1 if the header is not complete yet
+     * @throws HeaderTooLargeException if the header exceeds {@link #MAX_HEADER_SIZE} or {@link #MAX_HEADER_LINES}
+     */
+    public int feed(byte[] buffer, int length) throws HeaderTooLargeException {
+        if (headerEnd >= 0) return headerEnd;
+        int limit = Math.min(length, MAX_HEADER_SIZE);
+        for (int i = scanned; i < limit; i++) {
+            if (buffer[i] != '\n') continue;
+            int lineEnd = i > lineStart && buffer[i - 1] == '\r' ? i - 1 : i;
+            if (lineEnd == lineStart) {
+                if (lineCount == 0) {
+                    // Tolerate empty lines before the request line
+                    lineStart = i + 1;
+                    continue;
+                }
+                scanned = i + 1;
+                headerEnd = i + 1;
+                return headerEnd;
+            }
+            addLine(lineStart, lineEnd);
+            lineStart = i + 1;
+        }
+        scanned = limit;
+        if (length >= MAX_HEADER_SIZE) throw new HeaderTooLargeException("Request header exceeds " + MAX_HEADER_SIZE + " bytes");
+        return -1;
+    }
+
+    /**
+     * Treats the end of the input as the end of the header, for headers given without the terminating empty line.
+     * @param buffer the buffer holding the header
+     * @param length the number of valid bytes in the buffer
+     * @throws HeaderTooLargeException if the header exceeds the limits
+     */
+    void finish(byte[] buffer, int length) throws HeaderTooLargeException {
+        if (feed(buffer, length) >= 0) return;
+        int lineEnd = length > lineStart && buffer[length - 1] == '\r' ? length - 1 : length;
+        if (lineEnd > lineStart) addLine(lineStart, lineEnd);
+        headerEnd = length;
+    }
+
+    private void addLine(int start, int end) throws HeaderTooLargeException {
+        if (lineCount == MAX_HEADER_LINES) throw new HeaderTooLargeException("Request header has more than " + MAX_HEADER_LINES + " lines");
+        lineStarts[lineCount] = start;
+        lineEnds[lineCount] = end;
+        lineCount++;
+    }
+
+    /**
+     * Parses the scanned header.
+     * @param buffer the buffer that was scanned
+     * @return the parsed header
+     * @throws IllegalStateException if the header is not complete yet
+     * @throws IllegalArgumentException if the request line or a known header field is malformed
+     */
+    public HttpHeader toHeader(byte[] buffer) {
+        if (headerEnd < 0) throw new IllegalStateException("Header is not complete");
+        return new HttpHeader(buffer, lineStarts, lineEnds, lineCount);
+    }
+
+    /**
+     * Prepares the scanner for the next header.
+     */
+    public void reset() {
+        lineCount = 0;
+        lineStart = 0;
+        scanned = 0;
+        headerEnd = -1;
+    }
+}
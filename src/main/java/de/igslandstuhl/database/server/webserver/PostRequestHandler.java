@@ -20,6 +20,7 @@ import com.google.gson.reflect.TypeToken;
 import de.igslandstuhl.database.Application;
 import de.igslandstuhl.database.Registry;
 import de.igslandstuhl.database.api.APIObject;
+import de.igslandstuhl.database.api.NormalizedJSON;
 import de.igslandstuhl.database.api.Room;
 import de.igslandstuhl.database.api.SchoolClass;
 import de.igslandstuhl.database.api.Student;
@@ -31,6 +32,7 @@ import de.igslandstuhl.database.api.Topic;
 import de.igslandstuhl.database.api.User;
 import de.igslandstuhl.database.api.results.GenerationResult;
 import de.igslandstuhl.database.server.Server;
+import de.igslandstuhl.database.server.webserver.RateLimiter.Budget;
 import de.igslandstuhl.database.server.webserver.requests.APIPostRequest;
 import de.igslandstuhl.database.server.webserver.requests.HttpHandler;
 import de.igslandstuhl.database.server.webserver.requests.PostRequest;
@@ -120,17 +122,17 @@ public class PostRequestHandler {
         if (student == null) return PostResponse.unauthorized(request);
         Task task = request.getTask();
         if (task == null) return PostResponse.notFound("Task not found", request);;
-        student.changeTaskStatus(task, newStatus);
+        Server.getInstance().getConnection().await(student.changeTaskStatus(task, newStatus));
         return PostResponse.ok("Task status changed successfully", ContentType.TEXT_PLAIN, request);
     }
     public static void registerTaskChangeHandler(String path, AccessLevel accessLevel, int taskStatus) {
-        HttpHandler.registerPostRequestHandler(path, accessLevel, (rq) -> {
+        HttpHandler.registerPostRequestHandler(path, accessLevel, Budget.WRITE, (rq) -> {
             Task task = Task.get(rq.getInt("taskId"));
             Student student = rq.getCurrentStudent();
             if (student == null) return PostResponse.unauthorized("Not logged in or invalid session", rq);
             if (task == null) return PostResponse.notFound("Task not found", rq);
             try {
-                student.changeTaskStatus(task, taskStatus);
+                Server.getInstance().getConnection().await(student.changeTaskStatus(task, taskStatus));
                 return PostResponse.ok("Task status changed successfully", ContentType.TEXT_PLAIN, rq);
             } catch (SQLException e) {
                 return PostResponse.internalServerError("Database error: " + e.getMessage(), rq);
@@ -164,7 +166,7 @@ public class PostRequestHandler {
         return successMessage;
     }
     public static void registerHandlers() {
-        HttpHandler.registerPostRequestHandler("/login", AccessLevel.PUBLIC, (rq) -> {
+        HttpHandler.registerPostRequestHandler("/login", AccessLevel.PUBLIC, Budget.LOGIN, (rq) -> {
             String username = prepare(rq.getString("username"), false);
             // Do not sanitize / url-decode password to allow special characters like %
             // This is safe as we calculate the hash value anyways
@@ -179,7 +181,7 @@ public class PostRequestHandler {
                 return PostResponse.unauthorized("Wrong credentials!", rq);
             }
         });
-        HttpHandler.registerPostRequestHandler("/add-students", AccessLevel.ADMIN, (rq) ->
+        HttpHandler.registerPostRequestHandler("/add-students", AccessLevel.ADMIN, Budget.WRITE, (rq) ->
             handleBatchInsertCSV(rq, "students", ContentType.CSV, t -> {
                 try {
                     return Student.generateStudentsFromCSV(t);
@@ -188,7 +190,7 @@ public class PostRequestHandler {
                 }
             }, PostRequestHandler::csvResult)
         );
-        HttpHandler.registerPostRequestHandler("/add-teachers", AccessLevel.ADMIN, (rq) ->
+        HttpHandler.registerPostRequestHandler("/add-teachers", AccessLevel.ADMIN, Budget.WRITE, (rq) ->
             handleBatchInsertCSV(rq, "teachers", ContentType.CSV, t -> {
                 try {
                     return Teacher.generateTeachersFromCSV(t);
@@ -197,7 +199,7 @@ public class PostRequestHandler {
                 }
             }, PostRequestHandler::csvResult)
         );
-        HttpHandler.registerPostRequestHandler("/add-rooms", AccessLevel.ADMIN, (rq) ->
+        HttpHandler.registerPostRequestHandler("/add-rooms", AccessLevel.ADMIN, Budget.WRITE, (rq) ->
             handleBatchInsertCSV(rq, "rooms", ContentType.JSON, t -> {
                 try {
                     return Room.generateRoomsFromCSV(t);
@@ -206,7 +208,7 @@ public class PostRequestHandler {
                 }
             }, Arrays::toString)
         );
-        HttpHandler.registerPostRequestHandler("/add-teacher", AccessLevel.ADMIN, (rq) -> {
+        HttpHandler.registerPostRequestHandler("/add-teacher", AccessLevel.ADMIN, Budget.WRITE, (rq) -> {
             String firstName = prepare(rq.getString("firstName"));
             String lastName = prepare(rq.getString("lastName"));
             String email = prepare(rq.getString("email"), false);
@@ -214,20 +216,20 @@ public class PostRequestHandler {
             Teacher teacher = Teacher.registerTeacher(firstName, lastName, email, password);
             return PostResponse.ok(teacher.toString().replace("}", "") + ", \"password\": " + password + "}", ContentType.JSON, rq);
         });
-        HttpHandler.registerPostRequestHandler("/add-subject", AccessLevel.ADMIN, (rq) -> {
+        HttpHandler.registerPostRequestHandler("/add-subject", AccessLevel.ADMIN, Budget.WRITE, (rq) -> {
             Subject.addSubject(rq.getString("name"));
             return PostResponse.redirect("/manage_subjects", rq);
         });
-        HttpHandler.registerPostRequestHandler("/add-class", AccessLevel.ADMIN, (rq) -> {
+        HttpHandler.registerPostRequestHandler("/add-class", AccessLevel.ADMIN, Budget.WRITE, (rq) -> {
             SchoolClass.addClass(rq.getString("className"), rq.getInt("grade"));
             return PostResponse.redirect("/manage_subjects", rq);
         });
-        HttpHandler.registerPostRequestHandler("/lpt-file", AccessLevel.ADMIN, (rq) -> {
+        HttpHandler.registerPostRequestHandler("/lpt-file", AccessLevel.ADMIN, Budget.WRITE, (rq) -> {
             String file = prepare(rq.getBodyAsString().replaceFirst("file=", "").replace("Â", ""));
             Application.getInstance().readFile(file);
             return PostResponse.ok("File data stored", ContentType.TEXT_PLAIN, rq);
         });
-        HttpHandler.registerPostRequestHandler("/subject-request", AccessLevel.USER, (rq) -> {
+        HttpHandler.registerPostRequestHandler("/subject-request", AccessLevel.USER, Budget.WRITE, (rq) -> {
             Student student = rq.getCurrentStudent();
             Subject subject = rq.getSubject();
             SubjectRequest subjectRequest = rq.getSubjectRequest();
@@ -243,7 +245,7 @@ public class PostRequestHandler {
                 return PostResponse.unauthorized(rq);
             }
         });
-        HttpHandler.registerPostRequestHandler("/current-topic", AccessLevel.USER, (rq) -> {
+        HttpHandler.registerPostRequestHandler("/current-topic", AccessLevel.USER, Budget.READ, (rq) -> {
             Student student = rq.getCurrentStudent();
             Subject subject = rq.getSubject();
             if (student == null) return PostResponse.unauthorized(rq);
@@ -251,7 +253,7 @@ public class PostRequestHandler {
             if (topic == null) return PostResponse.badRequest("No current topic for this subject.", rq);
             return PostResponse.ok(topic.toJSON(), ContentType.JSON, rq);
         });
-        HttpHandler.registerPostRequestHandler("/change-current-topic", AccessLevel.TEACHER, (rq) -> {
+        HttpHandler.registerPostRequestHandler("/change-current-topic", AccessLevel.TEACHER, Budget.WRITE, (rq) -> {
             Student student = rq.getCurrentStudent();
             if (student == null) return PostResponse.unauthorized(rq);
             Subject subject = rq.getSubject();
@@ -260,10 +262,12 @@ public class PostRequestHandler {
             student.setCurrentTopic(subject, topic);
             return PostResponse.ok("Current topic changed successfully", ContentType.TEXT_PLAIN, rq);
         });
-        HttpHandler.registerPostRequestHandler("/tasks", AccessLevel.USER, (rq) -> {
-            return PostResponse.ok(JSONUtils.toJSON(rq.getTaskList()), ContentType.JSON, rq);
+        HttpHandler.registerPostRequestHandler("/tasks", AccessLevel.USER, Budget.READ, (rq) -> {
+            List<Task> tasks = rq.getTaskList();
+            String json = rq.wantsNormalizedJSON() ? JSONUtils.toJSON(NormalizedJSON.ofList(tasks)) : JSONUtils.toJSON(tasks);
+            return PostResponse.ok(json, ContentType.JSON, rq);
         });
-        HttpHandler.registerPostRequestHandler("/update-room", AccessLevel.USER, (rq) -> {
+        HttpHandler.registerPostRequestHandler("/update-room", AccessLevel.USER, Budget.WRITE, (rq) -> {
             Student student = rq.getCurrentStudent();
             if (student == null) return PostResponse.unauthorized(rq);
             Room room = rq.getRoom();
@@ -271,22 +275,23 @@ public class PostRequestHandler {
             student.setCurrentRoom(room);
             return PostResponse.ok("Changed current room", ContentType.TEXT_PLAIN, rq);
         });
-        HttpHandler.registerPostRequestHandler("/begin-task", AccessLevel.USER, (rq) -> handleTaskChange(rq, Task.STATUS_IN_PROGRESS));
-        HttpHandler.registerPostRequestHandler("/complete-task", AccessLevel.USER, (rq) -> handleTaskChange(rq, Task.STATUS_COMPLETED));
-        HttpHandler.registerPostRequestHandler("/cancel-task", AccessLevel.USER, (rq) -> handleTaskChange(rq, Task.STATUS_NOT_STARTED));
-        HttpHandler.registerPostRequestHandler("/reopen-task", AccessLevel.USER, (rq) -> handleTaskChange(rq, Task.STATUS_NOT_STARTED));
-        HttpHandler.registerPostRequestHandler("/lock-task", AccessLevel.USER, (rq) -> handleTaskChange(rq, Task.STATUS_LOCKED));
-        HttpHandler.registerPostRequestHandler("/student-data", AccessLevel.TEACHER, PostRequestHandler::handleStudentGetData);
-        HttpHandler.registerPostRequestHandler("/rooms", AccessLevel.TEACHER, PostRequestHandler::handleStudentGetData);
-        HttpHandler.registerPostRequestHandler("/student-subjects", AccessLevel.TEACHER, PostRequestHandler::handleStudentGetData);
-        HttpHandler.registerPostRequestHandler("/teacher-classes", AccessLevel.ADMIN, PostRequestHandler::handleTeacherGetData);
-        HttpHandler.registerPostRequestHandler("/teacher-subjects", AccessLevel.ADMIN, PostRequestHandler::handleTeacherGetData);
-        HttpHandler.registerPostRequestHandler("/student-list", AccessLevel.TEACHER, (rq) -> {
+        HttpHandler.registerPostRequestHandler("/begin-task", AccessLevel.USER, Budget.WRITE, (rq) -> handleTaskChange(rq, Task.STATUS_IN_PROGRESS));
+        HttpHandler.registerPostRequestHandler("/complete-task", AccessLevel.USER, Budget.WRITE, (rq) -> handleTaskChange(rq, Task.STATUS_COMPLETED));
+        HttpHandler.registerPostRequestHandler("/cancel-task", AccessLevel.USER, Budget.WRITE, (rq) -> handleTaskChange(rq, Task.STATUS_NOT_STARTED));
+        HttpHandler.registerPostRequestHandler("/reopen-task", AccessLevel.USER, Budget.WRITE, (rq) -> handleTaskChange(rq, Task.STATUS_NOT_STARTED));
+        HttpHandler.registerPostRequestHandler("/lock-task", AccessLevel.USER, Budget.WRITE, (rq) -> handleTaskChange(rq, Task.STATUS_LOCKED));
+        HttpHandler.registerPostRequestHandler("/student-data", AccessLevel.TEACHER, Budget.READ, PostRequestHandler::handleStudentGetData);
+        HttpHandler.registerPostRequestHandler("/rooms", AccessLevel.TEACHER, Budget.READ, PostRequestHandler::handleStudentGetData);
+        HttpHandler.registerPostRequestHandler("/student-subjects", AccessLevel.TEACHER, Budget.READ, PostRequestHandler::handleStudentGetData);
+        HttpHandler.registerPostRequestHandler("/teacher-classes", AccessLevel.ADMIN, Budget.READ, PostRequestHandler::handleTeacherGetData);
+        HttpHandler.registerPostRequestHandler("/teacher-subjects", AccessLevel.ADMIN, Budget.READ, PostRequestHandler::handleTeacherGetData);
+        HttpHandler.registerPostRequestHandler("/student-list", AccessLevel.TEACHER, Budget.READ, (rq) -> {
             SchoolClass schoolClass = rq.getSchoolClass();
             if (schoolClass == null) return PostResponse.notFound("School class not found", rq);
             if (rq.getUser().isTeacher() && !rq.getUser().asTeacher().getClassIds().contains(schoolClass.getId()))
                 return PostResponse.forbidden("You are not allowed to access this class's student list.", rq);
             List<Student> students = schoolClass.getStudents();
+            Subject subject = rq.getJson().containsKey("subjectId") ? rq.getSubject() : null;
             return PostResponse.ok(
                 JSONUtils.toJSON(students, (student, builder) -> {
                     builder
@@ -295,8 +300,8 @@ public class PostRequestHandler {
                     .addProperty("actionRequired", student.isActionRequired())
                     .addProperty("graduationLevel", student.getGraduationLevel())
                     .addProperty("room", student.getCurrentRoom() != null ? student.getCurrentRoom().getLabel() : "None");
-                    if (rq.getJson().containsKey("subjectId") && rq.getSubject() != null) {
-                        Set<SubjectRequest> subjectRequests = student.getCurrentRequests(rq.getSubject());
+                    if (subject != null) {
+                        Set<SubjectRequest> subjectRequests = student.getCurrentRequests(subject);
                         builder.addProperty("experiment",subjectRequests.stream().anyMatch(r -> r == SubjectRequest.EXPERIMENT))
                         .addProperty("help", subjectRequests.stream().anyMatch(r -> r == SubjectRequest.HELP))
                         .addProperty("test", subjectRequests.stream().anyMatch(r -> r == SubjectRequest.EXAM))
@@ -306,9 +311,10 @@ public class PostRequestHandler {
                 ContentType.JSON, rq
             );
         });
-        HttpHandler.registerPostRequestHandler("/get-students-by-room", AccessLevel.TEACHER, (rq) -> {
+        HttpHandler.registerPostRequestHandler("/get-students-by-room", AccessLevel.TEACHER, Budget.READ, (rq) -> {
             Room room = rq.getRoom();
             List<Student> students = Student.getByRoom(room);
+            Subject subject = rq.getJson().containsKey("subjectId") ? rq.getSubject() : null;
             return PostResponse.ok(
                 JSONUtils.toJSON(students, (student, builder) -> {
                     builder
@@ -317,8 +323,8 @@ public class PostRequestHandler {
                     .addProperty("actionRequired", student.isActionRequired())
                     .addProperty("graduationLevel", student.getGraduationLevel())
                     .addProperty("room", student.getCurrentRoom() != null ? student.getCurrentRoom().getLabel() : "None");
-                    if (rq.getJson().containsKey("subjectId") && rq.getSubject() != null) {
-                        Set<SubjectRequest> subjectRequests = student.getCurrentRequests(rq.getSubject());
+                    if (subject != null) {
+                        Set<SubjectRequest> subjectRequests = student.getCurrentRequests(subject);
                         builder.addProperty("experiment",subjectRequests.stream().anyMatch(r -> r == SubjectRequest.EXPERIMENT))
                         .addProperty("help", subjectRequests.stream().anyMatch(r -> r == SubjectRequest.HELP))
                         .addProperty("test", subjectRequests.stream().anyMatch(r -> r == SubjectRequest.EXAM))
@@ -328,13 +334,13 @@ public class PostRequestHandler {
                 ContentType.JSON, rq
             );
         });
-        HttpHandler.registerPostRequestHandler("/grade-list", AccessLevel.PUBLIC, (rq) -> {
+        HttpHandler.registerPostRequestHandler("/grade-list", AccessLevel.PUBLIC, Budget.READ, (rq) -> {
             return PostResponse.ok(JSONUtils.toJSON(rq.getSubject().getGrades()), ContentType.JSON, rq);
         });
-        HttpHandler.registerPostRequestHandler("/topic-list", AccessLevel.STUDENT, (rq) -> {
+        HttpHandler.registerPostRequestHandler("/topic-list", AccessLevel.STUDENT, Budget.READ, (rq) -> {
             return PostResponse.ok(JSONUtils.toJSON(rq.getSubject().getTopics(rq.getInt("grade"))), ContentType.JSON, rq);
         });
-        HttpHandler.registerPostRequestHandler("/class-subjects", AccessLevel.ADMIN, (rq) -> {
+        HttpHandler.registerPostRequestHandler("/class-subjects", AccessLevel.ADMIN, Budget.READ, (rq) -> {
             SchoolClass schoolClass = rq.getSchoolClass();
             if (schoolClass == null) return PostResponse.notFound("School class not found", rq);
             List<Subject> subjects = schoolClass.getSubjects();
@@ -342,7 +348,7 @@ public class PostRequestHandler {
                 builder.addProperty("id", subject.getId()).addProperty("name", subject.getName());
             }), ContentType.JSON, rq);
         });
-        HttpHandler.registerPostRequestHandler("/search-partner", AccessLevel.USER, (rq) -> {
+        HttpHandler.registerPostRequestHandler("/search-partner", AccessLevel.USER, Budget.READ, (rq) -> {
             SchoolClass schoolClass = rq.getSchoolClass();
             Subject subject = rq.getSubject();
             Topic topic = rq.getTopic();
@@ -360,28 +366,28 @@ public class PostRequestHandler {
                 .addProperty("room", partner.getCurrentRoom() != null ? partner.getCurrentRoom().getLabel() : "None");
             }), ContentType.JSON, rq);
         });
-        HttpHandler.registerPostRequestHandler("/delete-subject", AccessLevel.ADMIN, (rq) -> 
+        HttpHandler.registerPostRequestHandler("/delete-subject", AccessLevel.ADMIN, Budget.WRITE, (rq) -> 
             handleObjectAction(rq, new TypeToken<Subject>() {}, PostResponse.redirect("/manage_subjects", rq), (subject) -> subject.delete())            
         );
-        HttpHandler.registerPostRequestHandler("/edit-subject", AccessLevel.ADMIN, (rq) -> 
+        HttpHandler.registerPostRequestHandler("/edit-subject", AccessLevel.ADMIN, Budget.WRITE, (rq) -> 
             handleObjectAction(rq, new TypeToken<Subject>() {}, PostResponse.redirect("/manage_subjects", rq), (subject) -> subject.edit(prepare(rq.getString("name"))))
         );
-        HttpHandler.registerPostRequestHandler("/delete-classs", AccessLevel.ADMIN, (rq) -> 
+        HttpHandler.registerPostRequestHandler("/delete-classs", AccessLevel.ADMIN, Budget.WRITE, (rq) -> 
             handleObjectAction(rq, new TypeToken<SchoolClass>() {}, PostResponse.redirect("/manage_classes", rq), (schoolClass) -> schoolClass.delete())            
         );
-        HttpHandler.registerPostRequestHandler("/edit-class", AccessLevel.ADMIN, (rq) -> 
+        HttpHandler.registerPostRequestHandler("/edit-class", AccessLevel.ADMIN, Budget.WRITE, (rq) -> 
             handleObjectAction(rq, new TypeToken<SchoolClass>() {}, PostResponse.redirect("/manage_classes", rq), (schoolClass) -> schoolClass.edit(prepare(rq.getString("name")), rq.getInt("grade")))
         );
-        HttpHandler.registerPostRequestHandler("/add-subject-to-class", AccessLevel.ADMIN, (rq) -> 
+        HttpHandler.registerPostRequestHandler("/add-subject-to-class", AccessLevel.ADMIN, Budget.WRITE, (rq) -> 
             handleObjectAction(rq, new TypeToken<SchoolClass>() {}, PostResponse.redirect("/class", rq), (schoolClass) -> schoolClass.addSubject(rq.getSubject()))
         );
-        HttpHandler.registerPostRequestHandler("/add-grade-to-subject", AccessLevel.ADMIN, (rq) -> 
+        HttpHandler.registerPostRequestHandler("/add-grade-to-subject", AccessLevel.ADMIN, Budget.WRITE, (rq) -> 
             handleObjectAction(rq, new TypeToken<Subject>() {}, PostResponse.redirect("/subject", rq), (subject) -> subject.addToGrade(rq.getInt("grade")))
         );
-        HttpHandler.registerPostRequestHandler("/delete-grade-from-subject", AccessLevel.ADMIN, (rq) -> 
+        HttpHandler.registerPostRequestHandler("/delete-grade-from-subject", AccessLevel.ADMIN, Budget.WRITE, (rq) -> 
             handleObjectAction(rq, new TypeToken<Subject>() {}, PostResponse.redirect("/subject", rq), (subject) -> subject.removeFromGrade(rq.getInt("grade")))
         );
-        HttpHandler.registerPostRequestHandler("/delete-topics", AccessLevel.ADMIN, (rq) -> 
+        HttpHandler.registerPostRequestHandler("/delete-topics", AccessLevel.ADMIN, Budget.WRITE, (rq) -> 
             handleObjectAction(rq, new TypeToken<Subject>() {}, PostResponse.redirect("/subject", rq), (subject) -> subject.getTopics(rq.getInt("grade")).forEach((topic) -> {
                 try {
                     topic.delete();
@@ -390,13 +396,13 @@ public class PostRequestHandler {
                 }
             }))
         );
-        HttpHandler.registerPostRequestHandler("/add-class-to-teacher", AccessLevel.ADMIN, (rq) -> 
+        HttpHandler.registerPostRequestHandler("/add-class-to-teacher", AccessLevel.ADMIN, Budget.WRITE, (rq) -> 
             handleObjectAction(rq, new TypeToken<Teacher>() {}, PostResponse.redirect("/teacher", rq), (teacher) -> teacher.addClass(rq.getSchoolClass()))
         );
-        HttpHandler.registerPostRequestHandler("/add-subject-to-teacher", AccessLevel.ADMIN, (rq) -> 
+        HttpHandler.registerPostRequestHandler("/add-subject-to-teacher", AccessLevel.ADMIN, Budget.WRITE, (rq) -> 
             handleObjectAction(rq, new TypeToken<Teacher>() {}, PostResponse.redirect("/teacher", rq), (teacher) -> teacher.addSubject(rq.getSubject()))
         );
-        HttpHandler.registerPostRequestHandler("/change-graduation-level", AccessLevel.ADMIN, (rq) -> 
+        HttpHandler.registerPostRequestHandler("/change-graduation-level", AccessLevel.ADMIN, Budget.WRITE, (rq) -> 
             handleObjectAction(rq, new TypeToken<Student>() {}, PostResponse.ok("Successfully changed graduation level", ContentType.TEXT_PLAIN, rq), (student) -> student.changeGraduationLevel(rq.getInt("graduationLevel")))
         );
     }
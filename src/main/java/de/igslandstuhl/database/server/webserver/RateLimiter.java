@@ -0,0 +1,192 @@
+package de.igslandstuhl.database.server.webserver;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import de.igslandstuhl.database.Registry;
+import de.igslandstuhl.database.server.webserver.requests.APIPostRequest;
+import de.igslandstuhl.database.server.webserver.requests.HttpHandler;
+import de.igslandstuhl.database.server.webserver.requests.HttpRequest;
+
+/**
+ * Limits the request rate with token buckets.
+ * Requests with a session use the buckets of their session, requests without one share the buckets of their IP address.
+ * Login attempts always use the buckets of the IP address as well, so guessing passwords with new sessions does not help.
+ * Every request costs one token of the budget it belongs to, see {@link Budget}. Buckets refill continuously, there is no
+ * moment at which all counters are reset.
+ */
+public class RateLimiter {
+    /**
+     * The kinds of requests that have separate budgets.
+     * POST handlers declare their budget when they are registered, see {@link HttpHandler#registerPostRequestHandler}.
+     */
+    public enum Budget {
+        READ, WRITE, LOGIN;
+
+        /**
+         * Returns the budget a request is charged to.
+         * @param request the request
+         * @return the budget
+         */
+        public static Budget of(HttpRequest request) {
+            if (!"POST".equals(request.getHeader().getMethod())) return READ;
+            HttpHandler<APIPostRequest> handler = Registry.postRequestHandlerRegistry().get(request.getPath());
+            return handler != null ? handler.getBudget() : READ;
+        }
+    }
+
+    /**
+     * The size and refill rate of a bucket.
+     * @param capacity the number of requests that may be made at once
+     * @param perMinute the number of tokens added per minute
+     */
+    public record Limit(long capacity, long perMinute) {
+        public Limit {
+            if (capacity <= 0 || perMinute <= 0) throw new IllegalArgumentException("capacity and perMinute must be positive");
+        }
+        private long interval() {
+            return Math.max(1, TimeUnit.MINUTES.toNanos(1) / perMinute);
+        }
+    }
+
+    /**
+     * A token bucket that is updated without locks.
+     * Instead of the number of tokens, it stores the time at which the bucket is full again, a single value that is changed with compare-and-set.
+     * Taking a token moves this time one interval into the future. The bucket is empty if the time is more than capacity intervals ahead.
+     */
+    public static final class TokenBucket {
+        private final long interval;
+        private final long burst;
+        private final AtomicLong fullAt;
+
+        TokenBucket(Limit limit, long now) {
+            this.interval = limit.interval();
+            this.burst = limit.capacity() > Long.MAX_VALUE / 4 / interval ? Long.MAX_VALUE / 4 : limit.capacity() * interval;
+            this.fullAt = new AtomicLong(now);
+        }
+
+        /**
+         * Takes a token if there is one.
+         * @param now the current time of {@link System#nanoTime()}
+         * @return 0 if a token was taken, otherwise the nanoseconds until the next token is available
+         */
+        public long tryAcquire(long now) {
+            while (true) {
+                long current = fullAt.get();
+                // nanoTime values are only compared by their difference, they may overflow
+                long next = (current - now > 0 ? current : now) + interval;
+                long wait = next - now - burst;
+                if (wait > 0) return wait;
+                if (fullAt.compareAndSet(current, next)) return 0;
+            }
+        }
+
+        boolean isFull(long now) {
+            return fullAt.get() - now <= 0;
+        }
+    }
+
+    private final Map<Budget, Limit> sessionLimits;
+    private final Map<Budget, Limit> ipLimits;
+    private final Map<String, TokenBucket[]> ipBuckets = new ConcurrentHashMap<>();
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * Creates a rate limiter.
+     * @param sessionLimits the limits of the buckets of a session, one for every budget
+     * @param ipLimits the limits of the buckets of an IP address, one for every budget
+     */
+    public RateLimiter(Map<Budget, Limit> sessionLimits, Map<Budget, Limit> ipLimits) {
+        for (Budget budget : Budget.values()) {
+            if (!sessionLimits.containsKey(budget) || !ipLimits.containsKey(budget)) throw new IllegalArgumentException("No limit for " + budget);
+        }
+        this.sessionLimits = new EnumMap<>(sessionLimits);
+        this.ipLimits = new EnumMap<>(ipLimits);
+    }
+    /**
+     * Creates a rate limiter with the default budgets, derived from the number of requests a session may read per minute.
+     * A session may write half as often and try five logins per minute. Requests without session share the budget of
+     * their IP address, which is five times as large, because many clients of a school share one address.
+     * @param requestsPerMinute the number of read requests a session may make per minute
+     * @return the rate limiter
+     */
+    public static RateLimiter perMinute(int requestsPerMinute) {
+        long read = Math.max(1, requestsPerMinute);
+        long write = Math.max(1, read / 2);
+        Map<Budget, Limit> session = new EnumMap<>(Budget.class);
+        session.put(Budget.READ, new Limit(read, read));
+        session.put(Budget.WRITE, new Limit(write, write));
+        session.put(Budget.LOGIN, new Limit(5, 5));
+        Map<Budget, Limit> ip = new EnumMap<>(Budget.class);
+        ip.put(Budget.READ, new Limit(saturatedTimes(read, 5), saturatedTimes(read, 5)));
+        ip.put(Budget.WRITE, new Limit(saturatedTimes(write, 5), saturatedTimes(write, 5)));
+        ip.put(Budget.LOGIN, new Limit(20, 10));
+        return new RateLimiter(session, ip);
+    }
+    private static long saturatedTimes(long value, long factor) {
+        return value > Long.MAX_VALUE / factor ? Long.MAX_VALUE : value * factor;
+    }
+
+    /**
+     * Creates the buckets of a new session.
+     * @return one bucket per budget, indexed by {@link Budget#ordinal()}
+     */
+    public TokenBucket[] newSessionBuckets() {
+        return newBuckets(sessionLimits);
+    }
+    private static TokenBucket[] newBuckets(Map<Budget, Limit> limits) {
+        long now = System.nanoTime();
+        TokenBucket[] buckets = new TokenBucket[Budget.values().length];
+        for (Budget budget : Budget.values()) {
+            buckets[budget.ordinal()] = new TokenBucket(limits.get(budget), now);
+        }
+        return buckets;
+    }
+
+    /**
+     * Charges a request to its buckets.
+     * @param request the request
+     * @param sessionBuckets the buckets of the session of the request, or null if it has no session
+     * @return 0 if the request may be handled, otherwise the nanoseconds until it may be retried
+     */
+    public long tryAcquire(HttpRequest request, TokenBucket[] sessionBuckets) {
+        Budget budget = Budget.of(request);
+        long now = System.nanoTime();
+        long wait = 0;
+        if (sessionBuckets != null) {
+            wait = sessionBuckets[budget.ordinal()].tryAcquire(now);
+        }
+        if (wait == 0 && (sessionBuckets == null || budget == Budget.LOGIN)) {
+            String ip = request.getIP();
+            TokenBucket[] buckets = ipBuckets.computeIfAbsent(ip == null ? "" : ip, (key) -> newBuckets(ipLimits));
+            wait = buckets[budget.ordinal()].tryAcquire(now);
+        }
+        if (wait > 0) rejected.increment();
+        return wait;
+    }
+
+    /**
+     * Removes the buckets of IP addresses that are full again, they are created anew with the next request.
+     */
+    public void prune() {
+        long now = System.nanoTime();
+        ipBuckets.values().removeIf((buckets) -> {
+            for (TokenBucket bucket : buckets) {
+                if (!bucket.isFull(now)) return false;
+            }
+            return true;
+        });
+    }
+
+    /**
+     * Returns the number of rejected requests.
+     * @return the number of requests that exceeded their budget
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+}
@@ -0,0 +1,74 @@
+package de.igslandstuhl.database.server.webserver;
+
+import de.igslandstuhl.database.api.User;
+import de.igslandstuhl.database.server.webserver.requests.HttpRequest;
+
+/**
+ * What is known about a request besides its content: its session, the logged in user and when it arrived.
+ * The session is looked up once when the context is created, the user on first use, so handlers and responses
+ * can ask for them as often as they like. A context belongs to one request and is not shared between threads.
+ * @see HttpRequest#getRequestContext()
+ */
+public final class RequestContext {
+    private final HttpRequest request;
+    private final SessionManager sessionManager;
+    private final Session session;
+    private final long startNanos = System.nanoTime();
+    private User user;
+
+    RequestContext(HttpRequest request, SessionManager sessionManager, Session session) {
+        this.request = request;
+        this.sessionManager = sessionManager;
+        this.session = session;
+    }
+
+    public HttpRequest getRequest() {
+        return request;
+    }
+    /**
+     * Returns the session of the request.
+     * @return the session, or null if the request has none
+     */
+    public Session getSession() {
+        return session;
+    }
+    /**
+     * Returns the user logged in with the session of the request.
+     * @return the user, or {@link User#ANONYMOUS} if the request has no session or the session has no user
+     */
+    public User getUser() {
+        if (user == null) {
+            user = session != null ? sessionManager.getSessionUser(session) : User.ANONYMOUS;
+        }
+        return user;
+    }
+    /**
+     * Checks if the user of the request has the given access level.
+     * @param accessLevel the access level
+     * @return true if the user has access
+     */
+    public boolean hasAccess(AccessLevel accessLevel) {
+        return accessLevel.hasAccess(getUser());
+    }
+    /**
+     * Returns the cookie of the session, to refresh it with the response.
+     * @return the session cookie, or null if the request has no session
+     */
+    public Cookie getSessionCookie() {
+        return session != null ? session.createSessionCookie() : null;
+    }
+    /**
+     * Returns when the request arrived.
+     * @return the time of {@link System#nanoTime()} at which the context was created
+     */
+    public long getStartNanos() {
+        return startNanos;
+    }
+    /**
+     * Returns how long the request has been handled so far.
+     * @return the nanoseconds since the context was created
+     */
+    public long getElapsedNanos() {
+        return System.nanoTime() - startNanos;
+    }
+}
@@ -0,0 +1,276 @@
+package de.igslandstuhl.database.server.webserver;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.zip.GZIPOutputStream;
+
+import de.igslandstuhl.database.server.webserver.requests.HttpRequest;
+import de.igslandstuhl.database.server.webserver.responses.HttpResponse;
+
+/**
+ * Frames a response written by {@link HttpResponse#respond(java.io.PrintStream)} for a persistent connection.
+ * The writer reads the status line and the header fields written by the response, normalizes their line endings
+ * and replaces the framing fields (Content-Length, Transfer-Encoding, Connection) with its own.
+ * Bodies up to {@link #BUFFER_SIZE} bytes are buffered and sent with an exact Content-Length,
+ * larger bodies are streamed with chunked transfer encoding as soon as the buffer overflows.
+ * Compressible bodies are gzipped if the client accepts it, see {@link Compression}.
+ */
+public class ResponseWriter extends OutputStream {
+    /**
+     * Bodies up to this size are sent with a Content-Length, larger ones are chunked.
+     */
+    public static final int BUFFER_SIZE = 64 * 1024;
+    /**
+     * The header written by a response may not exceed this size.
+     */
+    private static final int MAX_HEADER_SIZE = 64 * 1024;
+
+    private enum State { HEADER, BUFFERING, STREAMING, FINISHED }
+
+    private final OutputStream out;
+    private final String keepAliveParameters;
+    private final boolean acceptsGzip;
+    private final boolean chunkingAllowed;
+    private final boolean compressible;
+    private boolean keepAlive;
+
+    private State state = State.HEADER;
+    private final ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+    private final StringBuilder header = new StringBuilder(256);
+    private int headerSize;
+    private int statusCode;
+    private boolean encoded;
+    private boolean vary;
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream(1024);
+    private OutputStream bodyOut;
+    private ChunkedOutputStream chunks;
+
+    /**
+     * Creates a writer for the given response.
+     * @param out the stream of the connection
+     * @param response the response that is written, its request decides about the content coding and chunking
+     * @param keepAlive whether the connection should stay open after this response
+     * @param keepAliveParameters the value of the Keep-Alive header sent with persistent connections, may be null
+     */
+    public ResponseWriter(OutputStream out, HttpResponse response, boolean keepAlive, String keepAliveParameters) {
+        this.out = out;
+        this.keepAlive = keepAlive;
+        this.keepAliveParameters = keepAliveParameters;
+        HttpRequest request = response.getHttpRequest();
+        this.acceptsGzip = request != null && request.getHeader().acceptsEncoding("gzip");
+        // Chunked transfer encoding was introduced with HTTP/1.1
+        this.chunkingAllowed = request == null || !"HTTP/1.0".equals(request.getHeader().getVersion());
+        this.compressible = Compression.isCompressible(response.getContentType());
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0 && state == State.HEADER) {
+            byte c = b[off++];
+            len--;
+            if (c == '\n') {
+                headerLine();
+            } else {
+                line.write(c);
+                if (++headerSize > MAX_HEADER_SIZE) throw new IOException("Response header too large");
+            }
+        }
+        if (len == 0) return;
+        switch (state) {
+            case BUFFERING:
+                if (body.size() + len <= BUFFER_SIZE) {
+                    body.write(b, off, len);
+                    return;
+                }
+                // The body does not fit into the buffer, send what is buffered and the rest directly
+                startStreaming();
+                bodyOut.write(b, off, len);
+                return;
+            case STREAMING:
+                bodyOut.write(b, off, len);
+                return;
+            default:
+                throw new IOException("Response already finished");
+        }
+    }
+
+    private void headerLine() {
+        byte[] bytes = line.toByteArray();
+        line.reset();
+        int length = bytes.length > 0 && bytes[bytes.length - 1] == '\r' ? bytes.length - 1 : bytes.length;
+        String text = new String(bytes, 0, length, StandardCharsets.UTF_8);
+        if (statusCode == 0 && header.length() == 0) {
+            if (text.isEmpty()) return; // Leading empty line
+            statusCode = parseStatusCode(text);
+            header.append(text).append("\r\n");
+            return;
+        }
+        if (text.isEmpty()) {
+            state = State.BUFFERING;
+            return;
+        }
+        String lower = text.toLowerCase(Locale.ROOT);
+        if (lower.startsWith("content-length:") || lower.startsWith("transfer-encoding:")
+                || lower.startsWith("connection:") || lower.startsWith("keep-alive:")) {
+            return;
+        }
+        encoded |= lower.startsWith("content-encoding:");
+        vary |= lower.startsWith("vary:");
+        header.append(text).append("\r\n");
+    }
+
+    private static int parseStatusCode(String statusLine) {
+        // Example: "HTTP/1.1 200 OK"
+        String[] parts = statusLine.split(" ", 3);
+        try {
+            return parts.length > 1 ? Integer.parseInt(parts[1]) : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Checks whether the response may have a body at all, 1xx, 204 and 304 responses never have one.
+     */
+    private boolean hasBody() {
+        return (statusCode < 100 || statusCode >= 200) && statusCode != 204 && statusCode != 304;
+    }
+
+    private boolean gzip() {
+        return acceptsGzip && compressible && !encoded && hasBody();
+    }
+
+    private void startStreaming() throws IOException {
+        state = State.STREAMING;
+        boolean gzip = gzip();
+        if (chunkingAllowed) {
+            appendVary();
+            if (gzip) header.append("Content-Encoding: gzip\r\n");
+            header.append("Transfer-Encoding: chunked\r\n");
+            chunks = new ChunkedOutputStream(out);
+            bodyOut = new BufferedOutputStream(chunks, 8192);
+        } else {
+            // HTTP/1.0 clients only understand bodies delimited by closing the connection
+            keepAlive = false;
+            gzip = false;
+            bodyOut = new BufferedOutputStream(new UnclosableOutputStream(out), 8192);
+        }
+        if (gzip) bodyOut = new GZIPOutputStream(bodyOut, 8192);
+        writeHeader();
+        body.writeTo(bodyOut);
+        body.reset();
+    }
+
+    private void appendVary() {
+        if (compressible && !encoded && !vary) header.append("Vary: Accept-Encoding\r\n");
+    }
+
+    private void writeHeader() throws IOException {
+        header.append("Connection: ").append(keepAlive ? "keep-alive" : "close").append("\r\n");
+        if (keepAlive && keepAliveParameters != null) {
+            header.append("Keep-Alive: ").append(keepAliveParameters).append("\r\n");
+        }
+        header.append("\r\n");
+        out.write(header.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Completes the response.
+     * Buffered bodies are sent with their Content-Length, streamed ones are terminated with the last chunk.
+     * The stream of the connection is flushed but not closed.
+     * @throws IOException if writing to the connection fails
+     */
+    public void finish() throws IOException {
+        switch (state) {
+            case HEADER:
+                // The response never finished its header, the message can only be delimited by closing the connection
+                keepAlive = false;
+                out.write(header.toString().getBytes(StandardCharsets.UTF_8));
+                line.writeTo(out);
+                break;
+            case BUFFERING:
+                byte[] bytes = body.toByteArray();
+                if (hasBody()) {
+                    appendVary();
+                    if (gzip() && bytes.length >= Compression.MIN_SIZE) {
+                        bytes = Compression.gzip(bytes, 0, bytes.length);
+                        header.append("Content-Encoding: gzip\r\n");
+                    }
+                    header.append("Content-Length: ").append(bytes.length).append("\r\n");
+                } else {
+                    bytes = new byte[0];
+                }
+                writeHeader();
+                out.write(bytes);
+                break;
+            case STREAMING:
+                bodyOut.close(); // Finishes the gzip trailer and flushes the buffer, the connection stays open
+                if (chunks != null) chunks.finish();
+                break;
+            default:
+                break;
+        }
+        state = State.FINISHED;
+        out.flush();
+    }
+
+    /**
+     * Returns whether the connection may be reused after this response.
+     * This is false if the body could only be delimited by closing the connection.
+     * @return true if the connection stays open
+     */
+    public boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+    /**
+     * Writes each block of data as one chunk.
+     */
+    private static class ChunkedOutputStream extends UnclosableOutputStream {
+        ChunkedOutputStream(OutputStream out) {
+            super(out);
+        }
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return; // An empty chunk would end the body
+            out.write((Integer.toHexString(len) + "\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.write(b, off, len);
+            out.write('\r');
+            out.write('\n');
+        }
+        void finish() throws IOException {
+            out.write("0\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+        }
+    }
+
+    /**
+     * Keeps the connection open when the streams written on top of it are closed.
+     */
+    private static class UnclosableOutputStream extends FilterOutputStream {
+        UnclosableOutputStream(OutputStream out) {
+            super(out);
+        }
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
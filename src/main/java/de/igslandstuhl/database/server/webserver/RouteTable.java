@@ -0,0 +1,226 @@
+package de.igslandstuhl.database.server.webserver;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import de.igslandstuhl.database.api.User;
+import de.igslandstuhl.database.server.resources.ResourceLocation;
+
+/**
+ * Maps the request paths of the known pages, scripts and SQL resources to their resource locations.
+ * The table is built once. Looking up a path is a single hash lookup and returns a prebuilt {@link ResourceLocation},
+ * so resolving a request does not allocate.
+ * Paths that are not in the table are resolved by the general rules of {@link WebResourceHandler}.
+ */
+public final class RouteTable {
+    /**
+     * The resources generated from the database, see {@link de.igslandstuhl.database.server.resources.ResourceHelper#readVirtualResource(String, ResourceLocation)}.
+     */
+    static final Set<String> SQL_WEB_RESOURCES = Set.of("mydata", "rooms", "mysubjects", "myclasses", "teachers", "students", "subjects", "classes");
+    /**
+     * Pages and scripts of the user namespace, requested without a namespace.
+     */
+    static final Set<String> USER_ONLY_SPACE = Set.of("dashboard", "build_dashboard.js", "results", "build_results.js", "partner_search", "build_partner_search.js");
+    /**
+     * Pages and scripts of the teacher namespace, requested without a namespace.
+     */
+    static final Set<String> TEACHER_ONLY_SPACE = Set.of("dashboard", "build_dashboard.js", "student", "build_student.js", "student-results", "build_results.js");
+    /**
+     * Pages and scripts of the admin namespace, requested without a namespace.
+     */
+    static final Set<String> ADMIN_ONLY_SPACE = Set.of("dashboard", "build_dashboard.js", "manage_students", "manage_teachers", "manage_classes", "manage_subjects", "manage_rooms", "student", "student-results", "teacher", "build_teacher.js", "room", "build_room.js", "subject", "build_subject.js", "class", "build_class.js", "teacher-classes", "teacher-subjects", "teacher-students", "teacher-results", "teacher-dashboard", "build_teacher_dashboard.js");
+
+    /**
+     * Groups the users that see the same resource for a path.
+     * Several namespaces use the same names, e.g. every role has its own dashboard.
+     */
+    public enum Audience {
+        /**
+         * Admins, and users without login: they get the most restricted resource and are asked to log in by the access check.
+         */
+        ADMIN,
+        /**
+         * Teachers that are no admins.
+         */
+        TEACHER,
+        /**
+         * All other users, i.e. students.
+         */
+        STUDENT;
+
+        /**
+         * Returns the audience of the given user.
+         * @param user the user, null is treated as anonymous
+         * @return the audience
+         */
+        public static Audience of(User user) {
+            if (user == null || user == User.ANONYMOUS || user.isAdmin()) {
+                return ADMIN;
+            } else if (user.isTeacher()) {
+                return TEACHER;
+            } else {
+                return STUDENT;
+            }
+        }
+    }
+
+    /**
+     * One entry of the table.
+     * @param path the request path
+     * @param admin the resource for admins and anonymous users
+     * @param teacher the resource for teachers
+     * @param student the resource for students
+     */
+    public record Route(String path, ResourceLocation admin, ResourceLocation teacher, ResourceLocation student) {
+        /**
+         * Returns the resource for the given audience.
+         * @param audience the audience
+         * @return the resource location
+         */
+        public ResourceLocation location(Audience audience) {
+            switch (audience) {
+                case ADMIN: return admin;
+                case TEACHER: return teacher;
+                default: return student;
+            }
+        }
+
+        @Override
+        public String toString() {
+            if (admin.equals(teacher) && admin.equals(student)) {
+                return path + " -> " + describe(admin);
+            }
+            return path + " -> admin: " + describe(admin) + ", teacher: " + describe(teacher) + ", student: " + describe(student);
+        }
+
+        private static String describe(ResourceLocation location) {
+            return location.context() + ":" + location.namespace() + ":" + location.resource() + " (" + AccessManager.policyOf(location) + ")";
+        }
+    }
+
+    private static final class Holder {
+        private static final RouteTable DEFAULT = build();
+    }
+
+    private final Map<String, Route> routes;
+
+    private RouteTable(Map<String, Route> routes) {
+        this.routes = Map.copyOf(routes);
+    }
+
+    /**
+     * Returns the route table of the web server.
+     * @return the route table
+     */
+    public static RouteTable getDefault() {
+        return Holder.DEFAULT;
+    }
+
+    /**
+     * Builds the table from the namespace spaces and the SQL resources.
+     * Pages can be requested with or without the ".html" extension, both paths are added.
+     * @return the route table
+     */
+    static RouteTable build() {
+        Map<String, Route> routes = new HashMap<>();
+        for (String resource : SQL_WEB_RESOURCES) {
+            ResourceLocation location = new ResourceLocation("virtual", "sql", resource);
+            routes.put("/" + resource, new Route("/" + resource, location, location, location));
+        }
+        ResourceLocation index = new ResourceLocation("html", "site", "index.html");
+        routes.put("/", new Route("/", index, index, index));
+        for (Set<String> space : Set.of(USER_ONLY_SPACE, TEACHER_ONLY_SPACE, ADMIN_ONLY_SPACE)) {
+            for (String name : space) {
+                int dot = name.indexOf('.');
+                if (dot < 0) {
+                    addPage(routes, "/" + name, "html", name, name + ".html");
+                    addPage(routes, "/" + name + ".html", "html", name, name + ".html");
+                } else {
+                    addPage(routes, "/" + name, contextOf(name), name, name);
+                }
+            }
+        }
+        return new RouteTable(routes);
+    }
+
+    private static String contextOf(String name) {
+        String[] parts = name.split("\\.");
+        return parts[1];
+    }
+
+    private static void addPage(Map<String, Route> routes, String path, String context, String name, String resource) {
+        routes.put(path, new Route(path,
+                new ResourceLocation(context, namespaceOf(name, Audience.ADMIN), resource),
+                new ResourceLocation(context, namespaceOf(name, Audience.TEACHER), resource),
+                new ResourceLocation(context, namespaceOf(name, Audience.STUDENT), resource)));
+    }
+
+    /**
+     * Chooses the namespace of a resource requested without one.
+     * A resource in the space of the user's own role wins, otherwise the user space is preferred over the admin and teacher spaces.
+     * @param name the name of the resource, without ".html"
+     * @param audience the audience of the user
+     * @return the namespace
+     */
+    static String namespaceOf(String name, Audience audience) {
+        boolean admin = ADMIN_ONLY_SPACE.contains(name);
+        boolean teacher = TEACHER_ONLY_SPACE.contains(name);
+        if (admin && audience == Audience.ADMIN) {
+            return "admin";
+        } else if (teacher && audience != Audience.STUDENT) {
+            return "teacher";
+        } else if (USER_ONLY_SPACE.contains(name)) {
+            return "user";
+        } else if (admin) {
+            return "admin";
+        } else if (teacher) {
+            return "teacher";
+        } else {
+            return "site";
+        }
+    }
+
+    /**
+     * Looks up the route of a path.
+     * @param path the request path, without query string
+     * @return the route, or null if the path is not in the table
+     */
+    public Route get(String path) {
+        return routes.get(path);
+    }
+
+    /**
+     * Resolves a path for the given user.
+     * @param path the request path, without query string
+     * @param user the user, null is treated as anonymous
+     * @return the resource location, or null if the path is not in the table
+     */
+    public ResourceLocation resolve(String path, User user) {
+        Route route = routes.get(path);
+        return route != null ? route.location(Audience.of(user)) : null;
+    }
+
+    /**
+     * Returns the number of routes.
+     * @return the number of routes
+     */
+    public int size() {
+        return routes.size();
+    }
+
+    /**
+     * Lists all routes sorted by path, for debugging.
+     * @return one line per route
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (Route route : new TreeMap<>(routes).values()) {
+            if (builder.length() > 0) builder.append('\n');
+            builder.append(route);
+        }
+        return builder.toString();
+    }
+}
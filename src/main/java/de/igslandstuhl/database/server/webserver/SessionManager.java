@@ -1,125 +1,364 @@
 package de.igslandstuhl.database.server.webserver;
 
 import java.time.Instant;
-import java.util.HashMap;
+import java.util.Comparator;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import de.igslandstuhl.database.api.User;
 import de.igslandstuhl.database.server.webserver.requests.HttpRequest;
 
-public class SessionManager {
-    private Map<UUID,Session> sessionStore = new HashMap<>();
+public class SessionManager implements AutoCloseable {
     /**
-     * A map to store session IDs and their associated usernames.
-     * This is a simple in-memory session store.
+     * The number of sessions stored if no other capacity is given.
      */
-    private SessionStorage<String> sessionUsers = new SessionStorage<>();
-    private SessionStorage<Instant> lastActivity = new SessionStorage<>();
-    private SessionStorage<Integer> requestCount = new SessionStorage<>();
+    public static final int DEFAULT_MAX_SESSIONS = 10000;
+    /**
+     * The slots of the expiry wheel, with one-second ticks one turn covers about eight and a half minutes.
+     */
+    private static final int WHEEL_SLOTS = 512;
+    private static final long WHEEL_TICK = 1000;
+
+    /**
+     * Counters of the session table, e.g. for monitoring.
+     * @param sessions the number of stored sessions
+     * @param expiredByLifetime the number of sessions removed because they were older than the session duration
+     * @param expiredByInactivity the number of sessions removed because they were inactive for too long
+     * @param evicted the number of sessions removed to make room in a full table
+     */
+    public record Statistics(int sessions, long expiredByLifetime, long expiredByInactivity, long evicted) {}
+
+    /**
+     * Everything stored about one session.
+     * Records are shared between request threads, so all mutable fields are volatile or atomic.
+     */
+    private static final class SessionRecord {
+        private final Session session;
+        private volatile String username;
+        private volatile Instant lastActivity = Instant.now();
+        /**
+         * Whether the session was used since it was queued for eviction, it then gets a second chance, see {@link SessionManager#evictIfFull()}.
+         */
+        private volatile boolean referenced;
+        private final RateLimiter.TokenBucket[] rateLimits;
+
+        private SessionRecord(Session session, RateLimiter.TokenBucket[] rateLimits) {
+            this.session = session;
+            this.rateLimits = rateLimits;
+        }
+        private boolean isAnonymous() {
+            return username == null;
+        }
+    }
+
+    /**
+     * The session table: one record per session, looked up by the id in the session cookie.
+     */
+    private final Map<UUID, SessionRecord> sessions = new ConcurrentHashMap<>();
+    /**
+     * The session of each logged in user, a user has at most one session (see #51).
+     */
+    private final Map<String, SessionRecord> userSessions = new ConcurrentHashMap<>();
+    /**
+     * Sessions without user, these are evicted first when the table is full.
+     * Sessions are queued when they are created and queued again at the end when they were used by the time they reach the head,
+     * so the head is the least recently used one.
+     * Entries of sessions that were removed or got a user in the meantime are skipped and pruned by the expiry job.
+     */
+    private final Queue<SessionRecord> anonymousSessions = new ConcurrentLinkedQueue<>();
+    /**
+     * Every stored session is scheduled here for its deadline, see {@link #expire(long)}.
+     */
+    private final TimingWheel<SessionRecord> expiryWheel = new TimingWheel<>(WHEEL_SLOTS, WHEEL_TICK, System.currentTimeMillis());
+    private final ScheduledExecutorService expiryTimer;
+    private final AtomicLong expiredByLifetime = new AtomicLong();
+    private final AtomicLong expiredByInactivity = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
 
     /**
      * After this duration, sessions expire (are removed from the session store). It is measured in seconds.
      */
     private final int sessionExpireDuration;
     private final int maximumInactivityDuration;
-    private final int maxRequests;
+    private final RateLimiter rateLimiter;
+    /**
+     * The maximum number of stored sessions.
+     */
+    private final int maxSessions;
 
     public SessionManager(int sessionExpireDuration, int maximumInactivityDuration, int maxRequests) {
+        this(sessionExpireDuration, maximumInactivityDuration, maxRequests, DEFAULT_MAX_SESSIONS);
+    }
+    /**
+     * Creates a session manager.
+     * @param sessionExpireDuration seconds after login until a session expires
+     * @param maximumInactivityDuration seconds without request until a session expires
+     * @param maxRequests the number of read requests a session may make per minute, admins are not limited, see {@link RateLimiter#perMinute(int)}
+     * @param maxSessions the maximum number of stored sessions, if a new session exceeds it, the least recently used anonymous session is removed
+     */
+    public SessionManager(int sessionExpireDuration, int maximumInactivityDuration, int maxRequests, int maxSessions) {
+        if (maxSessions <= 0) throw new IllegalArgumentException("maxSessions must be positive");
         this.sessionExpireDuration = sessionExpireDuration;
         this.maximumInactivityDuration = maximumInactivityDuration;
-        this.maxRequests = maxRequests;
-        new Thread(this::cleanSecondsJob, "Session Expiring").start();
+        this.rateLimiter = RateLimiter.perMinute(maxRequests);
+        this.maxSessions = maxSessions;
+        this.expiryTimer = Executors.newSingleThreadScheduledExecutor((task) -> {
+            Thread thread = new Thread(task, "Session Expiring");
+            thread.setDaemon(true);
+            return thread;
+        });
+        expiryTimer.scheduleAtFixedRate(() -> expire(System.currentTimeMillis()), WHEEL_TICK, WHEEL_TICK, TimeUnit.MILLISECONDS);
+        expiryTimer.scheduleAtFixedRate(this::prune, 1, 1, TimeUnit.MINUTES);
     }
 
-    private void removeSession(Session session) {
-        UUID uuid = session.getUUID();
-        synchronized (sessionStore) {
-            sessionStore.remove(uuid);
-        }
-        synchronized (sessionUsers) {
-            sessionUsers.remove(session);
+    private void removeSession(SessionRecord record) {
+        if (sessions.remove(record.session.getUUID(), record)) {
+            String username = record.username;
+            if (username != null) userSessions.remove(username, record);
         }
-        lastActivity.remove(session);
-    }
-    private Instant getOrCreateLastActivity(Session session) {
-        Instant instant = lastActivity.get(session);
-        return instant == null ? Instant.now() : instant;
-    }
-    private void cleanSecondsJob() {
-        while (true) {
-            sessionStore.values().stream()
-            .filter((session) -> 
-                session.getLoginTime().plusSeconds(sessionExpireDuration).isBefore(Instant.now())
-                || getOrCreateLastActivity(session).plusSeconds(maximumInactivityDuration).isBefore(Instant.now())
-            )
-            .toList().stream() // Convert to list to avoid ConcurrentModificationException
-            .forEach(this::removeSession);
-            requestCount.clear();
-            try {
-                Thread.sleep(60000);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
+    }
+    private long lifetimeDeadline(SessionRecord record) {
+        return record.session.getLoginTime().toEpochMilli() + sessionExpireDuration * 1000L;
+    }
+    private long inactivityDeadline(SessionRecord record) {
+        return record.lastActivity.toEpochMilli() + maximumInactivityDuration * 1000L;
+    }
+    private void scheduleExpiry(SessionRecord record) {
+        expiryWheel.schedule(record, Math.min(lifetimeDeadline(record), inactivityDeadline(record)));
+    }
+    /**
+     * Removes the sessions whose deadline has passed.
+     * Requests move the inactivity deadline of a session without rescheduling it, so a session that was active
+     * in the meantime is scheduled again for its new deadline instead.
+     * @param nowMillis the current time in milliseconds
+     */
+    void expire(long nowMillis) {
+        expiryWheel.advance(nowMillis, (record) -> {
+            if (sessions.get(record.session.getUUID()) != record) return; // Already removed
+            if (lifetimeDeadline(record) <= nowMillis) {
+                removeSession(record);
+                expiredByLifetime.incrementAndGet();
+            } else if (inactivityDeadline(record) <= nowMillis) {
+                removeSession(record);
+                expiredByInactivity.incrementAndGet();
+            } else {
+                scheduleExpiry(record);
+            }
+        });
+    }
+    private void prune() {
+        anonymousSessions.removeIf((record) -> !record.isAnonymous() || sessions.get(record.session.getUUID()) != record);
+        rateLimiter.prune();
+    }
+
+    /**
+     * Makes room for a new session if the table is full.
+     * The least recently used anonymous session is removed first: a session that was used since it was queued is queued
+     * again (second chance) instead of being removed, which costs no reordering on every request.
+     * Only if all sessions belong to users, the least recently active one is removed.
+     * Concurrent inserts may exceed the capacity by the number of inserting threads, but never more.
+     */
+    private void evictIfFull() {
+        // Bounds the second chances, so sessions that are used all the time cannot keep the queue turning
+        int secondChances = anonymousSessions.size();
+        while (sessions.size() >= maxSessions) {
+            SessionRecord record = anonymousSessions.poll();
+            if (record == null) {
+                // Rare: the table is full of logged in users
+                sessions.values().stream()
+                    .min(Comparator.comparing((SessionRecord r) -> r.lastActivity))
+                    .ifPresent((oldest) -> {
+                        removeSession(oldest);
+                        evicted.incrementAndGet();
+                    });
+                return;
+            }
+            if (!record.isAnonymous() || sessions.get(record.session.getUUID()) != record) continue;
+            if (record.referenced && secondChances-- > 0) {
+                record.referenced = false;
+                anonymousSessions.add(record);
+            } else {
+                removeSession(record);
+                evicted.incrementAndGet();
             }
         }
     }
 
-    public boolean validateSession(HttpRequest request) {
-        lastActivity.set(request, Instant.now());
-
-        Integer requests = requestCount.get(request);
-        int count = requests == null ? 0 : requests;
-        count++;
-        requestCount.set(request, count);
-        if (count > maxRequests && !getSessionUser(request).isAdmin()) {
-            System.out.println("Ratelimit!");
-            return false;
+    /**
+     * Creates the context of a request, looking up its session.
+     * @param request the request
+     * @return the context
+     */
+    public RequestContext createContext(HttpRequest request) {
+        return new RequestContext(request, this, findSession(request));
+    }
+    /**
+     * Returns the record of the session of a context, if the session is still stored.
+     */
+    private SessionRecord recordOf(RequestContext context) {
+        Session session = context.getSession();
+        if (session == null) return null;
+        SessionRecord record = sessions.get(session.getUUID());
+        return record != null && record.session == session ? record : null;
+    }
+
+    /**
+     * Charges a request to the rate limit of its session, or of its IP address if it has no session.
+     * @param request the request
+     * @return 0 if the request may be handled, otherwise the nanoseconds until it may be retried
+     */
+    public long checkRateLimit(HttpRequest request) {
+        return checkRateLimit(createContext(request));
+    }
+    /**
+     * Charges a request to the rate limit of its session, or of its IP address if it has no session.
+     * @param context the context of the request
+     * @return 0 if the request may be handled, otherwise the nanoseconds until it may be retried
+     */
+    public long checkRateLimit(RequestContext context) {
+        SessionRecord record = recordOf(context);
+        long wait = rateLimiter.tryAcquire(context.getRequest(), record != null ? record.rateLimits : null);
+        if (wait > 0 && record != null && context.getUser().isAdmin()) {
+            return 0; // Admins are not limited, e.g. when importing many students
         }
+        return wait;
+    }
+    /**
+     * Returns the rate limiter of the sessions.
+     * @return the rate limiter
+     */
+    public RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * Checks whether the session of a request is used by the device it was created for.
+     * Requests without a session are anonymous, there is nothing to check and no session is created for them.
+     * @param request the request
+     * @return false if the request must be rejected
+     */
+    public boolean validateSession(HttpRequest request) {
+        return validateSession(createContext(request));
+    }
+    /**
+     * Checks whether the session of a request is used by the device it was created for.
+     * Requests without a session are anonymous, there is nothing to check and no session is created for them.
+     * @param context the context of the request
+     * @return false if the request must be rejected
+     */
+    public boolean validateSession(RequestContext context) {
+        SessionRecord record = recordOf(context);
+        if (record == null) return true;
+        HttpRequest request = context.getRequest();
+        Session session = record.session;
+        record.lastActivity = Instant.now();
+        record.referenced = true;
 
         String userAgent = request.getUserAgent();
-        if (!getSession(request).getUserAgent().equals(userAgent)) {
-            System.err.println("SEVERE WARNING: POTENTIAL ATTACK: faked session id (device changed), for user " + getSessionUser(request));
+        if (!Objects.equals(session.getUserAgent(), userAgent)) {
+            System.err.println("SEVERE WARNING: POTENTIAL ATTACK: faked session id (device changed), for user " + getSessionUser(session));
             return false;
         }
         String ip = request.getIP();
-        if (!getSession(request).getIpAddress().equals(ip)) {
-            System.err.println("SEVERE WARNING: POTENTIAL ATTACK: faked session id (ip address changed) for user " + getSessionUser(request));
+        if (!Objects.equals(session.getIpAddress(), ip)) {
+            System.err.println("SEVERE WARNING: POTENTIAL ATTACK: faked session id (ip address changed) for user " + getSessionUser(session));
             return false;
         }
 
         return true;
     }
 
+    /**
+     * Returns the number of stored sessions.
+     * @return the number of sessions
+     */
+    public int sessionCount() {
+        return sessions.size();
+    }
+    /**
+     * Returns the counters of the session table.
+     * @return the statistics
+     */
+    public Statistics getStatistics() {
+        return new Statistics(sessions.size(), expiredByLifetime.get(), expiredByInactivity.get(), evicted.get());
+    }
     public Session getSession(UUID sessionUUID) {
-        return sessionStore.get(sessionUUID);
+        SessionRecord record = sessions.get(sessionUUID);
+        return record != null ? record.session : null;
     }
-    public Session getSession(HttpRequest request) {
+    private SessionRecord findRecord(HttpRequest request) {
         // Search for cookie header
         for (Cookie cookie : request.getCookies()) {
             if (cookie.getName().equals("session")) {
-                synchronized (sessionStore) {
-                    Session session = sessionStore.get(UUID.fromString(cookie.getValue()));
-                    // Check if the session exists
-                    if (session != null) {
-                        return session;
-                    }
+                UUID uuid;
+                try {
+                    uuid = UUID.fromString(cookie.getValue());
+                } catch (IllegalArgumentException e) {
+                    continue; // Not a session id of this server
+                }
+                SessionRecord record = sessions.get(uuid);
+                // Check if the session exists
+                if (record != null) {
+                    return record;
                 }
             }
         }
+        return null;
+    }
+    /**
+     * Returns the session of a request, without creating one.
+     * @param request the request
+     * @return the session, or null if the request has no valid session cookie
+     */
+    public Session findSession(HttpRequest request) {
+        SessionRecord record = findRecord(request);
+        return record != null ? record.session : null;
+    }
+    /**
+     * Returns the session of a request, creating a new one if the request has none.
+     * Only call this where a session is needed, e.g. at login: every call from a client without cookies stores a new session.
+     * @param request the request
+     * @return the session
+     */
+    public Session getSession(HttpRequest request) {
+        SessionRecord record = findRecord(request);
+        if (record != null) return record.session;
         // Session does not exist yet
-        Session session = new Session(request);
-        sessionStore.put(session.getUUID(), session);
-        return session;
+        return store(new Session(request)).session;
+    }
+    private SessionRecord store(Session session) {
+        evictIfFull();
+        SessionRecord record = new SessionRecord(session, rateLimiter.newSessionBuckets());
+        SessionRecord previous = sessions.putIfAbsent(session.getUUID(), record);
+        if (previous != null) return previous;
+        anonymousSessions.add(record);
+        scheduleExpiry(record);
+        return record;
     }
     public User getSessionUser(Session session) {
-        synchronized (sessionUsers) {
-            User user = User.getUser(sessionUsers.get(session));
-            return user == null ? User.ANONYMOUS : user;
-        }
+        SessionRecord record = sessions.get(session.getUUID());
+        User user = record != null ? User.getUser(record.username) : User.ANONYMOUS;
+        return user == null ? User.ANONYMOUS : user;
     }
 
+    /**
+     * Returns the user logged in with the session of a request.
+     * @param request the request
+     * @return the user, or {@link User#ANONYMOUS} if the request has no session or the session has no user
+     */
     public User getSessionUser(HttpRequest request) {
-        return getSessionUser(getSession(request));
+        SessionRecord record = findRecord(request);
+        if (record == null) return User.ANONYMOUS;
+        User user = User.getUser(record.username);
+        return user == null ? User.ANONYMOUS : user;
     }
     /**
      * Adds a session to the session store.
@@ -129,10 +368,21 @@ public class SessionManager {
      * @param username  The username associated with the session.
      */
     public void addSessionUser(Session session, String username) {
+        SessionRecord record = sessions.get(session.getUUID());
+        if (record == null) record = store(session); // The session was evicted or never stored
+        record.username = username;
         // Remove all previous sessions for this user (see #51)
-        if (sessionUsers.contains(username)) {
-            sessionUsers.remove(username);
+        SessionRecord previous = userSessions.put(username, record);
+        if (previous != null && previous != record) {
+            sessions.remove(previous.session.getUUID(), previous);
         }
-        sessionUsers.set(session, username);
+    }
+
+    /**
+     * Stops the expiry timer. The sessions stay valid, but no longer expire.
+     */
+    @Override
+    public void close() {
+        expiryTimer.shutdownNow();
     }
 }
@@ -0,0 +1,94 @@
+package de.igslandstuhl.database.server.webserver;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * A hashed timing wheel: schedules items for a deadline and hands them out once the deadline has passed.
+ * The wheel has a fixed number of slots, each covering one tick. An item is put into the slot of its deadline tick,
+ * deadlines further away than one turn of the wheel wait in their slot until the wheel has turned often enough.
+ * Scheduling is O(1), and every tick only looks at the items of one slot instead of all items.
+ * The wheel does not read the clock itself, the owner advances it with the current time.
+ * @param <T> the type of the scheduled items
+ */
+public class TimingWheel<T> {
+    private record Entry<T>(T item, long tick) {}
+
+    private final List<ArrayDeque<Entry<T>>> slots;
+    private final long tickMillis;
+    private final long startMillis;
+    /**
+     * The last tick that was processed.
+     */
+    private long currentTick;
+    private int size;
+
+    /**
+     * Creates an empty wheel.
+     * @param slotCount the number of slots, one turn of the wheel covers slotCount * tickMillis
+     * @param tickMillis the length of one tick in milliseconds, deadlines are rounded up to full ticks
+     * @param startMillis the current time in milliseconds
+     */
+    public TimingWheel(int slotCount, long tickMillis, long startMillis) {
+        if (slotCount <= 0 || tickMillis <= 0) throw new IllegalArgumentException("slotCount and tickMillis must be positive");
+        this.slots = new ArrayList<>(slotCount);
+        for (int i = 0; i < slotCount; i++) {
+            slots.add(new ArrayDeque<>());
+        }
+        this.tickMillis = tickMillis;
+        this.startMillis = startMillis;
+    }
+
+    /**
+     * Schedules an item.
+     * @param item the item
+     * @param deadlineMillis the time in milliseconds after which the item is expired, deadlines in the past expire with the next tick
+     */
+    public synchronized void schedule(T item, long deadlineMillis) {
+        long elapsed = deadlineMillis - startMillis;
+        long tick = Math.max(currentTick + 1, elapsed <= 0 ? 0 : (elapsed + tickMillis - 1) / tickMillis);
+        slots.get((int) (tick % slots.size())).add(new Entry<>(item, tick));
+        size++;
+    }
+
+    /**
+     * Turns the wheel to the given time and passes every item whose deadline has passed to the consumer.
+     * The consumer is called after the wheel is unlocked, so it may schedule items again.
+     * @param nowMillis the current time in milliseconds
+     * @param expired receives the expired items
+     * @return the number of expired items
+     */
+    public int advance(long nowMillis, Consumer<? super T> expired) {
+        List<T> due = new ArrayList<>();
+        synchronized (this) {
+            long target = (nowMillis - startMillis) / tickMillis;
+            // After a long pause, one turn of the wheel visits every slot
+            long first = Math.max(currentTick + 1, target - slots.size() + 1);
+            for (long tick = first; tick <= target; tick++) {
+                Iterator<Entry<T>> it = slots.get((int) (tick % slots.size())).iterator();
+                while (it.hasNext()) {
+                    Entry<T> entry = it.next();
+                    if (entry.tick() <= target) {
+                        it.remove();
+                        due.add(entry.item());
+                    }
+                }
+            }
+            currentTick = Math.max(currentTick, target);
+            size -= due.size();
+        }
+        due.forEach(expired);
+        return due.size();
+    }
+
+    /**
+     * Returns the number of scheduled items.
+     * @return the number of items
+     */
+    public synchronized int size() {
+        return size;
+    }
+}
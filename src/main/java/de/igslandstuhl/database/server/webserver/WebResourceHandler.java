@@ -1,59 +1,29 @@
 package de.igslandstuhl.database.server.webserver;
 
-import java.util.Arrays;
-
 import de.igslandstuhl.database.api.User;
 import de.igslandstuhl.database.server.resources.ResourceLocation;
 
 /**
  * Handles the mapping of web resource paths to resource locations.
- * This class provides methods to determine if a path is a SQL web resource,
- * and to convert paths into ResourceLocation objects.
+ * Known paths are resolved by the {@link RouteTable}, this class adds the general rules for all other paths.
  */
 public final class WebResourceHandler {
-    private static final String[] SQL_WEB_RESOURCES = {"/mydata", "/rooms", "/mysubjects", "/myclasses", "/teachers", "/students", "/subjects", "/classes"};
-    private static String[] userOnlySpace = {"dashboard", "build_dashboard.js", "results", "build_results.js", "partner_search", "build_partner_search.js"};
-    private static String[] teacherOnlySpace = {"dashboard", "build_dashboard.js", "student", "build_student.js", "student-results", "build_results.js"};
-    private static String[] adminOnlySpace = {"dashboard", "build_dashboard.js", "manage_students", "manage_teachers", "manage_classes", "manage_subjects", "manage_rooms", "student", "student-results", "teacher", "build_teacher.js", "room", "build_room.js", "subject", "build_subject.js", "class", "build_class.js", "teacher-classes", "teacher-subjects", "teacher-students", "teacher-results", "teacher-dashboard", "build_teacher_dashboard.js"};
-
     private WebResourceHandler(){}
 
-    private static boolean isSQLWebResource(String path) {
-        return Arrays.asList(SQL_WEB_RESOURCES).contains(path);
-    }
-
-    private static boolean inUserOnlySpace(String path) {
-        for (String userOnlyPaths : userOnlySpace) {
-            if (path.replaceFirst("/", "").replace(".html", "").equals(userOnlyPaths)) {
-                return true;
-            }
-        }
-        return false;
-    }
-    private static boolean inTeacherOnlySpace(String path) {
-        for (String teacherOnlyPaths : teacherOnlySpace) {
-            if (path.replaceFirst("/", "").replace(".html", "").equals(teacherOnlyPaths)) {
-                return true;
-            }
-        }
-        return false;
-    }
-    private static boolean inAdminOnlySpace(String path) {
-        for (String adminOnlyPaths : adminOnlySpace) {
-            if (path.replaceFirst("/", "").replace(".html", "").equals(adminOnlyPaths)) {
-                return true;
-            }
-        }
-        return false;
-    }
-
+    /**
+     * Returns the resource location for a request path.
+     * Known pages, scripts and SQL resources are looked up in the {@link RouteTable},
+     * other paths are resolved by their extension and namespace.
+     * @param path the request path, without query string
+     * @param user the logged in user, or null
+     * @return the resource location
+     */
     public static ResourceLocation locationFromPath(String path, User user) {
-        if (isSQLWebResource(path)) {
-            return new ResourceLocation("virtual", "sql", path.replaceFirst("/", ""));
+        ResourceLocation route = RouteTable.getDefault().resolve(path, user);
+        if (route != null) {
+            return route;
         }
-        if (path.equals("/")) {
-            path = "/index.html";
-        } else if (path.endsWith(".ico")) {
+        if (path.endsWith(".ico")) {
             path = "/icons" + path;
         }
         String[] parts = path.split("\\.");
@@ -77,19 +47,8 @@ public final class WebResourceHandler {
             namespace = parts[1];
             resource = parts[2];
         } else {
-            if (inAdminOnlySpace(parts[1]) && (user == User.ANONYMOUS || user.isAdmin())) {
-                namespace = "admin";
-            } else if (inTeacherOnlySpace(parts[1]) && (user == User.ANONYMOUS || user.isTeacher() || user.isAdmin())) {
-                namespace = "teacher";
-            } else if (inUserOnlySpace(parts[1])) {
-                namespace = "user";
-            } else if (inAdminOnlySpace(parts[1])) {
-                namespace = "admin";
-            } else if (inTeacherOnlySpace(parts[1])) {
-                namespace = "teacher";
-            } else {
-                namespace = "site";
-            }
+            // All resources of the role namespaces are in the route table
+            namespace = RouteTable.namespaceOf(parts[1].replace(".html", ""), RouteTable.Audience.of(user));
             resource = parts[1];
         }
 
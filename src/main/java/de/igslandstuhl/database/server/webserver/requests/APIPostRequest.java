@@ -16,7 +16,6 @@ import de.igslandstuhl.database.api.Task;
 import de.igslandstuhl.database.api.Teacher;
 import de.igslandstuhl.database.api.Topic;
 import de.igslandstuhl.database.api.User;
-import de.igslandstuhl.database.server.Server;
 import de.igslandstuhl.database.server.webserver.HttpHeader;
 
 public class APIPostRequest extends PostRequest {
@@ -24,7 +23,7 @@ public class APIPostRequest extends PostRequest {
         super(header, body, ipAddress, secureConnection);
     }
     public Student getCurrentStudent() {
-        User user = Server.getInstance().getWebServer().getSessionManager().getSessionUser(this);
+        User user = getRequestContext().getUser();
         if (user == null || user == User.ANONYMOUS) {
             return null; // User is not logged in
         }
@@ -36,7 +35,7 @@ public class APIPostRequest extends PostRequest {
         return null;
     }
     public Teacher getCurrentTeacher() {
-        User user = Server.getInstance().getWebServer().getSessionManager().getSessionUser(this);
+        User user = getRequestContext().getUser();
         if (user == null || user == User.ANONYMOUS) {
             return null; // User is not logged in
         }
@@ -48,7 +47,7 @@ public class APIPostRequest extends PostRequest {
         return null;
     }
     public User getUser() {
-        return Server.getInstance().getWebServer().getSessionManager().getSessionUser(this);
+        return getRequestContext().getUser();
     }
     public Subject getSubject() {
         return Subject.get(getInt("subjectId"));
@@ -106,6 +105,8 @@ public class APIPostRequest extends PostRequest {
     }
     public static APIPostRequest fromPostRequest(PostRequest request) {
         if (request instanceof APIPostRequest rq) return rq;
-        else return new APIPostRequest(request.getHeader(), request.getBodyAsString(), request.getIP(), request.isSecureConnection());
+        APIPostRequest rq = new APIPostRequest(request.getHeader(), request.getBodyAsString(), request.getIP(), request.isSecureConnection());
+        rq.requestContext = request.requestContext;
+        return rq;
     }
 }
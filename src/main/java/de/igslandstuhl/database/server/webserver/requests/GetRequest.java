@@ -1,18 +1,19 @@
 package de.igslandstuhl.database.server.webserver.requests;
 
-import java.util.Arrays;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 
 import de.igslandstuhl.database.api.User;
 import de.igslandstuhl.database.server.resources.ResourceLocation;
+import de.igslandstuhl.database.server.Server;
 import de.igslandstuhl.database.server.webserver.Cookie;
 import de.igslandstuhl.database.server.webserver.HttpHeader;
+import de.igslandstuhl.database.server.webserver.RequestContext;
 import de.igslandstuhl.database.server.webserver.WebResourceHandler;
 
 /**
  * Represents a GET request in the web server.
- * It parses the request string to extract the path, query parameters, and context.
+ * Path and query parameters come from the parsed {@link HttpHeader}.
  * The context is determined by the file extension of the requested resource.
  */
 public class GetRequest implements HttpRequest {
@@ -20,63 +21,43 @@ public class GetRequest implements HttpRequest {
      * Valid contexts for web resources.
      * These contexts are used to determine the type of resource being requested.
      */
-    private static final String[] validContexts = {"html", "js", "css"};
+    private static final Set<String> validContexts = Set.of("html", "js", "css");
     /**
-     * The path of the requested resource.
-     * This is the part of the URL that comes after the domain and before any query parameters.
+     * The parsed header of the request.
      */
-    private final String path;
-    /**
-     * The query parameters of the request.
-     * These are key-value pairs that come after the '?' in the URL.
-     */
-    private final Map<String, String> args = new HashMap<>();
+    private final HttpHeader header;
     /**
      * The context of the requested resource.
      * This is determined by the file extension of the requested resource.
      */
     private final String context;
 
-    private final int contentLength;
-    private final Cookie[] cookies;
     private final String ip;
-    private final String userAgent;
-    private final String acceptLanguage;
     private final boolean secureConnection;
+    /**
+     * The session and user of the request, see {@link #getRequestContext()}.
+     */
+    RequestContext requestContext;
 
     /**
      * Constructs a new GetRequest from the given request string.
      * @param request the request string to parse
      */
     public GetRequest(String request, String ip, boolean secureConnection) {
-        if (!request.startsWith("GET") || !request.contains("HTTP/1.1")){
+        this(new HttpHeader(request), ip, secureConnection);
+    }
+    /**
+     * Constructs a new GetRequest from an already parsed header.
+     * @param header the header of the request
+     */
+    public GetRequest(HttpHeader header, String ip, boolean secureConnection) {
+        if (!header.getMethod().equals("GET") || !header.getVersion().equals("HTTP/1.1")){
             throw new IllegalArgumentException();
         }
-        HttpHeader header = new HttpHeader(request);
-
-        String url = header.getPath();
-        String[] urlParts = url.split("\\?");
-        this.path = urlParts[0];
-        if (urlParts.length > 1) {
-            String[] arg_pairs = urlParts[1].split("&");
-            for (String arg: arg_pairs) {
-                String[] kv = arg.split("=");
-                args.put(kv[0], kv.length > 1 ? kv[1] : "");
-            }
-        }
-        String[] extPts = path.split("\\.");
-        if (extPts.length > 1) {
-            this.context = extPts[1];
-        } else {
-            this.context = "html";
-        }
-
-        this.contentLength = 0;
+        this.header = header;
+        this.context = HttpRequest.contextOf(header.getPath());
         this.ip = ip;
-        this.userAgent = header.getUserAgent();
-        this.acceptLanguage = header.getAcceptLanguage();
         this.secureConnection = secureConnection;
-        this.cookies = header.getCookies();
     }
 
     /**
@@ -85,7 +66,7 @@ public class GetRequest implements HttpRequest {
      * @return true if the request is valid, false otherwise
      */
     public boolean isValid() {
-        return Arrays.asList(validContexts).contains(context);
+        return validContexts.contains(context);
     }
     /**
      * Returns the resource location for this request, wrapped in a ResourceLocation object.
@@ -95,12 +76,29 @@ public class GetRequest implements HttpRequest {
      * @see de.igslandstuhl.database.server.resources.ResourceLocation
      */
     public ResourceLocation toResourceLocation(String user) {
-        return WebResourceHandler.locationFromPath(path, User.getUser(user));
+        return locationFor(User.getUser(user));
+    }
+    /**
+     * Returns the resource location for this request.
+     * @param user the user of the session, null is treated as anonymous
+     * @return the ResourceLocation for this request
+     */
+    public ResourceLocation locationFor(User user) {
+        return WebResourceHandler.locationFromPath(header.getPath(), user);
+    }
+
+    /**
+     * Returns the query parameters of the request.
+     * These are key-value pairs that come after the '?' in the URL.
+     * @return an unmodifiable map of the query parameters
+     */
+    public Map<String, String> getQueryParameters() {
+        return header.getQueryParameters();
     }
 
     @Override
     public String getPath() {
-        return path;
+        return header.getPath();
     }
     @Override
     public String getContext() {
@@ -108,11 +106,11 @@ public class GetRequest implements HttpRequest {
     }
     @Override
     public int getContentLength() {
-        return contentLength;
+        return 0;
     }
     @Override
     public Cookie[] getCookies() {
-        return cookies;
+        return header.getCookies();
     }
     @Override
     public String getIP() {
@@ -120,15 +118,25 @@ public class GetRequest implements HttpRequest {
     }
     @Override
     public String getUserAgent() {
-        return userAgent;
+        return header.getUserAgent();
     }
     @Override
     public String getAcceptLanguage() {
-        return acceptLanguage;
+        return header.getAcceptLanguage();
     }
     @Override
     public boolean isSecureConnection() {
         return secureConnection;
     }
-    
+    @Override
+    public HttpHeader getHeader() {
+        return header;
+    }
+    @Override
+    public RequestContext getRequestContext() {
+        if (requestContext == null) {
+            requestContext = Server.getInstance().getWebServer().getSessionManager().createContext(this);
+        }
+        return requestContext;
+    }
 }
@@ -1,9 +1,8 @@
 package de.igslandstuhl.database.server.webserver.requests;
 
 import de.igslandstuhl.database.Registry;
-import de.igslandstuhl.database.server.Server;
 import de.igslandstuhl.database.server.webserver.AccessLevel;
-import de.igslandstuhl.database.server.webserver.SessionManager;
+import de.igslandstuhl.database.server.webserver.RateLimiter.Budget;
 import de.igslandstuhl.database.server.webserver.Status;
 import de.igslandstuhl.database.server.webserver.responses.HttpResponse;
 import de.igslandstuhl.database.utils.ThrowingFunction;
@@ -11,21 +10,30 @@ import de.igslandstuhl.database.utils.ThrowingFunction;
 public class HttpHandler<Rq extends HttpRequest> {
     private final String path;
     private final AccessLevel accessLevel;
+    private final Budget budget;
     private final ThrowingFunction<Rq, HttpResponse> handler;
 
-    private HttpHandler(String path, AccessLevel accessLevel, ThrowingFunction<Rq, HttpResponse> handler) {
+    private HttpHandler(String path, AccessLevel accessLevel, Budget budget, ThrowingFunction<Rq, HttpResponse> handler) {
         this.accessLevel = accessLevel;
+        this.budget = budget;
         this.handler = handler;
         this.path = path;
     }
 
+    /**
+     * Returns the rate limit budget that requests to this handler are charged to.
+     * @return the budget
+     */
+    public Budget getBudget() {
+        return budget;
+    }
+
     public HttpResponse handleHttpRequest(Rq request) {
-        SessionManager sessionManager = Server.getInstance().getWebServer().getSessionManager();
         int contentLength = request.getContentLength();
         if (contentLength <= 0 && !(request instanceof GetRequest)) {
             return HttpResponse.error(request, Status.BAD_REQUEST);
         }
-        if (!accessLevel.hasAccess(sessionManager.getSessionUser(request))) {
+        if (!request.getRequestContext().hasAccess(accessLevel)) {
             return HttpResponse.error(request, Status.UNAUTHORIZED);
         } else if (!path.equals(request.getPath().split("\\?")[0])) {
             System.err.println("Wrong path for HTTP handler: " + handler + ", path: " + request.getPath());
@@ -40,10 +48,17 @@ public class HttpHandler<Rq extends HttpRequest> {
         }
     }
 
-    public static void registerPostRequestHandler(String path, AccessLevel accessLevel, ThrowingFunction<APIPostRequest, HttpResponse> handler) {
-        Registry.postRequestHandlerRegistry().register(path, new HttpHandler<>(path, accessLevel, handler));
+    /**
+     * Registers a handler for POST requests.
+     * @param path the path of the requests
+     * @param accessLevel the access level needed
+     * @param budget the rate limit budget of the requests: {@link Budget#WRITE} if the handler changes data
+     * @param handler the handler
+     */
+    public static void registerPostRequestHandler(String path, AccessLevel accessLevel, Budget budget, ThrowingFunction<APIPostRequest, HttpResponse> handler) {
+        Registry.postRequestHandlerRegistry().register(path, new HttpHandler<>(path, accessLevel, budget, handler));
     }
     public static void registerGetRequestHandler(String path, AccessLevel accessLevel, ThrowingFunction<GetRequest, HttpResponse> handler) {
-        Registry.getRequestHandlerRegistry().register(path, new HttpHandler<>(path, accessLevel, handler));
+        Registry.getRequestHandlerRegistry().register(path, new HttpHandler<>(path, accessLevel, Budget.READ, handler));
     }
 }
@@ -1,6 +1,8 @@
 package de.igslandstuhl.database.server.webserver.requests;
 
 import de.igslandstuhl.database.server.webserver.Cookie;
+import de.igslandstuhl.database.server.webserver.HttpHeader;
+import de.igslandstuhl.database.server.webserver.RequestContext;
 
 public interface HttpRequest {
      /**
@@ -31,4 +33,43 @@ public interface HttpRequest {
     public String getUserAgent();
     public String getAcceptLanguage();
     public boolean isSecureConnection();
+    /**
+     * Returns the parsed header of the HTTP request.
+     * It gives access to all header fields, not only the ones exposed by this interface.
+     * @return the header of the request
+     */
+    public HttpHeader getHeader();
+    /**
+     * Returns the context of the request, i.e. its session and user.
+     * The context is created once per request, on first use, so the session cookie is only looked up once.
+     * @return the context of the request
+     */
+    public RequestContext getRequestContext();
+    /**
+     * Checks whether the client asked for JSON in the normalized form, see {@link de.igslandstuhl.database.api.NormalizedJSON}.
+     * The form is requested with the query parameter "normalized" (unless its value is "false" or "0"),
+     * or with a "normalized" parameter in the Accept header, e.g. "application/json; normalized".
+     * @return true if the response should be normalized
+     */
+    public default boolean wantsNormalizedJSON() {
+        HttpHeader header = getHeader();
+        if (header == null) return false;
+        String parameter = header.getQueryParameters().get("normalized");
+        if (parameter != null) return !parameter.equals("false") && !parameter.equals("0");
+        String accept = header.get("Accept");
+        return accept != null && accept.contains("normalized");
+    }
+
+    /**
+     * Derives the context of a request from its path.
+     * The context is the file extension of the requested resource, "html" if there is none.
+     * @param path the path of the request
+     * @return the context of the request
+     */
+    public static String contextOf(String path) {
+        int dot = path.indexOf('.');
+        if (dot < 0 || dot == path.length() - 1) return "html";
+        int next = path.indexOf('.', dot + 1);
+        return path.substring(dot + 1, next < 0 ? path.length() : next);
+    }
 }
@@ -1,17 +1,21 @@
 package de.igslandstuhl.database.server.webserver.requests;
 
+import java.lang.reflect.Type;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import com.google.gson.Gson;
 import com.google.gson.JsonSyntaxException;
 import com.google.gson.reflect.TypeToken;
 
 import de.igslandstuhl.database.api.User;
 import de.igslandstuhl.database.server.resources.ResourceLocation;
+import de.igslandstuhl.database.server.Server;
 import de.igslandstuhl.database.server.webserver.Cookie;
 import de.igslandstuhl.database.server.webserver.HttpHeader;
+import de.igslandstuhl.database.server.webserver.RequestContext;
+import de.igslandstuhl.database.utils.JSONUtils;
 
 /**
  * Represents a POST request in the web server.
@@ -20,10 +24,9 @@ import de.igslandstuhl.database.server.webserver.HttpHeader;
  */
 public class PostRequest implements HttpRequest {
     /**
-     * Represents the path of the POST request.
-     * This is the part of the request line that specifies the resource being requested.
+     * Represents the parsed header of the POST request.
      */
-    private final String path;
+    private final HttpHeader header;
     /**
      * Represents the parameters of the POST request.
      * This is a map of key-value pairs extracted from the request body.
@@ -34,22 +37,17 @@ public class PostRequest implements HttpRequest {
      * This is derived from the path, typically indicating the type of resource (e.g., "html", "json").
      */
     private final String context;
+
+    private final String ipAddress;
+    private final boolean secureConnection;
     /**
-     * Represents the content length of the POST request.
-     * This is used to determine the size of the request body.
+     * Represents the body parsed as JSON or form data, parsed on first access.
      */
-    private final int contentLength;
+    private volatile ParsedBody parsedBody;
     /**
-     * Represents the cookies associated with the POST request.
-     * This is an array of Cookie objects that may be included in the request.
+     * The session and user of the request, see {@link #getRequestContext()}.
      */
-    private final Cookie[] cookies;
-
-    private final String ipAddress;
-    private final String userAgent;
-    private final String acceptLanguage;
-    private final boolean secureConnection;
-    private final HttpHeader header;
+    RequestContext requestContext;
 
     /**
      * Constructs a new PostRequest with the given header and body.
@@ -65,27 +63,16 @@ public class PostRequest implements HttpRequest {
      * @param body the body of the POST request
      */
     public PostRequest(HttpHeader header, String body, String ipAddress, boolean secureConnection) {
-        this.path = header.getPath();
+        this.header = header;
         this.body = body != null ? body : "";
-        this.contentLength = header.getContentLength();
-        this.cookies = header.getCookies();
         this.ipAddress = ipAddress;
-        this.userAgent = header.getUserAgent();
-        this.acceptLanguage = header.getAcceptLanguage();
         this.secureConnection = secureConnection;
-        this.header = header;
-        
-        String[] extPts = path.split("\\.");
-        if (extPts.length > 1) {
-            context = extPts[1];
-        } else {
-            context = "html";
-        }
+        this.context = HttpRequest.contextOf(header.getPath());
     }
 
     @Override
     public String getPath() {
-        return path;
+        return header.getPath();
     }
     @Override
     public String getContext() {
@@ -93,11 +80,11 @@ public class PostRequest implements HttpRequest {
     }
     @Override
     public int getContentLength() {
-        return contentLength;
+        return header.getContentLength();
     }
     @Override
     public Cookie[] getCookies() {
-        return cookies;
+        return header.getCookies();
     }
     @Override
     public String getIP() {
@@ -105,89 +92,162 @@ public class PostRequest implements HttpRequest {
     }
     @Override
     public String getUserAgent() {
-        return userAgent;
+        return header.getUserAgent();
     }
     @Override
     public String getAcceptLanguage() {
-        return acceptLanguage;
+        return header.getAcceptLanguage();
     }
     @Override
     public boolean isSecureConnection() {
         return secureConnection;
     }
+    @Override
     public HttpHeader getHeader() {
         return header;
     }
+    @Override
+    public RequestContext getRequestContext() {
+        if (requestContext == null) {
+            requestContext = Server.getInstance().getWebServer().getSessionManager().createContext(this);
+        }
+        return requestContext;
+    }
 
+    /**
+     * Returns the body parsed as form data.
+     * @return an unmodifiable map of the form fields
+     * @throws IllegalArgumentException if the body is no form data
+     */
     public Map<String, String> getFormData() {
-        if (body == null || body.isEmpty()) return Map.of();
-        else if (!Character.isLetter(body.charAt(0))) throw new IllegalArgumentException("No Form Data");
-        Map<String, String> params = new HashMap<>();
-        // Parse body as form data: key1=value1&key2=value2
-        String[] pairs = body.split("&");
-        for (String pair : pairs) {
-            String[] kv = pair.split("=");
-            if (kv.length == 2) {
-                params.put(kv[0], kv[1]);
-            } else {
-                throw new IllegalArgumentException("No form data");
-            }
-        }
-        return params;
+        return parsedBody().form();
     }
 
     public String getBodyAsString() {
         return body;
     }
+    /**
+     * Returns the body parsed as a JSON object.
+     * Numbers are represented as {@link Double}, nested objects and arrays as maps and lists.
+     * @return an unmodifiable map of the JSON properties, or null if the body is empty
+     * @throws JsonSyntaxException if the body is no JSON object
+     */
     public Map<String, Object> getJson() {
-        // Parse body as JSON
-        Gson gson = new Gson();
-        java.lang.reflect.Type mapType = new TypeToken<Map<String, Object>>(){}.getType();
-        Map<String, Object> json = gson.fromJson(body, mapType);
-        return json;
+        return parsedBody().json();
     }
 
     public int getInt(String key) {
-        try {
-            Map<String, Object> json = getJson();
-            return ((Number)json.get(key)).intValue();
-        } catch (JsonSyntaxException e) {
-            Map<String, String> data = getFormData();
-            return Integer.parseInt(data.get(key));
+        ParsedBody parsed = parsedBody();
+        if (parsed.isJson()) {
+            return ((Number) parsed.json().get(key)).intValue();
         }
+        return Integer.parseInt(parsed.form().get(key));
     }
     public String getString(String key) {
-        try {
-            Map<String, Object> json = getJson();
-            return (String)json.get(key);
-        } catch (JsonSyntaxException e) {
-            Map<String, String> data = getFormData();
-            return data.get(key);
+        ParsedBody parsed = parsedBody();
+        if (parsed.isJson()) {
+            return (String) parsed.json().get(key);
         }
+        return parsed.form().get(key);
     }
     public boolean getBoolean(String key) {
-        try {
-            Map<String, Object> json = getJson();
-            return json.containsKey(key) && (boolean) json.get(key);
-        } catch (JsonSyntaxException e) {
-            Map<String, String> data = getFormData();
-            return Boolean.parseBoolean(data.get(key));
+        ParsedBody parsed = parsedBody();
+        if (parsed.isJson()) {
+            Object value = parsed.json().get(key);
+            return value != null && (boolean) value;
         }
+        return Boolean.parseBoolean(parsed.form().get(key));
     }
     public List<?> getList(String key) {
         return (List<?>) getJson().get(key);
     }
     public boolean containsKey(String key) {
-        try {
-            Map<String, Object> json = getJson();
-            return json.containsKey(key);
-        } catch (JsonSyntaxException e) {
+        ParsedBody parsed = parsedBody();
+        if (parsed.isJson()) {
+            return parsed.json() != null && parsed.json().containsKey(key);
+        }
+        return parsed.formError == null && parsed.form.containsKey(key);
+    }
+
+    /**
+     * Returns the parsed body, parsing it on the first call.
+     * Concurrent first calls may both parse the body, the result is the same.
+     */
+    private ParsedBody parsedBody() {
+        ParsedBody parsed = parsedBody;
+        if (parsed == null) {
+            parsed = ParsedBody.parse(body);
+            parsedBody = parsed;
+        }
+        return parsed;
+    }
+
+    /**
+     * The body, parsed once as JSON or, if it is no JSON, as form data.
+     * The failures are kept as well, so a malformed body is not parsed again by every accessor.
+     */
+    private static final class ParsedBody {
+        private static final Type MAP_TYPE = new TypeToken<Map<String, Object>>(){}.getType();
+
+        private final Map<String, Object> json;
+        private final JsonSyntaxException jsonError;
+        private final Map<String, String> form;
+        private final IllegalArgumentException formError;
+
+        private ParsedBody(Map<String, Object> json, JsonSyntaxException jsonError, Map<String, String> form, IllegalArgumentException formError) {
+            this.json = json;
+            this.jsonError = jsonError;
+            this.form = form;
+            this.formError = formError;
+        }
+
+        static ParsedBody parse(String body) {
+            Map<String, Object> json = null;
+            JsonSyntaxException jsonError = null;
+            try {
+                json = JSONUtils.GSON.fromJson(body, MAP_TYPE);
+                if (json != null) json = Collections.unmodifiableMap(json);
+            } catch (JsonSyntaxException e) {
+                jsonError = e;
+            }
+            Map<String, String> form = null;
+            IllegalArgumentException formError = null;
             try {
-                Map<String, String> data = getFormData();
-                return data.containsKey(key);
-            } catch (IllegalArgumentException e2) {
-                return false;
+                form = parseFormData(body);
+            } catch (IllegalArgumentException e) {
+                formError = e;
             }
+            return new ParsedBody(json, jsonError, form, formError);
+        }
+
+        private static Map<String, String> parseFormData(String body) {
+            // A request with Content-Length: 0 has no body at all
+            if (body == null || body.isEmpty()) return Map.of();
+            else if (!Character.isLetter(body.charAt(0))) throw new IllegalArgumentException("No Form Data");
+            Map<String, String> params = new HashMap<>();
+            // Parse body as form data: key1=value1&key2=value2
+            String[] pairs = body.split("&");
+            for (String pair : pairs) {
+                String[] kv = pair.split("=");
+                if (kv.length == 2) {
+                    params.put(kv[0], kv[1]);
+                } else {
+                    throw new IllegalArgumentException("No form data");
+                }
+            }
+            return Collections.unmodifiableMap(params);
+        }
+
+        boolean isJson() {
+            return jsonError == null;
+        }
+        Map<String, Object> json() {
+            if (jsonError != null) throw new JsonSyntaxException(jsonError.getMessage(), jsonError);
+            return json;
+        }
+        Map<String, String> form() {
+            if (formError != null) throw new IllegalArgumentException(formError.getMessage(), formError);
+            return form;
         }
     }
 
@@ -198,6 +258,6 @@ public class PostRequest implements HttpRequest {
      * @return a ResourceLocation object representing the path of the POST request
      */
     public ResourceLocation toResourceLocation(String username) {
-        return de.igslandstuhl.database.server.webserver.WebResourceHandler.locationFromPath(path, User.getUser(username));
+        return de.igslandstuhl.database.server.webserver.WebResourceHandler.locationFromPath(header.getPath(), User.getUser(username));
     }
 }
\ No newline at end of file
@@ -1,22 +1,35 @@
 package de.igslandstuhl.database.server.webserver.responses;
 
 import java.io.FileNotFoundException;
-import java.io.InputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 
-import de.igslandstuhl.database.server.Server;
+import com.google.gson.stream.JsonWriter;
+
+import de.igslandstuhl.database.api.User;
+import de.igslandstuhl.database.server.resources.AssetCache;
+import de.igslandstuhl.database.server.resources.AssetCache.Asset;
 import de.igslandstuhl.database.server.resources.ResourceHelper;
 import de.igslandstuhl.database.server.resources.ResourceLocation;
 import de.igslandstuhl.database.server.webserver.AccessManager;
 import de.igslandstuhl.database.server.webserver.ContentType;
+import de.igslandstuhl.database.server.webserver.Cookie;
 import de.igslandstuhl.database.server.webserver.NoWebResourceException;
 import de.igslandstuhl.database.server.webserver.Status;
 import de.igslandstuhl.database.server.webserver.requests.HttpRequest;
+import de.igslandstuhl.database.utils.JSONUtils;
+import de.igslandstuhl.database.utils.JSONWritable;
 
 /**
  * Represents a response to a GET request in the web server.
  */
 public class GetResponse implements HttpResponse {
+    /**
+     * How long browsers may reuse scripts, styles and images of the public spaces without asking again, in seconds.
+     */
+    private static final int STATIC_MAX_AGE = 3600;
     /**
      * Returns a response for a GET request that was not found.
      * @return the GetResponse object
@@ -93,9 +106,18 @@ public class GetResponse implements HttpResponse {
      * @return the GetResponse object
      */
     public static GetResponse getResource(HttpRequest request, ResourceLocation resourceLocation, String user) {
+        return resourceFor(request, resourceLocation, User.getUser(user));
+    }
+    /**
+     * Returns a response for a GET request for the given resource.
+     * @param resourceLocation the location of the resource to be returned
+     * @param user the user who made the request, e.g. from the {@link de.igslandstuhl.database.server.webserver.RequestContext} of the request
+     * @return the GetResponse object
+     */
+    public static GetResponse resourceFor(HttpRequest request, ResourceLocation resourceLocation, User user) {
         try {
             if (AccessManager.hasAccess(user, resourceLocation)) {
-                return new GetResponse(request, Status.OK, resourceLocation, ContentType.ofResourceLocation(resourceLocation), user);
+                return new GetResponse(request, Status.OK, resourceLocation, ContentType.ofResourceLocation(resourceLocation), user != null ? user.getUsername() : null);
             } else {
                 return unauthorized(request);
             }
@@ -110,36 +132,67 @@ public class GetResponse implements HttpResponse {
      * @param out the PrintWriter to write the response to
      */
     public void respond(PrintStream out) {
+        boolean started = false;
         try {
-            out.print("HTTP/1.1 "); status.write(out); out.println();
-            if (contentType != null) {
-                out.print("Content-Type: "); out.print(contentType.getName());
-                if (contentType.isText()) {
-                    out.print("; charset=");out.print(charset);
-                }
-                out.println();
-                out.println("Set-Cookie: " + Server.getInstance().getWebServer().getSessionManager().getSession(request).createSessionCookie());
+            // Everything that can fail is done before the first byte is written, so an error page can still be sent instead
+            Asset asset = resourceLocation != null && !resourceLocation.isVirtual() ? AssetCache.get(resourceLocation) : null;
+            JSONWritable virtualResource = null;
+            if (asset == null && resourceLocation != null) {
+                virtualResource = ResourceHelper.virtualResourceWriter(user, resourceLocation, request != null && request.wantsNormalizedJSON());
+                if (virtualResource == null) throw new NullPointerException();
             }
-            out.println(); // <--- This line is important: seperates Header and Body!
-            if (contentType.isText()) {
-                String resource = "";
-                if (resourceLocation != null) {
-                    if (!resourceLocation.isVirtual()) {
-                        resource = ResourceHelper.readResourceCompletely(resourceLocation);
-                    } else {
-                        resource = ResourceHelper.readVirtualResource(user, resourceLocation);
-                        if (resource == null) throw new NullPointerException();
+            boolean validators = asset != null && status == Status.OK;
+            boolean notModified = validators && request != null && asset.matches(request.getHeader().get("If-None-Match"));
+            boolean gzip = asset != null && asset.gzipContent() != null && request != null && request.getHeader().acceptsEncoding("gzip");
+
+            started = true;
+            out.print("HTTP/1.1 "); (notModified ? Status.NOT_MODIFIED : status).write(out); out.print("\r\n");
+            if (contentType != null) {
+                if (!notModified) {
+                    out.print("Content-Type: "); out.print(contentType.getName());
+                    if (contentType.isText()) {
+                        out.print("; charset=");out.print(charset);
                     }
+                    out.print("\r\n");
+                    if (gzip) out.print("Content-Encoding: gzip\r\n");
                 }
-                out.println(resource);
-            } else {
-                try (InputStream in = ResourceHelper.openResourceAsStream(resourceLocation)) {
-                    in.transferTo(out); // Streams bytes directly
-                }
+                // Public assets are served without looking at the session, see WebServer
+                Cookie cookie = resourceLocation != null && AccessManager.isPublicAsset(resourceLocation) ? null : HttpResponse.sessionCookie(request);
+                if (cookie != null) out.print("Set-Cookie: " + cookie + "\r\n");
+            }
+            if (asset != null && asset.gzipContent() != null) {
+                out.print("Vary: Accept-Encoding\r\n");
+            }
+            if (validators) {
+                out.print("ETag: " + asset.etag(gzip) + "\r\n");
+                out.print("Last-Modified: " + asset.lastModified() + "\r\n");
+                out.print("Cache-Control: " + cacheControl() + "\r\n");
+            }
+            out.print("\r\n"); // <--- This line is important: seperates Header and Body!
+            if (notModified) {
+                // A 304 response never has a body
+            } else if (asset != null) {
+                out.write(asset.content(gzip));
+            } else if (virtualResource != null) {
+                // Generated resources are written straight to the response, see ResponseWriter for the framing
+                Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+                JsonWriter json = JSONUtils.newWriter(writer);
+                virtualResource.writeJSON(json);
+                json.flush();
             }
-        } catch (FileNotFoundException e) {
-            notFound(request).respond(out);
         } catch (Exception e) {
+            if (started) {
+                // Part of the response may already be sent, only closing the connection tells the client it is incomplete
+                throw new IllegalStateException("Writing the response failed", e);
+            }
+            respondError(out, e);
+        }
+    }
+
+    private void respondError(PrintStream out, Exception e) {
+        if (e instanceof FileNotFoundException) {
+            notFound(request).respond(out);
+        } else {
             e.printStackTrace();
             if (status != Status.INTERNAL_SERVER_ERROR) {
                 internalServerError(request).respond(out);
@@ -149,12 +202,25 @@ public class GetResponse implements HttpResponse {
         }
     }
 
+    /**
+     * Returns the Cache-Control directive for this resource.
+     * Only scripts, styles and images of the public spaces may be reused for a while, they are the same for every user.
+     * Everything else is revalidated with its ETag on every visit: pages depend on the login, and the same path is
+     * resolved to a different file for each role (see RouteTable), so a shared browser must not reuse the file of the previous user.
+     * All resources are private as the access to them is checked per user.
+     * @return the value of the Cache-Control header
+     */
+    private String cacheControl() {
+        boolean reusable = contentType != ContentType.HTML && resourceLocation != null && AccessManager.isPublicAsset(resourceLocation);
+        return reusable ? "private, max-age=" + STATIC_MAX_AGE : "private, no-cache";
+    }
+
     public String getResponseBody() throws FileNotFoundException {
         if (resourceLocation != null) {
             if (!resourceLocation.isVirtual()) {
-                return ResourceHelper.readResourceCompletely(resourceLocation);
+                return new String(AssetCache.get(resourceLocation).content(), StandardCharsets.UTF_8);
             } else {
-                return ResourceHelper.readVirtualResource(user, resourceLocation);
+                return ResourceHelper.readVirtualResource(user, resourceLocation, request != null && request.wantsNormalizedJSON());
             }
         }
         return "";
@@ -1,11 +1,13 @@
 package de.igslandstuhl.database.server.webserver.responses;
 
+import java.io.FileNotFoundException;
 import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
 
-import de.igslandstuhl.database.server.Server;
-import de.igslandstuhl.database.server.resources.ResourceHelper;
+import de.igslandstuhl.database.server.resources.AssetCache;
 import de.igslandstuhl.database.server.resources.ResourceLocation;
 import de.igslandstuhl.database.server.webserver.ContentType;
+import de.igslandstuhl.database.server.webserver.Cookie;
 import de.igslandstuhl.database.server.webserver.Status;
 import de.igslandstuhl.database.server.webserver.requests.HttpRequest;
 
@@ -27,30 +29,7 @@ public interface HttpResponse {
             }
             @Override
             public void respond(PrintStream out) {
-                out.print("HTTP/1.1 ");errorStatus.write(out);out.println();
-                out.print("Content-Type: text/html");
-                out.print("; charset=UTF8");
-                out.println();
-                out.println("Set-Cookie: " + Server.getInstance().getWebServer().getSessionManager().getSession(request).createSessionCookie());
-                out.println(); // <--- This line is important: seperates Header and Body!
-                ResourceLocation resourceLocation = new ResourceLocation("html", "errors", errorStatus.getCode() + ".html");
-                String resource;
-                try {
-                    resource = ResourceHelper.readResourceCompletely(resourceLocation);
-                    out.println(resource);
-                } catch (Exception e) {
-                    if (errorStatus != Status.INTERNAL_SERVER_ERROR) {
-                        resourceLocation = new ResourceLocation("html", "errors", errorStatus.getCode() + ".html");
-                        try {
-                            resource = ResourceHelper.readResourceCompletely(resourceLocation);
-                            out.println(resource);
-                        } catch (Exception e2) {
-                            throw new IllegalStateException(e);
-                        }
-                    } else {
-                        throw new IllegalStateException(e);
-                    }
-                }
+                writeErrorPage(out, request, errorStatus);
             }
             @Override
             public ContentType getContentType() {
@@ -72,20 +51,7 @@ public interface HttpResponse {
             }
             @Override
             public void respond(PrintStream out) {
-                out.print("HTTP/1.1 ");errorStatus.write(out);out.println();
-                out.print("Content-Type: text/html");
-                out.print("; charset=UTF8");
-                out.println();
-                out.println("Set-Cookie: " + Server.getInstance().getWebServer().getSessionManager().getSession(request).createSessionCookie());
-                out.println(); // <--- This line is important: seperates Header and Body!
-                ResourceLocation resourceLocation = new ResourceLocation("html", "errors", errorStatus.getCode() + ".html");
-                String resource;
-                try {
-                    resource = ResourceHelper.readResourceCompletely(resourceLocation);
-                    out.println(resource);
-                } catch (Exception e) {
-                    throw new IllegalStateException(e);
-                }
+                writeErrorPage(out, request, errorStatus);
             }
             @Override
             public ContentType getContentType() {
@@ -94,4 +60,73 @@ public interface HttpResponse {
             
         };
     }
+    /**
+     * Returns the response to a request that exceeded its rate limit.
+     * @param request the request
+     * @param retryAfterNanos the time until the request may be retried, sent as Retry-After in whole seconds
+     * @return the response with status 429
+     */
+    public static HttpResponse tooManyRequests(HttpRequest request, long retryAfterNanos) {
+        long retryAfter = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(retryAfterNanos + TimeUnit.SECONDS.toNanos(1) - 1));
+        return new HttpResponse() {
+            @Override
+            public Status getStatus() {
+                return Status.TOO_MANY_REQUESTS;
+            }
+            @Override
+            public HttpRequest getHttpRequest() {
+                return request;
+            }
+            @Override
+            public void respond(PrintStream out) {
+                out.print("HTTP/1.1 ");Status.TOO_MANY_REQUESTS.write(out);out.print("\r\n");
+                out.print("Content-Type: text/plain; charset=UTF-8\r\n");
+                out.print("Retry-After: " + retryAfter + "\r\n");
+                out.print("\r\n");
+                out.print("Too many requests, retry in " + retryAfter + " seconds");
+            }
+            @Override
+            public ContentType getContentType() {
+                return ContentType.TEXT_PLAIN;
+            }
+        };
+    }
+
+    /**
+     * Returns the cookie of the session of a request, to refresh it with the response.
+     * No session is created: requests without one stay anonymous until they log in.
+     * @param request the request that is answered, may be null
+     * @return the session cookie, or null if the request has no session
+     */
+    public static Cookie sessionCookie(HttpRequest request) {
+        return request != null ? request.getRequestContext().getSessionCookie() : null;
+    }
+
+    /**
+     * Writes the error page of the given status.
+     * The page is loaded before the header is written, so a missing page does not leave a half written response.
+     * @param out the stream to write to
+     * @param request the request that is answered
+     * @param errorStatus the status of the response, the page is html/errors/[code].html or the page of 500 if there is none
+     */
+    private static void writeErrorPage(PrintStream out, HttpRequest request, Status errorStatus) {
+        byte[] page;
+        try {
+            page = AssetCache.get(new ResourceLocation("html", "errors", errorStatus.getCode() + ".html")).content();
+        } catch (FileNotFoundException e) {
+            if (errorStatus == Status.INTERNAL_SERVER_ERROR) throw new IllegalStateException(e);
+            // Not every status has its own page
+            try {
+                page = AssetCache.get(new ResourceLocation("html", "errors", Status.INTERNAL_SERVER_ERROR.getCode() + ".html")).content();
+            } catch (FileNotFoundException e2) {
+                throw new IllegalStateException(e);
+            }
+        }
+        out.print("HTTP/1.1 ");errorStatus.write(out);out.print("\r\n");
+        out.print("Content-Type: text/html; charset=UTF-8\r\n");
+        Cookie cookie = sessionCookie(request);
+        if (cookie != null) out.print("Set-Cookie: " + cookie + "\r\n");
+        out.print("\r\n"); // <--- This line is important: seperates Header and Body!
+        out.write(page, 0, page.length);
+    }
 }
@@ -3,8 +3,6 @@ package de.igslandstuhl.database.server.webserver.responses;
 import java.io.FileNotFoundException;
 import java.io.PrintStream;
 
-import com.google.gson.Gson;
-
 import de.igslandstuhl.database.server.Server;
 import de.igslandstuhl.database.server.resources.ResourceLocation;
 import de.igslandstuhl.database.server.webserver.AccessManager;
@@ -14,6 +12,7 @@ import de.igslandstuhl.database.server.webserver.NoWebResourceException;
 import de.igslandstuhl.database.server.webserver.Status;
 import de.igslandstuhl.database.server.webserver.requests.HttpRequest;
 import de.igslandstuhl.database.server.webserver.requests.PostRequest;
+import de.igslandstuhl.database.utils.JSONUtils;
 
 /**
  * Represents a response to a POST request in the web server.
@@ -58,7 +57,7 @@ public class PostResponse implements HttpResponse {
      * @param contentType The content type of the response.
      */
     private PostResponse(Status statusCode, String body, ContentType contentType, PostRequest request) {
-        this(statusCode, body, contentType, request, Server.getInstance().getWebServer().getSessionManager().getSession(request).createSessionCookie());
+        this(statusCode, body, contentType, request, HttpResponse.sessionCookie(request));
     }
     /**
      * Constructs a PostResponse with the given status code, body, content type, and cookie.
@@ -233,8 +232,7 @@ public class PostResponse implements HttpResponse {
         });
     }
     public static PostResponse json(Object json, PostRequest request) {
-        Gson gson = new Gson();
-        return new PostResponse(Status.OK, gson.toJson(json), ContentType.JSON, request);
+        return new PostResponse(Status.OK, JSONUtils.GSON.toJson(json), ContentType.JSON, request);
     }
     @Override
     public Status getStatus() {
@@ -1,5 +1,9 @@
 package de.igslandstuhl.database.utils;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
@@ -8,13 +12,20 @@ import java.util.function.BiConsumer;
 import java.util.function.Function;
 
 import com.google.gson.Gson;
+import com.google.gson.Strictness;
+import com.google.gson.stream.JsonWriter;
 
 import de.igslandstuhl.database.api.APIObject;
 
 public class JSONUtils {
+    /**
+     * The Gson instance shared by the server. Gson is thread-safe, so it is created once instead of per call.
+     */
+    public static final Gson GSON = new Gson();
+
     public static class JSONBuilder {
         private final Map<String, String> map = new HashMap<>();
-        private final Gson gson = new Gson();
+        private final Gson gson = GSON;
 
         public JSONBuilder addProperty(String property, Object o) {
             map.put(property, gson.toJson(o));
@@ -42,33 +53,78 @@ public class JSONUtils {
         }
         @Override
         public String toString() {
-            return "{" + map.entrySet().stream()
-                .map((e) -> '"' + e.getKey() + "\": " + e.getValue())
-                .reduce("", (s1, s2) -> s1 + ",\n    " + s2)
-                .replaceFirst(",", "") + "\n}";
+            StringBuilder builder = new StringBuilder("{");
+            String separator = "\n    ";
+            for (Map.Entry<String, String> e : map.entrySet()) {
+                builder.append(separator).append('"').append(e.getKey()).append("\": ").append(e.getValue());
+                separator = ",\n    ";
+            }
+            return builder.append("\n}").toString();
+        }
+    }
+    /**
+     * Creates a writer for JSON written to the given stream.
+     * Non-finite numbers are written as they are instead of failing the whole document.
+     * @param out the stream to write to
+     * @return the JSON writer
+     */
+    public static JsonWriter newWriter(Writer out) {
+        JsonWriter writer = new JsonWriter(out);
+        writer.setStrictness(Strictness.LENIENT);
+        return writer;
+    }
+    /**
+     * Serializes a single object.
+     * @param object the object to serialize
+     * @return the JSON representation
+     */
+    public static String toJSON(JSONWritable object) {
+        StringWriter out = new StringWriter();
+        try {
+            JsonWriter writer = newWriter(out);
+            object.writeJSON(writer);
+            writer.flush();
+        } catch (IOException e) {
+            // A StringWriter never fails
+            throw new UncheckedIOException(e);
         }
+        return out.toString();
+    }
+    /**
+     * Writes the objects as a JSON array, null elements are written as null.
+     * @param out the writer to write to
+     * @param objects the objects to write
+     * @throws IOException if writing fails
+     */
+    public static void writeJSON(JsonWriter out, Iterable<? extends JSONWritable> objects) throws IOException {
+        out.beginArray();
+        for (JSONWritable object : objects) {
+            if (object == null) {
+                out.nullValue();
+            } else {
+                object.writeJSON(out);
+            }
+        }
+        out.endArray();
     }
     public static String toJSON(List<? extends APIObject> list) {
-        return "[" + list.stream()
-            .map(APIObject::toJSON)
-            .reduce("", (s1, s2) -> s1 + ",\n    " + s2)
-            .replaceFirst(",", "") + "\n]";
+        return toJSON(out -> writeJSON(out, list));
     }
     public static <T> String toJSON(List<T> list, BiConsumer<T, JSONBuilder> jsonHandler) {
-        return "[" + list.stream()
-            .map((t) -> {
-                JSONBuilder builder = new JSONBuilder();
-                jsonHandler.accept(t, builder);
-                return builder.toString();
-            })
-            .reduce("", (s1, s2) -> s1 + ",\n    " + s2)
-            .replaceFirst(",", "") + "\n]";
+        return toJON(list, (t) -> {
+            JSONBuilder builder = new JSONBuilder();
+            jsonHandler.accept(t, builder);
+            return builder.toString();
+        });
     }
     public static <T> String toJON(List<T> list, Function<T, String> jsonHandler) {
-        return "[" + list.stream()
-            .map(jsonHandler)
-            .reduce("", (s1, s2) -> s1 + ",\n    " + s2)
-            .replaceFirst(",", "") + "\n]";
+        StringBuilder builder = new StringBuilder("[");
+        String separator = "\n    ";
+        for (T t : list) {
+            builder.append(separator).append(jsonHandler.apply(t));
+            separator = ",\n    ";
+        }
+        return builder.append("\n]").toString();
     }
     public static String toJSON(int[] arr) {
         return Arrays.toString(arr);
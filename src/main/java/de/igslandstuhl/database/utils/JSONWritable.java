@@ -0,0 +1,19 @@
+package de.igslandstuhl.database.utils;
+
+import java.io.IOException;
+
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Something that can write itself as one JSON value to a {@link JsonWriter}.
+ * Writing to a stream avoids building the whole document as a String first.
+ */
+@FunctionalInterface
+public interface JSONWritable {
+    /**
+     * Writes this object as one JSON value.
+     * @param out the writer to write to
+     * @throws IOException if writing fails
+     */
+    public void writeJSON(JsonWriter out) throws IOException;
+}
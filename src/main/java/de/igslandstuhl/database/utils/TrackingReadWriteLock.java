@@ -1,7 +1,7 @@
 package de.igslandstuhl.database.utils;
 
-import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
@@ -10,8 +10,8 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class TrackingReadWriteLock implements ReadWriteLock {
     private final ReadWriteLock intern = new ReentrantReadWriteLock(true);
-    private final Set<Thread> readingThreads = new HashSet<>();
-    private Thread writingThread = null;
+    private final Set<Thread> readingThreads = ConcurrentHashMap.newKeySet();
+    private volatile Thread writingThread = null;
 
     private final ReadLock readLock = new ReadLock();
     private final WriteLock writeLock = new WriteLock();
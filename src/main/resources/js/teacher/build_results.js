@@ -120,12 +120,13 @@ function createBarChart(subject, subjectName, studentData) {
 
 document.addEventListener('DOMContentLoaded', async () => {
   // Load student data (reuse endpoint from dashboard)
-  const res = await fetch('/student-data', {
+  const res = await fetch('/student-data?normalized', {
     method: 'POST',
     headers: { 'Content-Type': 'application/json' },
     body: JSON.stringify({ studentId: studentId })
   });
-  const studentData = await res.json();
+  // Only the progress is shown, the normalized form keeps the tasks short
+  const studentData = (await res.json()).data;
 
   document.getElementById('student-name').textContent = `${studentData.firstName} ${studentData.lastName}`;
 
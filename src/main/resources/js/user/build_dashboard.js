@@ -84,6 +84,30 @@ async function fetchJson(url, options) {
   return await res.json();
 }
 
+// Fetches JSON in the normalized form, which sends every topic, subject and class only once,
+// and puts the referenced objects back in place, so the result looks like the normal form
+async function fetchNormalized(url, options) {
+  const res = await fetch(url + (url.includes('?') ? '&' : '?') + 'normalized', options);
+  if (!res.ok) return undefined;
+  const { data, topics, subjects, classes } = await res.json();
+  Object.values(topics).forEach(topic => {
+    if (typeof topic.subject === 'number') topic.subject = subjects[topic.subject];
+  });
+  const resolveTask = task => {
+    if (task && typeof task.topic === 'number') task.topic = topics[task.topic];
+  };
+  const resolve = item => {
+    if (item && Array.isArray(item.selectedTasks)) {
+      [item.selectedTasks, item.completedTasks, item.lockedTasks].forEach(tasks => tasks.forEach(resolveTask));
+      if (typeof item.schoolClass === 'number') item.schoolClass = classes[item.schoolClass];
+    } else {
+      resolveTask(item);
+    }
+    return item;
+  };
+  return Array.isArray(data) ? data.map(resolve) : resolve(data);
+}
+
 function setStudentInfo(studentData) {
   document.getElementById('student-name').textContent = `${studentData.firstName} ${studentData.lastName}`;
   document.getElementById('student-class').textContent = studentData.schoolClass.label;
@@ -163,7 +187,7 @@ function createPanel(subject, studentData) {
     )
     let allTasks = [];
     if (Array.isArray(topic.tasks) && topic.tasks.length > 0) {
-      allTasks = await fetchJson('/tasks', {
+      allTasks = await fetchNormalized('/tasks', {
         method: 'POST',
         headers: { 'Content-Type': 'application/json' },
         body: JSON.stringify({ ids: topic.tasks })
@@ -229,7 +253,7 @@ function createPanel(subject, studentData) {
 
 document.addEventListener('DOMContentLoaded', async () => {
   // Load base data
-  studentData = await fetchJson('/mydata');
+  studentData = await fetchNormalized('/mydata');
   const rooms = await fetchJson('/rooms');
   const subjects = await fetchJson('/mysubjects');
 
@@ -3,7 +3,31 @@ async function fetchJson(url, options) {
     return await res.json();
 }
 
-const studentData = fetchJson("/mydata");
+// Fetches JSON in the normalized form, which sends every topic, subject and class only once,
+// and puts the referenced objects back in place, so the result looks like the normal form
+async function fetchNormalized(url, options) {
+    const res = await fetch(url + (url.includes('?') ? '&' : '?') + 'normalized', options);
+    if (!res.ok) return undefined;
+    const { data, topics, subjects, classes } = await res.json();
+    Object.values(topics).forEach(topic => {
+        if (typeof topic.subject === 'number') topic.subject = subjects[topic.subject];
+    });
+    const resolveTask = task => {
+        if (task && typeof task.topic === 'number') task.topic = topics[task.topic];
+    };
+    const resolve = item => {
+        if (item && Array.isArray(item.selectedTasks)) {
+            [item.selectedTasks, item.completedTasks, item.lockedTasks].forEach(tasks => tasks.forEach(resolveTask));
+            if (typeof item.schoolClass === 'number') item.schoolClass = classes[item.schoolClass];
+        } else {
+            resolveTask(item);
+        }
+        return item;
+    };
+    return Array.isArray(data) ? data.map(resolve) : resolve(data);
+}
+
+const studentData = fetchNormalized("/mydata");
 
 function populateSubjectSelect(subjectSelect, subjects) {
     console.log("Populating subject select with subjects:", subjects);
@@ -118,8 +118,9 @@ function createBarChart(subject, subjectName, studentData) {
 
 document.addEventListener('DOMContentLoaded', async () => {
   // Load student data (reuse endpoint from dashboard)
-  const res = await fetch('/mydata');
-  const studentData = await res.json();
+  const res = await fetch('/mydata?normalized');
+  // Only the progress is shown, the normalized form keeps the tasks short
+  const studentData = (await res.json()).data;
 
   document.getElementById('student-name').textContent = `${studentData.firstName} ${studentData.lastName}`;
 
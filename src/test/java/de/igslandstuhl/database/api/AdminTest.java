@@ -24,4 +24,13 @@ public class AdminTest {
         assert !fetchedAdmin.isStudent();
         assert fetchedAdmin.equals(admin);
     }
-}
\ No newline at end of file
+    @Test
+    public void testUserIndex() throws Exception {
+        Admin admin = Admin.create("indexedAdmin", "adminPass");
+        assert User.getUser("indexedAdmin") == admin;
+        Admin changed = admin.setPassword("otherPass");
+        assert User.getUser("indexedAdmin") == changed;
+        changed.delete();
+        assert User.getUser("indexedAdmin") == null;
+    }
+}
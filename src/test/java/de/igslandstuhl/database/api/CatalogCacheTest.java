@@ -0,0 +1,25 @@
+package de.igslandstuhl.database.api;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+public class CatalogCacheTest {
+    @Test
+    public void fragmentIsCachedUntilInvalidated() {
+        AtomicInteger serializations = new AtomicInteger();
+        CatalogCache.Fragment fragment = new CatalogCache.Fragment(out -> out.value(serializations.incrementAndGet()));
+        String first = fragment.get();
+        assertEquals("1", first);
+        assertSame(first, fragment.get());
+        assertEquals(1, serializations.get());
+
+        CatalogCache.invalidate();
+        assertEquals("2", fragment.get());
+        assertEquals("2", fragment.get());
+        assertEquals(2, serializations.get());
+    }
+}
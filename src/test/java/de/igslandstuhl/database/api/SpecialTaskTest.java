@@ -3,10 +3,14 @@ package de.igslandstuhl.database.api;
 import static org.junit.jupiter.api.Assertions.*;
 
 import java.sql.SQLException;
+import java.util.List;
 
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 
+import de.igslandstuhl.database.server.Server;
+import de.igslandstuhl.database.utils.JSONUtils;
+
 public class SpecialTaskTest {
     @BeforeAll
     public static void setupServer() throws SQLException {
@@ -29,7 +33,19 @@ public class SpecialTaskTest {
         PreConditions.addSampleStudent();
         SpecialTask task = SpecialTask.get(1);
         Student student = Student.get(0);
-        student.assignCompletedSpecialTask(task);
+        Server.getInstance().getConnection().await(student.assignCompletedSpecialTask(task));
         assertTrue(student.getCompletedTasks().contains(task));
     }
+    @Test
+    public void writeJSON() {
+        SpecialTask task = new SpecialTask(3, "Projekt", 0.5, new Subject(2, "Mathematik"));
+        assertEquals("{\"id\":3,\"name\":\"Projekt\",\"ratio\":0.5,\"subject\":\"Mathematik\"}", task.toJSON());
+        assertEquals(task.toJSON(), task.toString());
+    }
+    @Test
+    public void writeNormalizedJSON() {
+        SpecialTask task = new SpecialTask(3, "Projekt", 0.5, new Subject(2, "Mathematik"));
+        String json = JSONUtils.toJSON(NormalizedJSON.ofList(List.of(task)));
+        assertEquals("{\"data\":[" + task.toJSON() + "],\"topics\":{},\"subjects\":{},\"classes\":{}}", json);
+    }
 }
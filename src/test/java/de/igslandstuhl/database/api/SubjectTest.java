@@ -3,10 +3,14 @@ package de.igslandstuhl.database.api;
 import static org.junit.jupiter.api.Assertions.*;
 
 import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Map;
 
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 
+import de.igslandstuhl.database.utils.JSONUtils;
+
 public class SubjectTest {
     @BeforeAll
     public static void setupServer() throws SQLException {
@@ -30,4 +34,12 @@ public class SubjectTest {
             "Subject not found in SchoolClass"
         );
     }
+    @Test
+    public void writeJSON() {
+        Subject subject = new Subject(7, "Deutsch \"LK\"");
+        assertEquals("{\"id\":7,\"name\":\"Deutsch \\\"LK\\\"\"}", subject.toJSON());
+        assertEquals("[" + subject.toJSON() + ",null]", JSONUtils.toJSON(Arrays.asList(subject, null)));
+        Map<?, ?> parsed = JSONUtils.GSON.fromJson(subject.toJSON(), Map.class);
+        assertEquals("Deutsch \"LK\"", parsed.get("name"));
+    }
 }
@@ -17,8 +17,17 @@ public class TaskTest {
     @Test
     public void addTask() throws SQLException {
         Task added = Task.addTask(Topic.get(1), "Addition", TaskLevel.LEVEL1);
-        Task task = Task.get(1);
+        assertNotNull(added);
+        Task task = Task.get(added.getId());
         assertNotNull(task);
         assertEquals(added, task);
     }
+    @Test
+    public void addSpecialLevelTask() throws SQLException {
+        Task added = Task.addTask(Topic.get(1), "Knobelaufgabe", TaskLevel.SPECIAL);
+        assertNotNull(added);
+        Task task = Task.get(added.getId());
+        assertNotNull(task);
+        assertEquals(TaskLevel.SPECIAL, task.getNiveau());
+    }
 }
@@ -0,0 +1,63 @@
+package de.igslandstuhl.database.api;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import org.junit.jupiter.api.Test;
+
+public class UserIndexTest {
+    private static User user(String username) {
+        return new User() {
+            @Override
+            public boolean isTeacher() {
+                return false;
+            }
+            @Override
+            public boolean isStudent() {
+                return false;
+            }
+            @Override
+            public boolean isAdmin() {
+                return false;
+            }
+            @Override
+            public String getPasswordHash() {
+                return null;
+            }
+            @Override
+            public String toJSON() {
+                return "{}";
+            }
+            @Override
+            public User setPassword(String password) {
+                return this;
+            }
+            @Override
+            public String getUsername() {
+                return username;
+            }
+        };
+    }
+
+    @Test
+    void indexedUsersAreFoundWithoutDatabase() {
+        User user = user("index@test.de");
+        assertSame(user, UserIndex.put(user));
+        assertSame(user, UserIndex.get("index@test.de"));
+        assertSame(user, User.getUser("index%40test.de"));
+
+        User replaced = user("index@test.de");
+        UserIndex.put(replaced);
+        assertSame(replaced, User.getUser("index@test.de"));
+
+        UserIndex.remove("index@test.de");
+        assertNull(UserIndex.get("index@test.de"));
+    }
+    @Test
+    void nullIsIgnored() {
+        assertNull(UserIndex.put(null));
+        UserIndex.remove(null);
+        assertEquals(User.ANONYMOUS, User.getUser(null));
+    }
+}
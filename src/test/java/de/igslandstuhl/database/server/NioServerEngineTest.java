@@ -0,0 +1,86 @@
+package de.igslandstuhl.database.server;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+public class NioServerEngineTest {
+    private static final byte[] REQUEST = "GET /site/style.css HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    @Test
+    public void testAnswersPipelinedRequests() throws Exception {
+        WebServer server = new WebServer(List.of(new WebServer.Listener(freePort(), false)), null, null, WebServer.Engine.NIO, 1, 2);
+        server.start();
+        try (Socket socket = new Socket("localhost", server.getListeners().get(0).port())) {
+            socket.setSoTimeout(5000);
+            OutputStream out = socket.getOutputStream();
+            out.write(REQUEST);
+            out.write(REQUEST);
+            out.flush();
+            InputStream in = socket.getInputStream();
+            String responses = "";
+            byte[] buffer = new byte[8192];
+            while (responses.split("HTTP/1.1 200 OK", -1).length < 3) {
+                int read = in.read(buffer);
+                assertTrue(read > 0);
+                responses += new String(buffer, 0, read, StandardCharsets.ISO_8859_1);
+            }
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testStopsReadingWhileResponsesAreNotRead() throws Exception {
+        WebServer server = new WebServer(List.of(new WebServer.Listener(freePort(), false)), null, null, WebServer.Engine.NIO, 1, 2);
+        server.setKeepAlive(30, Integer.MAX_VALUE);
+        server.start();
+        try (Socket socket = new Socket()) {
+            // A small receive buffer makes the responses pile up quickly
+            socket.setReceiveBufferSize(4096);
+            socket.connect(new InetSocketAddress("localhost", server.getListeners().get(0).port()));
+            long total = 64L * 1024 * 1024;
+            AtomicLong written = new AtomicLong();
+            Thread client = new Thread(() -> {
+                byte[] batch = new byte[REQUEST.length * 1024];
+                for (int i = 0; i < 1024; i++) {
+                    System.arraycopy(REQUEST, 0, batch, i * REQUEST.length, REQUEST.length);
+                }
+                try {
+                    OutputStream out = socket.getOutputStream();
+                    while (written.get() < total) {
+                        out.write(batch);
+                        written.addAndGet(batch.length);
+                    }
+                } catch (IOException e) {
+                    // Closed by the test
+                }
+            });
+            client.setDaemon(true);
+            client.start();
+            client.join(TimeUnit.SECONDS.toMillis(3));
+            // The server must not buffer the requests of a client that never reads, so the client's writes block
+            assertTrue(client.isAlive());
+            assertTrue(written.get() < total);
+        } finally {
+            server.stop();
+        }
+    }
+}
@@ -29,9 +29,12 @@ public class ServerTest {
     @Test
     public void testDatabaseConnection() throws SQLException {
         assertNotNull(server.getConnection());
-        Connection sqlConn = server.getConnection().getSQLConnection();
-        assertNotNull(sqlConn);
-        assertFalse(sqlConn.isClosed());
+        server.getConnection().withConnection(() -> {
+            Connection sqlConn = server.getConnection().getSQLConnection();
+            assertNotNull(sqlConn);
+            assertFalse(sqlConn.isClosed());
+            return null;
+        });
     }
 
     @Test
@@ -2,8 +2,19 @@ package de.igslandstuhl.database.server;
 
 import org.junit.jupiter.api.Test;
 import java.io.ByteArrayInputStream;
-import java.io.InputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
 import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import de.igslandstuhl.database.server.webserver.ContentType;
+import de.igslandstuhl.database.server.webserver.Cookie;
+import de.igslandstuhl.database.server.webserver.HttpHeader;
+import de.igslandstuhl.database.server.webserver.requests.PostRequest;
+import de.igslandstuhl.database.server.webserver.responses.PostResponse;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -18,11 +29,120 @@ public class WebServerTest {
     }
 
     @Test
-    public void testReadHeadersAsString() throws Exception {
-        String headers = "POST /test HTTP/1.1\r\nHost: localhost\r\nContent-Length: 11\r\n\r\n";
-        InputStream in = new ByteArrayInputStream(headers.getBytes(StandardCharsets.ISO_8859_1));
+    public void testKeepAliveRequested() {
+        WebServer.ClientHandler handler = new WebServer().new ClientHandler(null);
+        assertTrue(handler.isKeepAliveRequested(new HttpHeader("GET / HTTP/1.1\r\nHost: localhost\r\n\r\n")));
+        assertFalse(handler.isKeepAliveRequested(new HttpHeader("GET / HTTP/1.1\r\nConnection: close\r\n\r\n")));
+        assertFalse(handler.isKeepAliveRequested(new HttpHeader("GET / HTTP/1.0\r\nHost: localhost\r\n\r\n")));
+        assertTrue(handler.isKeepAliveRequested(new HttpHeader("GET / HTTP/1.0\r\nConnection: Keep-Alive\r\n\r\n")));
+    }
+
+    @Test
+    public void testWriteResponseFramesBody() throws Exception {
         WebServer.ClientHandler handler = new WebServer().new ClientHandler(null);
-        String result = handler.readHeadersAsString(in);
-        assertTrue(result.contains("Content-Length: 11"));
+        PostRequest request = new PostRequest("POST /login HTTP/1.1", null, "127.0.0.1", true);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertTrue(handler.writeResponse(PostResponse.ok("Tëst", ContentType.TEXT_PLAIN, request, new Cookie("test-key", "test-value")), true, out));
+        String result = out.toString(StandardCharsets.UTF_8);
+        assertTrue(result.startsWith("HTTP/1.1 200 OK\r\n"));
+        assertTrue(result.contains("Content-Length: 5\r\n"));
+        assertTrue(result.contains("Connection: keep-alive\r\n"));
+        assertTrue(result.endsWith("\r\n\r\nTëst"));
+
+        out.reset();
+        assertFalse(handler.writeResponse(PostResponse.ok("Test", ContentType.TEXT_PLAIN, request, new Cookie("test-key", "test-value")), false, out));
+        assertTrue(out.toString(StandardCharsets.UTF_8).contains("Connection: close\r\n"));
+    }
+
+    @Test
+    public void testWriteResponseCompressesLargeBodies() throws Exception {
+        WebServer.ClientHandler handler = new WebServer().new ClientHandler(null);
+        String body = "[" + "{\"name\":\"Test\"},".repeat(200) + "{}]";
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PostRequest plain = new PostRequest("POST /students HTTP/1.1", null, "127.0.0.1", true);
+        handler.writeResponse(PostResponse.ok(body, ContentType.JSON, plain, null), true, out);
+        assertFalse(out.toString(StandardCharsets.UTF_8).contains("Content-Encoding"));
+        assertTrue(out.toString(StandardCharsets.UTF_8).endsWith(body));
+
+        out.reset();
+        PostRequest gzip = new PostRequest("POST /students HTTP/1.1\r\nAccept-Encoding: gzip\r\n", null, "127.0.0.1", true);
+        handler.writeResponse(PostResponse.ok(body, ContentType.JSON, gzip, null), true, out);
+        byte[] bytes = out.toByteArray();
+        String result = new String(bytes, StandardCharsets.ISO_8859_1);
+        assertTrue(result.contains("Content-Encoding: gzip\r\n"));
+        assertTrue(result.contains("Vary: Accept-Encoding\r\n"));
+        int bodyStart = result.indexOf("\r\n\r\n") + 4;
+        assertTrue(result.contains("Content-Length: " + (bytes.length - bodyStart) + "\r\n"));
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes, bodyStart, bytes.length - bodyStart))) {
+            assertEquals(body, new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void testListenerOf() {
+        assertEquals(new WebServer.Listener(443, true), WebServer.Listener.of("https:443"));
+        assertEquals(List.of(new WebServer.Listener(443, true), new WebServer.Listener(8080, false)), WebServer.Listener.listOf("HTTPS:443, http:8080"));
+        assertThrows(IllegalArgumentException.class, () -> WebServer.Listener.of("ftp:21"));
+        assertThrows(IllegalArgumentException.class, () -> WebServer.Listener.of("http:70000"));
+        assertThrows(IllegalArgumentException.class, () -> WebServer.Listener.listOf(" , "));
+    }
+
+    @Test
+    public void testForwardedHeaders() {
+        WebServer server = new WebServer();
+        server.setTrustedProxies(List.of("10.0.0.1", "10.0.0.2"));
+        HttpHeader forwarded = new HttpHeader("GET / HTTP/1.1\r\nX-Forwarded-For: 1.2.3.4, 192.168.1.7, 10.0.0.2\r\nX-Forwarded-Proto: https\r\n\r\n");
+
+        WebServer.RequestProcessor proxy = server.new RequestProcessor("10.0.0.1", false);
+        assertEquals("192.168.1.7", proxy.clientIp(forwarded));
+        assertTrue(proxy.isSecure(forwarded));
+        assertEquals("10.0.0.1", proxy.clientIp(new HttpHeader("GET / HTTP/1.1\r\n\r\n")));
+        assertFalse(proxy.isSecure(new HttpHeader("GET / HTTP/1.1\r\nX-Forwarded-Proto: http\r\n\r\n")));
+
+        // Anybody else could send the headers, too
+        WebServer.RequestProcessor client = server.new RequestProcessor("192.168.1.8", false);
+        assertEquals("192.168.1.8", client.clientIp(forwarded));
+        assertFalse(client.isSecure(forwarded));
+    }
+
+    @Test
+    public void testEngineOf() {
+        assertEquals(WebServer.Engine.NIO, WebServer.Engine.of("nio"));
+        assertEquals(WebServer.Engine.BLOCKING, WebServer.Engine.of(" Blocking "));
+        assertThrows(IllegalArgumentException.class, () -> WebServer.Engine.of("epoll"));
+    }
+
+    private static String exchange(String requests) throws Exception {
+        int port;
+        try (ServerSocket free = new ServerSocket(0)) {
+            port = free.getLocalPort();
+        }
+        WebServer server = new WebServer(List.of(new WebServer.Listener(port, false)), null, null, WebServer.Engine.BLOCKING, 1, 1);
+        server.start();
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.setSoTimeout(5000);
+            OutputStream out = socket.getOutputStream();
+            out.write(requests.getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            socket.shutdownOutput();
+            return new String(socket.getInputStream().readAllBytes(), StandardCharsets.ISO_8859_1);
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testSkipsBodyOfGetRequest() throws Exception {
+        String responses = exchange("GET /site/style.css HTTP/1.1\r\nContent-Length: 11\r\n\r\nGET / HTTP/"
+                + "GET /site/style.css HTTP/1.1\r\nConnection: close\r\n\r\n");
+        assertEquals(3, responses.split("HTTP/1.1 200 OK", -1).length);
+        assertFalse(responses.contains("400 Bad Request"));
+    }
+
+    @Test
+    public void testMalformedRequestIsBadRequest() throws Exception {
+        String response = exchange("GET /site/style.css HTTP/1.1\r\nContent-Length: many\r\n\r\n");
+        assertTrue(response.startsWith("HTTP/1.1 400 Bad Request\r\n"));
+        assertTrue(response.contains("Connection: close\r\n"));
     }
 }
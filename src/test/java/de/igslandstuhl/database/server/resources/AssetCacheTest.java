@@ -0,0 +1,52 @@
+package de.igslandstuhl.database.server.resources;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.jupiter.api.Test;
+
+import de.igslandstuhl.database.server.resources.AssetCache.Asset;
+
+public class AssetCacheTest {
+    private static final ResourceLocation LOGIN = ResourceLocation.get("html", "site:login.html");
+
+    @Test
+    void testGetCachesResource() throws FileNotFoundException {
+        Asset asset = AssetCache.get(LOGIN);
+        assertSame(asset, AssetCache.get(LOGIN));
+        assertTrue(new String(asset.content(), StandardCharsets.UTF_8).contains("login"));
+        assertTrue(asset.etag().startsWith("\"") && asset.etag().endsWith("\""));
+        assertTrue(asset.lastModified().endsWith(" GMT"));
+    }
+
+    @Test
+    void testMissingResource() {
+        assertThrows(FileNotFoundException.class, () -> AssetCache.get(ResourceLocation.get("html", "site:missing.html")));
+    }
+
+    @Test
+    void testMatches() throws FileNotFoundException {
+        Asset asset = AssetCache.get(LOGIN);
+        assertFalse(asset.matches(null));
+        assertFalse(asset.matches("\"other\""));
+        assertTrue(asset.matches(asset.etag()));
+        assertTrue(asset.matches("\"other\", W/" + asset.etag()));
+        assertTrue(asset.matches("*"));
+    }
+
+    @Test
+    void testGzipVariant() throws IOException {
+        Asset asset = AssetCache.get(ResourceLocation.get("css", "site:style.css"));
+        assertNotNull(asset.gzipContent());
+        assertNotEquals(asset.etag(false), asset.etag(true));
+        assertTrue(asset.matches(asset.etag(true)));
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(asset.content(true)))) {
+            assertArrayEquals(asset.content(false), in.readAllBytes());
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package de.igslandstuhl.database.server.sql;
+
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Minimal JDBC objects for tests that do not need a database.
+ * Only the methods a fake is given support for can be called, all others throw an {@link UnsupportedOperationException}.
+ */
+final class JdbcFakes {
+    /**
+     * Implements one method of a fake.
+     */
+    @FunctionalInterface
+    interface Behavior {
+        Object invoke(Object proxy, Object[] args) throws Throwable;
+    }
+
+    private JdbcFakes() {}
+
+    /**
+     * Creates a fake of a JDBC interface. hashCode, equals and toString use the identity of the fake unless given.
+     * @param type the interface
+     * @param methods the supported methods by name
+     * @return the fake
+     */
+    static <T> T fake(Class<T> type, Map<String, Behavior> methods) {
+        Map<String, Behavior> supported = new HashMap<>();
+        supported.put("hashCode", (proxy, args) -> System.identityHashCode(proxy));
+        supported.put("equals", (proxy, args) -> proxy == args[0]);
+        supported.put("toString", (proxy, args) -> type.getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(proxy)));
+        supported.putAll(methods);
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, (proxy, method, args) -> {
+            Behavior implementation = supported.get(method.getName());
+            if (implementation == null) throw new UnsupportedOperationException(method.getName());
+            return implementation.invoke(proxy, args);
+        }));
+    }
+
+    /**
+     * Creates a result set positioned at a single row.
+     * @param columns the values of the row by column label, missing columns are SQL NULL
+     * @return the result set
+     */
+    static ResultSet row(Map<String, Object> columns) {
+        Object[] last = new Object[1];
+        return fake(ResultSet.class, Map.of(
+                "getString", (proxy, args) -> {
+                    last[0] = columns.get(args[0]);
+                    return last[0] == null ? null : last[0].toString();
+                },
+                "getInt", (proxy, args) -> {
+                    last[0] = columns.get(args[0]);
+                    return last[0] == null ? 0 : (Integer) last[0];
+                },
+                "wasNull", (proxy, args) -> last[0] == null));
+    }
+
+    /**
+     * Creates a statement that can only be cleared and closed.
+     * @return the statement
+     */
+    static PreparedStatement statement() {
+        AtomicBoolean closed = new AtomicBoolean();
+        return fake(PreparedStatement.class, Map.of(
+                "close", (proxy, args) -> {
+                    closed.set(true);
+                    return null;
+                },
+                "isClosed", (proxy, args) -> closed.get(),
+                "clearParameters", (proxy, args) -> null));
+    }
+
+    /**
+     * Creates a statement that records the calls of its parameter setters as "method index value".
+     * @param calls the list the calls are added to
+     * @return the statement
+     */
+    static PreparedStatement recorder(List<String> calls) {
+        Map<String, Behavior> setters = new HashMap<>();
+        for (String setter : List.of("setInt", "setLong", "setDouble", "setString", "setTimestamp", "setNull")) {
+            setters.put(setter, (proxy, args) -> {
+                calls.add(setter + " " + args[0] + " " + args[1]);
+                return null;
+            });
+        }
+        return fake(PreparedStatement.class, setters);
+    }
+}
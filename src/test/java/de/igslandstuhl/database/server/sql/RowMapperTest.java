@@ -0,0 +1,24 @@
+package de.igslandstuhl.database.server.sql;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.sql.ResultSet;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+public class RowMapperTest {
+    @Test
+    public void testColumns() throws Exception {
+        ResultSet row = JdbcFakes.row(Map.of("id", 3, "name", "Mathe"));
+        assertArrayEquals(new String[] {"Mathe", "3", null}, RowMapper.columns("name", "id", "missing").map(row));
+        assertEquals("Mathe", RowMapper.stringColumn("name").map(row));
+    }
+
+    @Test
+    public void testIntColumn() throws Exception {
+        ResultSet row = JdbcFakes.row(Map.of("id", 3));
+        assertEquals(Integer.valueOf(3), RowMapper.intColumn("id").map(row));
+        assertNull(RowMapper.intColumn("missing").map(row));
+    }
+}
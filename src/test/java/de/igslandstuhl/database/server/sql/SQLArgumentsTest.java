@@ -0,0 +1,41 @@
+package de.igslandstuhl.database.server.sql;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class SQLArgumentsTest {
+    @Test
+    public void testTypedBinding() throws Exception {
+        List<String> calls = new ArrayList<>();
+        Timestamp timestamp = new Timestamp(0);
+        SQLArguments.of().add(1).add(2L).add(0.5).add("007").add((String) null).add(timestamp).addNull(Types.INTEGER).bind(JdbcFakes.recorder(calls));
+        assertEquals(List.of("setInt 1 1", "setLong 2 2", "setDouble 3 0.5", "setString 4 007", "setNull 5 " + Types.VARCHAR,
+                "setTimestamp 6 " + timestamp, "setNull 7 " + Types.INTEGER), calls);
+    }
+
+    @Test
+    public void testParse() throws Exception {
+        List<String> calls = new ArrayList<>();
+        SQLArguments arguments = SQLArguments.parse("42", "-7", "5a", "", "+", "99999999999", "max@example.com");
+        assertEquals(7, arguments.size());
+        arguments.bind(JdbcFakes.recorder(calls));
+        assertEquals(List.of("setInt 1 42", "setInt 2 -7", "setString 3 5a", "setString 4 ", "setString 5 +",
+                "setString 6 99999999999", "setString 7 max@example.com"), calls);
+    }
+
+    @Test
+    public void testGrows() throws Exception {
+        List<String> calls = new ArrayList<>();
+        SQLArguments arguments = SQLArguments.of();
+        for (int i = 0; i < 10; i++) arguments.add(i);
+        arguments.bind(JdbcFakes.recorder(calls));
+        assertEquals(10, calls.size());
+        assertEquals("setInt 10 9", calls.get(9));
+    }
+}
@@ -0,0 +1,26 @@
+package de.igslandstuhl.database.server.sql;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+public class SQLHelperTest {
+    @Test
+    public void testCountParameters() {
+        assertEquals(2, SQLHelper.countParameters("SELECT * FROM students WHERE id = ? AND class = ?"));
+        assertEquals(1, SQLHelper.countParameters("SELECT '?' AS \"why?\" FROM students -- why?\nWHERE id = ? /* or ? */"));
+        assertEquals(0, SQLHelper.countParameters("SELECT * FROM students"));
+    }
+
+    @Test
+    public void testLoadAllStatements() {
+        Map<String, String> statements = SQLHelper.loadAllStatements();
+        assertTrue(statements.containsKey("queries/get_student_by_id"));
+        assertTrue(statements.containsKey("pushes/add_student"));
+        assertSame(statements.get("queries/get_student_by_id"), SQLHelper.getSQLQuery("get_student_by_id"));
+        assertSame(statements.get("pushes/add_student"), SQLHelper.getSQLAddStatement("student"));
+        assertThrows(SQLCommandNotFoundException.class, () -> SQLHelper.getSQLQuery("does_not_exist"));
+    }
+}
@@ -0,0 +1,144 @@
+package de.igslandstuhl.database.server.sql;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+
+public class SQLiteConnectionTest {
+    @Test
+    public void testNestedScopesReuseConnection() throws Exception {
+        try (SQLiteConnection connection = new SQLiteConnection("test-connections-" + System.currentTimeMillis(), 2)) {
+            AtomicReference<Connection> helperConnection = new AtomicReference<>();
+            Connection outer = connection.withConnection(() -> {
+                assertSame(connection.getSQLConnection(), connection.withConnection(connection::getSQLConnection));
+                // Helper threads borrow a connection of their own
+                Thread helper = new Thread(() -> {
+                    try {
+                        helperConnection.set(connection.withConnection(connection::getSQLConnection));
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                });
+                helper.start();
+                try {
+                    helper.join();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                return connection.getSQLConnection();
+            });
+            assertNotNull(helperConnection.get());
+            assertNotSame(outer, helperConnection.get());
+        }
+    }
+
+    @Test
+    public void testNoConnectionOutsideScope() throws Exception {
+        try (SQLiteConnection connection = new SQLiteConnection("test-connections-" + System.currentTimeMillis(), 1)) {
+            assertThrows(IllegalStateException.class, connection::getSQLConnection);
+            connection.withConnection(connection::getSQLConnection);
+            assertThrows(IllegalStateException.class, connection::getSQLConnection);
+        }
+    }
+
+    @Test
+    public void testConnectionLimit() throws Exception {
+        try (SQLiteConnection connection = new SQLiteConnection("test-connections-" + System.currentTimeMillis(), 1)) {
+            CountDownLatch entered = new CountDownLatch(1);
+            CountDownLatch release = new CountDownLatch(1);
+            AtomicBoolean secondRan = new AtomicBoolean();
+            Thread first = new Thread(() -> {
+                try {
+                    connection.withConnection(() -> {
+                        entered.countDown();
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            throw new IllegalStateException(e);
+                        }
+                        return null;
+                    });
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            });
+            Thread second = new Thread(() -> {
+                try {
+                    connection.withConnection(() -> secondRan.getAndSet(true));
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            });
+            first.start();
+            assertTrue(entered.await(5, TimeUnit.SECONDS));
+            second.start();
+            second.join(200);
+            assertFalse(secondRan.get());
+            release.countDown();
+            second.join(5000);
+            assertTrue(secondRan.get());
+            first.join();
+        }
+    }
+
+    @Test
+    public void testWriterConnection() throws Exception {
+        try (SQLiteConnection connection = new SQLiteConnection("test-connections-" + System.currentTimeMillis(), 2)) {
+            Connection writer = connection.withWriteConnection(connection::getSQLConnection);
+            assertSame(writer, connection.withWriteConnection(connection::getSQLConnection));
+            connection.withConnection(() -> {
+                Connection reader = connection.getSQLConnection();
+                assertNotSame(writer, reader);
+                // Writes within a read scope use the writer connection, reads within a write scope as well
+                assertSame(writer, connection.withWriteConnection(() -> connection.withConnection(connection::getSQLConnection)));
+                assertSame(reader, connection.getSQLConnection());
+                return null;
+            });
+        }
+    }
+
+    @Test
+    public void testBorrowTimeout() throws Exception {
+        try (SQLiteConnection connection = new SQLiteConnection("test-connections-" + System.currentTimeMillis(), 1, 100)) {
+            CountDownLatch entered = new CountDownLatch(1);
+            CountDownLatch release = new CountDownLatch(1);
+            Thread holder = new Thread(() -> {
+                try {
+                    connection.withWriteConnection(() -> {
+                        entered.countDown();
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            throw new IllegalStateException(e);
+                        }
+                        return null;
+                    });
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            });
+            holder.start();
+            assertTrue(entered.await(5, TimeUnit.SECONDS));
+            assertTrue(connection.getStatistics().writerLeased());
+            assertThrows(SQLException.class, () -> connection.withWriteConnection(() -> null));
+            // Readers are not blocked by the writer
+            assertNull(connection.withConnection(() -> null));
+            release.countDown();
+            holder.join();
+
+            SQLiteConnection.Statistics statistics = connection.getStatistics();
+            assertEquals(1, statistics.timeouts());
+            assertEquals(2, statistics.borrows());
+            assertEquals(1, statistics.openConnections());
+            assertEquals(0, statistics.leasedConnections());
+            assertFalse(statistics.writerLeased());
+        }
+    }
+}
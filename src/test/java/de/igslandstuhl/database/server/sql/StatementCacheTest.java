@@ -0,0 +1,44 @@
+package de.igslandstuhl.database.server.sql;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.sql.PreparedStatement;
+
+import org.junit.jupiter.api.Test;
+
+public class StatementCacheTest {
+    @Test
+    public void testTakeAndRelease() throws Exception {
+        StatementCache cache = new StatementCache(2);
+        assertNull(cache.take("a"));
+        PreparedStatement a = JdbcFakes.statement();
+        cache.release("a", a);
+        assertSame(a, cache.take("a"));
+        // A statement in use is not handed out twice
+        assertNull(cache.take("a"));
+        PreparedStatement second = JdbcFakes.statement();
+        cache.release("a", a);
+        cache.release("a", second);
+        assertTrue(second.isClosed());
+        assertFalse(a.isClosed());
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() throws Exception {
+        StatementCache cache = new StatementCache(2);
+        PreparedStatement a = JdbcFakes.statement(), b = JdbcFakes.statement(), c = JdbcFakes.statement();
+        cache.release("a", a);
+        cache.release("b", b);
+        cache.release("a", cache.take("a"));
+        cache.release("c", c);
+        assertTrue(b.isClosed());
+        assertFalse(a.isClosed());
+        assertEquals(2, cache.size());
+        cache.close();
+        assertTrue(a.isClosed());
+        assertTrue(c.isClosed());
+        assertEquals(0, cache.size());
+    }
+}
@@ -0,0 +1,118 @@
+package de.igslandstuhl.database.server.sql;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Test;
+
+public class WriteQueueTest {
+    private static final SQLVoidProcess WRITE = (supplier) -> {};
+    private static final SQLVoidProcess FAILING_WRITE = (supplier) -> { throw new SQLException("constraint failed"); };
+
+    @Test
+    public void testGroupsWrites() throws Exception {
+        List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch firstBatch = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        try (WriteQueue queue = new WriteQueue((writes) -> {
+            batchSizes.add(writes.size());
+            firstBatch.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return new Exception[writes.size()];
+        }, 0, 10)) {
+            CompletableFuture<Void> first = queue.submit(WRITE);
+            assertTrue(firstBatch.await(5, TimeUnit.SECONDS));
+            // While the first batch is committed, further writes wait and are committed together
+            List<CompletableFuture<Void>> waiting = new ArrayList<>();
+            for (int i = 0; i < 25; i++) {
+                waiting.add(queue.submit(WRITE));
+            }
+            assertFalse(first.isDone());
+            release.countDown();
+            first.get(5, TimeUnit.SECONDS);
+            CompletableFuture.allOf(waiting.toArray(CompletableFuture[]::new)).get(5, TimeUnit.SECONDS);
+            assertEquals(List.of(1, 10, 10, 5), batchSizes);
+            assertEquals(4, queue.getBatches());
+            assertEquals(26, queue.getWrites());
+        }
+    }
+
+    @Test
+    public void testFailures() throws Exception {
+        try (WriteQueue queue = new WriteQueue((writes) -> {
+            Exception[] failures = new Exception[writes.size()];
+            for (int i = 0; i < writes.size(); i++) {
+                try {
+                    writes.get(i).execute(null);
+                } catch (SQLException e) {
+                    failures[i] = e;
+                }
+            }
+            return failures;
+        }, 50, 10)) {
+            CompletableFuture<Void> ok = queue.submit(WRITE);
+            CompletableFuture<Void> failing = queue.submit(FAILING_WRITE);
+            ok.get(5, TimeUnit.SECONDS);
+            ExecutionException e = assertThrows(ExecutionException.class, () -> failing.get(5, TimeUnit.SECONDS));
+            assertEquals("constraint failed", e.getCause().getMessage());
+            assertThrows(SQLException.class, () -> SQLiteConnection.await(failing, 5000));
+        }
+    }
+
+    @Test
+    public void testErrorsFailTheBatch() throws Exception {
+        AtomicBoolean fail = new AtomicBoolean(true);
+        try (WriteQueue queue = new WriteQueue((writes) -> {
+            if (fail.getAndSet(false)) throw new AssertionError("writer broke");
+            return new Exception[writes.size()];
+        }, 0, 10)) {
+            CompletableFuture<Void> broken = queue.submit(WRITE);
+            ExecutionException e = assertThrows(ExecutionException.class, () -> broken.get(5, TimeUnit.SECONDS));
+            assertEquals("writer broke", e.getCause().getMessage());
+            // The writer survives the error
+            queue.submit(WRITE).get(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void testAwaitTimeout() {
+        assertThrows(SQLException.class, () -> SQLiteConnection.await(new CompletableFuture<>(), 10));
+    }
+
+    @Test
+    public void testCloseCommitsQueuedWrites() throws Exception {
+        CountDownLatch commitStarted = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        WriteQueue queue = new WriteQueue((writes) -> {
+            commitStarted.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return new Exception[writes.size()];
+        }, 0, 1);
+        queue.submit(WRITE);
+        assertTrue(commitStarted.await(5, TimeUnit.SECONDS));
+        CompletableFuture<Void> queued = queue.submit(WRITE);
+        release.countDown();
+        queue.close();
+        assertTrue(queued.isDone());
+        assertFalse(queued.isCompletedExceptionally());
+        CompletableFuture<Void> late = queue.submit(WRITE);
+        assertTrue(late.isCompletedExceptionally());
+    }
+}
@@ -37,4 +37,13 @@ public class GetRequestTest {
     void testToResourceLocation() {
         assertEquals(ResourceLocation.get("html", "site:login.html"), validRequest.toResourceLocation(null));
     }
+
+    @Test
+    void testWantsNormalizedJSON() {
+        assertFalse(validRequest.wantsNormalizedJSON());
+        assertTrue(new GetRequest("GET /mydata?normalized HTTP/1.1", LOCALHOST, true).wantsNormalizedJSON());
+        assertTrue(new GetRequest("GET /mydata?normalized=1 HTTP/1.1", LOCALHOST, true).wantsNormalizedJSON());
+        assertFalse(new GetRequest("GET /mydata?normalized=false HTTP/1.1", LOCALHOST, true).wantsNormalizedJSON());
+        assertTrue(new GetRequest("GET /mydata HTTP/1.1\r\nAccept: application/json; normalized", LOCALHOST, true).wantsNormalizedJSON());
+    }
 }
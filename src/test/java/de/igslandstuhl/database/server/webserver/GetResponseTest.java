@@ -55,4 +55,33 @@ public class GetResponseTest {
         assertTrue(responseString.contains(responseBody));
         assertTrue(responseString.contains("HTTP/1.1 200 OK"));
     }
+
+    @Test
+    void testNotModified() {
+        ByteArrayOutputStream first = new ByteArrayOutputStream();
+        GetResponse.getResource(request, ResourceLocation.get("html", "site:login.html"), null).respond(new PrintStream(first));
+        String etag = first.toString().lines().filter((l) -> l.startsWith("ETag: ")).findFirst().orElseThrow().substring(6);
+
+        GetRequest conditional = new GetRequest("GET / HTTP/1.1\r\nIf-None-Match: " + etag, "127.0.0.1", true);
+        ByteArrayOutputStream second = new ByteArrayOutputStream();
+        GetResponse.getResource(conditional, ResourceLocation.get("html", "site:login.html"), null).respond(new PrintStream(second));
+        String response = second.toString();
+        assertTrue(response.startsWith("HTTP/1.1 304 Not Modified"));
+        assertTrue(response.contains("ETag: " + etag));
+        assertTrue(response.endsWith("\n\n") || response.endsWith("\r\n\r\n"));
+    }
+
+    @Test
+    void testCacheControl() throws NoWebResourceException {
+        assertTrue(cacheControl(ResourceLocation.get("css", "site:style.css")).contains("max-age="));
+        assertEquals("private, no-cache", cacheControl(ResourceLocation.get("html", "site:login.html")));
+        // Role scripts share their path, see RouteTable, so they must be revalidated
+        assertEquals("private, no-cache", cacheControl(ResourceLocation.get("js", "user:build_dashboard.js")));
+        assertEquals("private, no-cache", cacheControl(ResourceLocation.get("js", "teacher:build_dashboard.js")));
+    }
+    private String cacheControl(ResourceLocation location) throws NoWebResourceException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new GetResponse(request, Status.OK, location, ContentType.ofResourceLocation(location), null).respond(new PrintStream(out));
+        return out.toString().lines().filter((l) -> l.startsWith("Cache-Control: ")).findFirst().orElseThrow().substring(15);
+    }
 }
@@ -0,0 +1,68 @@
+package de.igslandstuhl.database.server.webserver;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+public class HttpHeaderReaderTest {
+    private static HttpHeaderReader reader(String data) {
+        return new HttpHeaderReader(new ByteArrayInputStream(data.getBytes(StandardCharsets.ISO_8859_1)));
+    }
+
+    @Test
+    public void testReadHeader() throws IOException {
+        HttpHeaderReader in = reader("POST /test HTTP/1.1\r\nHost: localhost\r\ncontent-length: 11\r\nUser-Agent: Mozilla/5.0 (X11; Linux x86_64)\r\n\r\n");
+        HttpHeader header = in.readHeader();
+        assertEquals("POST", header.getMethod());
+        assertEquals("/test", header.getPath());
+        assertEquals("HTTP/1.1", header.getVersion());
+        assertEquals(11, header.getContentLength());
+        assertEquals("Mozilla/5.0 (X11; Linux x86_64)", header.getUserAgent());
+        assertNull(in.readHeader());
+    }
+
+    @Test
+    public void testBodyAndPipelinedRequests() throws IOException {
+        HttpHeaderReader in = reader("POST /a HTTP/1.1\r\nContent-Length: 5\r\n\r\nhelloGET /b HTTP/1.1\nConnection: close\n\n");
+        HttpHeader first = in.readHeader();
+        assertEquals("hello", new String(in.readNBytes(first.getContentLength()), StandardCharsets.ISO_8859_1));
+        HttpHeader second = in.readHeader();
+        assertEquals("/b", second.getPath());
+        assertEquals("close", second.getConnection());
+        assertNull(in.readHeader());
+    }
+
+    @Test
+    public void testHeaderInSmallChunks() throws IOException {
+        byte[] data = "GET /index.html HTTP/1.1\r\nCookie: session=abc; lang=de\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+        InputStream trickle = new InputStream() {
+            private int position;
+            @Override
+            public int read() {
+                return position < data.length ? data[position++] : -1;
+            }
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (position >= data.length) return -1;
+                b[off] = data[position++];
+                return 1;
+            }
+        };
+        HttpHeader header = new HttpHeaderReader(trickle).readHeader();
+        assertEquals("/index.html", header.getPath());
+        assertArrayEquals(new Cookie[] {new Cookie("session", "abc"), new Cookie("lang", "de")}, header.getCookies());
+    }
+
+    @Test
+    public void testLimits() {
+        assertThrows(HeaderTooLargeException.class, () -> reader("GET / HTTP/1.1\r\nX: " + "a".repeat(HttpHeaderScanner.MAX_HEADER_SIZE) + "\r\n\r\n").readHeader());
+        assertThrows(HeaderTooLargeException.class, () -> reader("GET / HTTP/1.1\r\n" + "X: a\r\n".repeat(HttpHeaderScanner.MAX_HEADER_LINES) + "\r\n").readHeader());
+        assertThrows(EOFException.class, () -> reader("GET / HTTP/1.1\r\nHost: local").readHeader());
+    }
+}
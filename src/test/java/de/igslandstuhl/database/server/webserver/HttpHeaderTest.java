@@ -2,6 +2,11 @@ package de.igslandstuhl.database.server.webserver;
 
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Map;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -27,4 +32,43 @@ public class HttpHeaderTest {
     void testGetPath() {
         assertEquals(postHeader.getPath(), "/login");
     }
+
+    @Test
+    void testCaseInsensitiveLookup() {
+        HttpHeader header = new HttpHeader("GET / HTTP/1.1\r\ncontent-type: text/plain\r\nX-Forwarded-For: 10.0.0.1\r\n\r\n");
+        assertEquals("text/plain", header.getContentType());
+        assertEquals("10.0.0.1", header.get("x-forwarded-for"));
+        assertNull(header.get("Accept"));
+    }
+
+    @Test
+    void testUserAgentWithColon() {
+        HttpHeader header = new HttpHeader("GET / HTTP/1.1\r\nUser-Agent: Mozilla/5.0 (X11; rv:128.0) Gecko/20100101 Firefox/128.0\r\n\r\n");
+        assertEquals("Mozilla/5.0 (X11; rv:128.0) Gecko/20100101 Firefox/128.0", header.getUserAgent());
+    }
+
+    @Test
+    void testQuery() {
+        HttpHeader header = new HttpHeader("GET /topics.html?subject=3&name=Br%C3%BCche&flag HTTP/1.1");
+        assertEquals("/topics.html", header.getPath());
+        assertEquals("/topics.html?subject=3&name=Br%C3%BCche&flag", header.getTarget());
+        assertEquals(Map.of("subject", "3", "name", "Brüche", "flag", ""), header.getQueryParameters());
+        assertEquals(Map.of(), postHeader.getQueryParameters());
+    }
+
+    @Test
+    void testRepeatedCookieHeaders() {
+        HttpHeader header = new HttpHeader("GET / HTTP/1.1\r\nCookie: a=1\r\ncookie: b=2\r\n\r\n");
+        assertArrayEquals(new Cookie[] {new Cookie("a", "1"), new Cookie("b", "2")}, header.getCookies());
+    }
+
+    @Test
+    void testAcceptsEncoding() {
+        assertFalse(new HttpHeader("GET / HTTP/1.1\r\n\r\n").acceptsEncoding("gzip"));
+        assertTrue(new HttpHeader("GET / HTTP/1.1\r\nAccept-Encoding: gzip, deflate, br\r\n\r\n").acceptsEncoding("gzip"));
+        assertTrue(new HttpHeader("GET / HTTP/1.1\r\nAccept-Encoding: br;q=1.0, GZIP;q=0.5\r\n\r\n").acceptsEncoding("gzip"));
+        assertFalse(new HttpHeader("GET / HTTP/1.1\r\nAccept-Encoding: gzip;q=0, *\r\n\r\n").acceptsEncoding("gzip"));
+        assertTrue(new HttpHeader("GET / HTTP/1.1\r\nAccept-Encoding: *\r\n\r\n").acceptsEncoding("gzip"));
+        assertFalse(new HttpHeader("GET / HTTP/1.1\r\nAccept-Encoding: identity\r\n\r\n").acceptsEncoding("gzip"));
+    }
 }
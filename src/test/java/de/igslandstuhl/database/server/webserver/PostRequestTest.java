@@ -2,7 +2,10 @@ package de.igslandstuhl.database.server.webserver;
 
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -99,4 +102,47 @@ public class PostRequestTest {
         assertEquals("/login", postRequest2.getPath());
         assertEquals("/student-data", postRequestJson.getPath());
     }
+
+    @Test
+    void testTypedAccessors() {
+        PostRequest request = new PostRequest(
+                        new HttpHeader("POST /change-task-status HTTP/1.1\r\n" + //
+                        "Content-Length: 55"),
+                        "{\"taskId\": 7, \"status\": \"done\", \"locked\": true, \"ids\": [1, 2]}", LOCALHOST, true);
+        assertEquals(7, request.getInt("taskId"));
+        assertEquals("done", request.getString("status"));
+        assertTrue(request.getBoolean("locked"));
+        assertFalse(request.getBoolean("missing"));
+        assertEquals(2, request.getList("ids").size());
+        assertTrue(request.containsKey("status"));
+        assertFalse(request.containsKey("missing"));
+        // The body is parsed once and shared by all accessors
+        assertSame(request.getJson(), request.getJson());
+        assertThrows(UnsupportedOperationException.class, () -> request.getJson().put("taskId", 8));
+
+        assertEquals("adminUser", postRequest1.getString("username"));
+        assertTrue(postRequest1.containsKey("password"));
+        assertFalse(postRequest1.containsKey("id"));
+        assertFalse(postRequest1.getBoolean("username"));
+        assertSame(postRequest1.getFormData(), postRequest1.getFormData());
+
+        PostRequest malformed = new PostRequest(new HttpHeader("POST /login HTTP/1.1"), "<xml/>", LOCALHOST, true);
+        assertFalse(malformed.containsKey("username"));
+        assertThrows(IllegalArgumentException.class, () -> malformed.getString("username"));
+        assertThrows(JsonSyntaxException.class, malformed::getJson);
+    }
+
+    @Test
+    void testEmptyBody() {
+        // WebServer passes no body for Content-Length: 0
+        PostRequest empty = new PostRequest(new HttpHeader("POST /logout HTTP/1.1\r\n" + //
+                        "Content-Length: 0"), null, LOCALHOST, true);
+        assertEquals(Map.of(), empty.getFormData());
+        assertNull(empty.getJson());
+        assertFalse(empty.containsKey("username"));
+
+        PostRequest blank = new PostRequest(new HttpHeader("POST /logout HTTP/1.1"), "", LOCALHOST, true);
+        assertEquals(Map.of(), blank.getFormData());
+        assertNull(blank.getJson());
+    }
 }
@@ -0,0 +1,77 @@
+package de.igslandstuhl.database.server.webserver;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import de.igslandstuhl.database.server.webserver.RateLimiter.Budget;
+import de.igslandstuhl.database.server.webserver.RateLimiter.Limit;
+import de.igslandstuhl.database.server.webserver.RateLimiter.TokenBucket;
+import de.igslandstuhl.database.server.webserver.requests.GetRequest;
+import de.igslandstuhl.database.server.webserver.requests.PostRequest;
+
+public class RateLimiterTest {
+    private static final String LOCALHOST = "127.0.0.1";
+
+    @BeforeAll
+    static void registerHandlers() {
+        // The budget of a POST request is declared by its handler
+        PostRequestHandler.registerHandlers();
+    }
+
+    @Test
+    void bucketAllowsBurstAndRefills() {
+        long now = 0;
+        TokenBucket bucket = new TokenBucket(new Limit(3, 60), now);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, bucket.tryAcquire(now));
+        }
+        long wait = bucket.tryAcquire(now);
+        assertEquals(TimeUnit.SECONDS.toNanos(1), wait);
+        assertEquals(0, bucket.tryAcquire(now + wait));
+        assertTrue(bucket.tryAcquire(now + wait) > 0);
+        // A full bucket does not collect more than its capacity
+        long later = now + TimeUnit.MINUTES.toNanos(10);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, bucket.tryAcquire(later));
+        }
+        assertTrue(bucket.tryAcquire(later) > 0);
+    }
+    @Test
+    void budgets() {
+        assertEquals(Budget.READ, Budget.of(new GetRequest("GET /dashboard HTTP/1.1", LOCALHOST, true)));
+        assertEquals(Budget.LOGIN, Budget.of(new PostRequest("POST /login HTTP/1.1", null, LOCALHOST, true)));
+        assertEquals(Budget.WRITE, Budget.of(new PostRequest("POST /complete-task HTTP/1.1", null, LOCALHOST, true)));
+        assertEquals(Budget.READ, Budget.of(new PostRequest("POST /student-data HTTP/1.1", null, LOCALHOST, true)));
+        assertEquals(Budget.READ, Budget.of(new PostRequest("POST /unknown HTTP/1.1", null, LOCALHOST, true)));
+    }
+    @Test
+    void requestsWithoutSessionShareTheirAddress() {
+        RateLimiter limiter = RateLimiter.perMinute(1);
+        PostRequest login = new PostRequest("POST /login HTTP/1.1", null, LOCALHOST, true);
+        for (int i = 0; i < 20; i++) {
+            assertEquals(0, limiter.tryAcquire(login, null));
+        }
+        assertTrue(limiter.tryAcquire(login, null) > 0);
+        assertEquals(0, limiter.tryAcquire(new PostRequest("POST /login HTTP/1.1", null, "10.0.0.1", true), null));
+        assertEquals(1, limiter.getRejected());
+    }
+    @Test
+    void sessionsHaveSeparateBudgets() {
+        RateLimiter limiter = RateLimiter.perMinute(2);
+        TokenBucket[] session = limiter.newSessionBuckets();
+        GetRequest read = new GetRequest("GET /mydata HTTP/1.1", LOCALHOST, true);
+        PostRequest write = new PostRequest("POST /complete-task HTTP/1.1", null, LOCALHOST, true);
+        assertEquals(0, limiter.tryAcquire(write, session));
+        assertTrue(limiter.tryAcquire(write, session) > 0);
+        assertEquals(0, limiter.tryAcquire(read, session));
+        assertEquals(0, limiter.tryAcquire(read, session));
+        assertTrue(limiter.tryAcquire(read, session) > 0);
+        // Another session is not affected
+        assertEquals(0, limiter.tryAcquire(read, limiter.newSessionBuckets()));
+    }
+}
@@ -0,0 +1,127 @@
+package de.igslandstuhl.database.server.webserver;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.jupiter.api.Test;
+
+import de.igslandstuhl.database.server.webserver.requests.HttpRequest;
+import de.igslandstuhl.database.server.webserver.requests.PostRequest;
+import de.igslandstuhl.database.server.webserver.responses.HttpResponse;
+
+public class ResponseWriterTest {
+    /**
+     * A response writing the given raw text, with the line endings chosen by the test.
+     */
+    private static HttpResponse raw(HttpRequest request, ContentType contentType, String text) {
+        return new HttpResponse() {
+            @Override
+            public Status getStatus() {
+                return Status.OK;
+            }
+            @Override
+            public HttpRequest getHttpRequest() {
+                return request;
+            }
+            @Override
+            public ContentType getContentType() {
+                return contentType;
+            }
+            @Override
+            public void respond(PrintStream out) {
+                out.print(text);
+            }
+        };
+    }
+
+    private static byte[] write(HttpResponse response, boolean keepAlive) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ResponseWriter writer = new ResponseWriter(out, response, keepAlive, "timeout=5, max=100");
+        PrintStream stream = new PrintStream(writer, false, StandardCharsets.UTF_8);
+        response.respond(stream);
+        stream.flush();
+        writer.finish();
+        return out.toByteArray();
+    }
+
+    private static PostRequest request(String header) {
+        return new PostRequest(header, null, "127.0.0.1", true);
+    }
+
+    @Test
+    void testSmallBodyHasContentLength() throws IOException {
+        String result = new String(write(raw(request("POST / HTTP/1.1"), ContentType.TEXT_PLAIN,
+                "HTTP/1.1 200 OK\nContent-Type: text/plain\nContent-Length: 99\n\nTëst"), true), StandardCharsets.UTF_8);
+        assertTrue(result.startsWith("HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\n"));
+        assertTrue(result.contains("Content-Length: 5\r\n"));
+        assertFalse(result.contains("Content-Length: 99"));
+        assertTrue(result.contains("Connection: keep-alive\r\nKeep-Alive: timeout=5, max=100\r\n"));
+        assertTrue(result.endsWith("\r\n\r\nTëst"));
+    }
+
+    @Test
+    void testLargeBodyIsChunked() throws IOException {
+        String body = "x".repeat(ResponseWriter.BUFFER_SIZE * 2 + 17);
+        byte[] bytes = write(raw(request("POST / HTTP/1.1"), ContentType.PNG, "HTTP/1.1 200 OK\r\n\r\n" + body), true);
+        String result = new String(bytes, StandardCharsets.ISO_8859_1);
+        assertTrue(result.contains("Transfer-Encoding: chunked\r\n"));
+        assertFalse(result.contains("Content-Length"));
+        assertTrue(result.endsWith("\r\n0\r\n\r\n"));
+        assertEquals(body, dechunk(result.substring(result.indexOf("\r\n\r\n") + 4)));
+    }
+
+    @Test
+    void testLargeBodyIsChunkedAndCompressed() throws IOException {
+        String body = "{\"name\":\"Test\"},".repeat(ResponseWriter.BUFFER_SIZE / 8);
+        byte[] bytes = write(raw(request("POST / HTTP/1.1\r\nAccept-Encoding: gzip"), ContentType.JSON, "HTTP/1.1 200 OK\r\n\r\n" + body), true);
+        String result = new String(bytes, StandardCharsets.ISO_8859_1);
+        assertTrue(result.contains("Content-Encoding: gzip\r\n"));
+        String chunked = dechunk(result.substring(result.indexOf("\r\n\r\n") + 4));
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(chunked.getBytes(StandardCharsets.ISO_8859_1)))) {
+            assertEquals(body, new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    void testLargeBodyForHttp10ClosesConnection() throws IOException {
+        String body = "x".repeat(ResponseWriter.BUFFER_SIZE + 1);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        HttpResponse response = raw(request("POST / HTTP/1.0"), ContentType.TEXT_PLAIN, "HTTP/1.1 200 OK\r\n\r\n" + body);
+        ResponseWriter writer = new ResponseWriter(out, response, true, null);
+        PrintStream stream = new PrintStream(writer, false, StandardCharsets.UTF_8);
+        response.respond(stream);
+        stream.flush();
+        writer.finish();
+        assertFalse(writer.isKeepAlive());
+        String result = out.toString(StandardCharsets.ISO_8859_1);
+        assertTrue(result.contains("Connection: close\r\n"));
+        assertFalse(result.contains("Transfer-Encoding"));
+        assertTrue(result.endsWith("\r\n\r\n" + body));
+    }
+
+    @Test
+    void testNotModifiedHasNoBody() throws IOException {
+        String result = new String(write(raw(request("POST / HTTP/1.1"), ContentType.HTML, "HTTP/1.1 304 Not Modified\r\nETag: \"1\"\r\n\r\n"), true), StandardCharsets.UTF_8);
+        assertFalse(result.contains("Content-Length"));
+        assertTrue(result.endsWith("ETag: \"1\"\r\nConnection: keep-alive\r\nKeep-Alive: timeout=5, max=100\r\n\r\n"));
+    }
+
+    private static String dechunk(String chunked) {
+        StringBuilder body = new StringBuilder();
+        int position = 0;
+        while (true) {
+            int lineEnd = chunked.indexOf("\r\n", position);
+            int size = Integer.parseInt(chunked.substring(position, lineEnd), 16);
+            if (size == 0) return body.toString();
+            body.append(chunked, lineEnd + 2, lineEnd + 2 + size);
+            assertEquals("\r\n", chunked.substring(lineEnd + 2 + size, lineEnd + 4 + size));
+            position = lineEnd + 4 + size;
+        }
+    }
+}
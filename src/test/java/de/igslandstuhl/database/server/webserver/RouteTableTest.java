@@ -0,0 +1,52 @@
+package de.igslandstuhl.database.server.webserver;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+import de.igslandstuhl.database.api.User;
+import de.igslandstuhl.database.server.resources.ResourceLocation;
+import de.igslandstuhl.database.server.webserver.RouteTable.Audience;
+
+public class RouteTableTest {
+    private final RouteTable routes = RouteTable.getDefault();
+
+    @Test
+    void testRolePages() {
+        RouteTable.Route dashboard = routes.get("/dashboard");
+        assertEquals(new ResourceLocation("html", "admin", "dashboard.html"), dashboard.location(Audience.ADMIN));
+        assertEquals(new ResourceLocation("html", "teacher", "dashboard.html"), dashboard.location(Audience.TEACHER));
+        assertEquals(new ResourceLocation("html", "user", "dashboard.html"), dashboard.location(Audience.STUDENT));
+        assertEquals(dashboard.location(Audience.TEACHER), routes.get("/dashboard.html").location(Audience.TEACHER));
+
+        assertEquals(new ResourceLocation("js", "user", "build_results.js"), routes.get("/build_results.js").location(Audience.STUDENT));
+        assertEquals(new ResourceLocation("js", "teacher", "build_results.js"), routes.get("/build_results.js").location(Audience.TEACHER));
+        // Students get the restricted page and are refused by the access check
+        assertEquals(new ResourceLocation("html", "admin", "teacher.html"), routes.get("/teacher").location(Audience.STUDENT));
+    }
+
+    @Test
+    void testSqlResourcesAndIndex() {
+        assertEquals(new ResourceLocation("virtual", "sql", "students"), routes.resolve("/students", null));
+        assertEquals(new ResourceLocation("html", "site", "index.html"), routes.resolve("/", User.ANONYMOUS));
+    }
+
+    @Test
+    void testResolveReusesLocations() {
+        assertSame(routes.resolve("/dashboard", null), routes.resolve("/dashboard", User.ANONYMOUS));
+        assertNull(routes.resolve("/login", null));
+    }
+
+    @Test
+    void testFallback() {
+        assertEquals(new ResourceLocation("html", "site", "login.html"), WebResourceHandler.locationFromPath("/login", null));
+        assertEquals(new ResourceLocation("css", "site", "style.css"), WebResourceHandler.locationFromPath("/site/style.css", null));
+        assertEquals(new ResourceLocation("imgs", "icons", "favicon.ico"), WebResourceHandler.locationFromPath("/favicon.ico", null));
+    }
+
+    @Test
+    void testToString() {
+        assertTrue(routes.toString().contains("/students -> virtual:sql:students (ADMIN)"));
+        assertEquals(routes.size(), routes.toString().lines().count());
+    }
+}
@@ -3,6 +3,7 @@ package de.igslandstuhl.database.server.webserver;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.sql.SQLException;
@@ -12,6 +13,7 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import de.igslandstuhl.database.api.PreConditions;
+import de.igslandstuhl.database.api.User;
 import de.igslandstuhl.database.server.webserver.requests.PostRequest;
 
 public class SessionManagerTest {
@@ -49,4 +51,112 @@ public class SessionManagerTest {
         Session session3 = sessionManager.getSession(sessionRequest2);
         assertEquals(session1, session3);
     }
+    @Test
+    void testFindSessionDoesNotCreate() {
+        assertNull(sessionManager.findSession(requestWithoutSession));
+        assertNull(sessionManager.findSession(sessionRequest));
+        PostRequest malformed = new PostRequest("POST /student-data HTTP/1.1\r\n" + //
+                        "Cookie: session=not-a-uuid", null, LOCALHOST, true);
+        assertNull(sessionManager.findSession(malformed));
+        assertEquals(0, sessionManager.sessionCount());
+
+        Session session = sessionManager.getSession(requestWithoutSession);
+        PostRequest sessionRequest2 = new PostRequest("POST /student-data HTTP/1.1\r\n" + //
+                        "Cookie: " + session.createSessionCookie().toString(), null, LOCALHOST, true);
+        assertEquals(session, sessionManager.findSession(sessionRequest2));
+    }
+    @Test
+    void testRequestWithoutSessionIsAnonymous() {
+        assertEquals(User.ANONYMOUS, sessionManager.getSessionUser(requestWithoutSession));
+        assertTrue(sessionManager.validateSession(requestWithoutSession));
+        assertEquals(0, sessionManager.sessionCount());
+    }
+    @Test
+    void testEvictsAnonymousSessionsFirst() {
+        SessionManager small = new SessionManager(Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, 3);
+        Session user = small.getSession(requestWithoutSession);
+        small.addSessionUser(user, "adminUser");
+        Session anonymous1 = small.getSession(requestWithoutSession);
+        Session anonymous2 = small.getSession(requestWithoutSession);
+        assertEquals(3, small.sessionCount());
+
+        Session anonymous3 = small.getSession(requestWithoutSession);
+        assertEquals(3, small.sessionCount());
+        assertNull(small.getSession(anonymous1.getUUID()));
+        assertEquals(user, small.getSession(user.getUUID()));
+        assertEquals(anonymous2, small.getSession(anonymous2.getUUID()));
+        assertEquals(anonymous3, small.getSession(anonymous3.getUUID()));
+    }
+    @Test
+    void testEvictsLeastRecentlyUsedAnonymousSession() {
+        SessionManager small = new SessionManager(Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, 3);
+        Session old = small.getSession(requestWithoutSession);
+        Session idle1 = small.getSession(requestWithoutSession);
+        Session idle2 = small.getSession(requestWithoutSession);
+        // The oldest session is still in use
+        PostRequest oldRequest = new PostRequest("POST /student-data HTTP/1.1\r\n" + //
+                        "Cookie: " + old.createSessionCookie().toString(), null, LOCALHOST, true);
+        assertTrue(small.validateSession(oldRequest));
+
+        Session added = small.getSession(requestWithoutSession);
+        assertEquals(3, small.sessionCount());
+        assertEquals(old, small.getSession(old.getUUID()));
+        assertNull(small.getSession(idle1.getUUID()));
+        assertEquals(idle2, small.getSession(idle2.getUUID()));
+        assertEquals(added, small.getSession(added.getUUID()));
+
+        // Without further use, the old session is evicted before the newer ones
+        small.getSession(requestWithoutSession);
+        assertEquals(old, small.getSession(old.getUUID()));
+        assertNull(small.getSession(idle2.getUUID()));
+        small.getSession(requestWithoutSession);
+        assertNull(small.getSession(old.getUUID()));
+        assertEquals(3, small.getStatistics().evicted());
+    }
+    @Test
+    void testLoginReplacesPreviousSession() {
+        Session first = sessionManager.getSession(requestWithoutSession);
+        sessionManager.addSessionUser(first, "adminUser");
+        Session second = sessionManager.getSession(requestWithoutSession);
+        sessionManager.addSessionUser(second, "adminUser");
+        assertNull(sessionManager.getSession(first.getUUID()));
+        assertEquals(second, sessionManager.getSession(second.getUUID()));
+        assertEquals(1, sessionManager.sessionCount());
+    }
+    @Test
+    void testExpiry() {
+        try (SessionManager expiring = new SessionManager(10, 5, Integer.MAX_VALUE)) {
+            long now = System.currentTimeMillis();
+            Session session = expiring.getSession(requestWithoutSession);
+            expiring.expire(now + 3000);
+            assertEquals(session, expiring.getSession(session.getUUID()));
+
+            expiring.expire(now + 7000);
+            assertNull(expiring.getSession(session.getUUID()));
+            assertEquals(new SessionManager.Statistics(0, 0, 1, 0), expiring.getStatistics());
+        }
+        try (SessionManager expiring = new SessionManager(2, 60, Integer.MAX_VALUE)) {
+            long now = System.currentTimeMillis();
+            expiring.getSession(requestWithoutSession);
+            expiring.expire(now + 4000);
+            assertEquals(new SessionManager.Statistics(0, 1, 0, 0), expiring.getStatistics());
+        }
+    }
+    @Test
+    void testRequestContext() {
+        RequestContext anonymous = sessionManager.createContext(requestWithoutSession);
+        assertNull(anonymous.getSession());
+        assertNull(anonymous.getSessionCookie());
+        assertEquals(User.ANONYMOUS, anonymous.getUser());
+        assertTrue(sessionManager.validateSession(anonymous));
+
+        Session session = sessionManager.getSession(requestWithoutSession);
+        PostRequest sessionRequest2 = new PostRequest("POST /student-data HTTP/1.1\r\n" + //
+                        "Cookie: " + session.createSessionCookie().toString(), null, LOCALHOST, true);
+        RequestContext context = sessionManager.createContext(sessionRequest2);
+        assertEquals(session, context.getSession());
+        assertEquals(session.createSessionCookie().toString(), context.getSessionCookie().toString());
+        assertEquals(User.ANONYMOUS, context.getUser());
+        assertTrue(sessionManager.validateSession(context));
+    }
 }
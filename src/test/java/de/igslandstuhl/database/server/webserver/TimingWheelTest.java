@@ -0,0 +1,57 @@
+package de.igslandstuhl.database.server.webserver;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class TimingWheelTest {
+    @Test
+    void expiresAtDeadline() {
+        TimingWheel<String> wheel = new TimingWheel<>(8, 1000, 0);
+        wheel.schedule("a", 2500);
+        wheel.schedule("b", 4000);
+        List<String> expired = new ArrayList<>();
+        assertEquals(0, wheel.advance(2000, expired::add));
+        assertEquals(1, wheel.advance(3000, expired::add));
+        assertEquals(List.of("a"), expired);
+        assertEquals(1, wheel.advance(4000, expired::add));
+        assertEquals(List.of("a", "b"), expired);
+        assertEquals(0, wheel.size());
+    }
+    @Test
+    void deadlinesBeyondOneTurn() {
+        TimingWheel<String> wheel = new TimingWheel<>(4, 1000, 0);
+        wheel.schedule("late", 10000);
+        List<String> expired = new ArrayList<>();
+        for (long now = 1000; now < 10000; now += 1000) {
+            wheel.advance(now, expired::add);
+        }
+        assertTrue(expired.isEmpty());
+        wheel.advance(10000, expired::add);
+        assertEquals(List.of("late"), expired);
+    }
+    @Test
+    void longPauseExpiresEverything() {
+        TimingWheel<Integer> wheel = new TimingWheel<>(4, 1000, 0);
+        for (int i = 1; i <= 10; i++) {
+            wheel.schedule(i, i * 1000L);
+        }
+        wheel.schedule(11, 100000);
+        List<Integer> expired = new ArrayList<>();
+        assertEquals(10, wheel.advance(50000, expired::add));
+        assertEquals(1, wheel.size());
+    }
+    @Test
+    void pastDeadlineExpiresWithNextTick() {
+        TimingWheel<String> wheel = new TimingWheel<>(4, 1000, 0);
+        wheel.advance(5000, (item) -> {});
+        wheel.schedule("past", 1000);
+        List<String> expired = new ArrayList<>();
+        wheel.advance(6000, expired::add);
+        assertEquals(List.of("past"), expired);
+    }
+}